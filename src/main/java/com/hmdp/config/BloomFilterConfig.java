@@ -0,0 +1,68 @@
+package com.hmdp.config;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.utils.IdBloomFilter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@Slf4j
+@Configuration
+public class BloomFilterConfig {
+
+    // 过滤器由本类创建，延迟获取
+    @Resource
+    private ObjectProvider<IdBloomFilter> bloomFilters;
+
+    @Bean
+    public IdBloomFilter shopBloomFilter(ShopMapper shopMapper, StringRedisTemplate stringRedisTemplate,
+                                         @Value("${hmdp.bloom.shop.fpp:0.001}") double fpp,
+                                         @Value("${hmdp.bloom.shop.expected-insertions:100000}") long expectedInsertions) {
+        return new IdBloomFilter("shop", fpp, expectedInsertions,
+                lastId -> toIds(shopMapper.selectObjs(new QueryWrapper<Shop>()
+                        .select("id").gt("id", lastId).orderByAsc("id")
+                        .last("LIMIT " + IdBloomFilter.loadBatchSize()))),
+                stringRedisTemplate);
+    }
+
+    @Bean
+    public IdBloomFilter blogBloomFilter(BlogMapper blogMapper, StringRedisTemplate stringRedisTemplate,
+                                         @Value("${hmdp.bloom.blog.fpp:0.001}") double fpp,
+                                         @Value("${hmdp.bloom.blog.expected-insertions:1000000}") long expectedInsertions) {
+        return new IdBloomFilter("blog", fpp, expectedInsertions,
+                lastId -> toIds(blogMapper.selectObjs(new QueryWrapper<Blog>()
+                        .select("id").gt("id", lastId).orderByAsc("id")
+                        .last("LIMIT " + IdBloomFilter.loadBatchSize()))),
+                stringRedisTemplate);
+    }
+
+    private static List<Long> toIds(List<Object> objs) {
+        return objs.stream().map(o -> ((Number) o).longValue()).collect(Collectors.toList());
+    }
+
+    /**
+     * 启动时立即构建，之后定期重建以清理已删除的数据
+     */
+    @Scheduled(fixedDelayString = "${hmdp.bloom.rebuild-interval-ms:3600000}")
+    public void rebuildBloomFilters() {
+        bloomFilters.orderedStream().forEach(bloomFilter -> {
+            try {
+                bloomFilter.rebuild();
+            } catch (Exception e) {
+                log.error("布隆过滤器[{}]重建失败", bloomFilter.getName(), e);
+            }
+        });
+    }
+}
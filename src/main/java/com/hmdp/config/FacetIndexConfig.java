@@ -0,0 +1,47 @@
+package com.hmdp.config;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.utils.ShopFacetIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.annotation.Resource;
+
+@Slf4j
+@Configuration
+public class FacetIndexConfig {
+
+    // 索引由本类创建，延迟获取
+    @Resource
+    private ObjectProvider<ShopFacetIndex> shopFacetIndexProvider;
+
+    @Bean
+    public ShopFacetIndex shopFacetIndex(ShopMapper shopMapper, StringRedisTemplate stringRedisTemplate,
+                                         @Value("${hmdp.facet.price-bounds:50,100,200,500}") long[] priceBounds,
+                                         @Value("${hmdp.facet.score-thresholds:30,35,40,45}") int[] scoreThresholds) {
+        return new ShopFacetIndex(priceBounds, scoreThresholds,
+                lastId -> shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "type_id", "area", "avg_price", "score").gt("id", lastId).orderByAsc("id")
+                        .last("LIMIT " + ShopFacetIndex.loadBatchSize())),
+                stringRedisTemplate);
+    }
+
+    /**
+     * 启动时立即构建，之后定期检查版本号，店铺筛选字段变化时重建
+     */
+    @Scheduled(fixedDelayString = "${hmdp.facet.version-check-interval-ms:10000}")
+    public void checkShopFacetIndex() {
+        try {
+            shopFacetIndexProvider.getObject().checkVersion();
+        } catch (Exception e) {
+            log.error("店铺筛选索引重建失败", e);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.hmdp.config;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopGeoLoader;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cursor.Cursor;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+@Slf4j
+@Configuration
+public class GeoIndexConfig {
+
+    // 索引由本类创建，延迟获取
+    @Resource
+    private ObjectProvider<ShopGeoIndex> shopGeoIndexProvider;
+
+    @Resource
+    private ObjectProvider<ShopGeoLoader> shopGeoLoaderProvider;
+
+    @Bean
+    public ShopGeoIndex shopGeoIndex(ShopMapper shopMapper, StringRedisTemplate stringRedisTemplate,
+                                     @Value("${hmdp.geo.cell-degrees:0.01}") double cellDegrees) {
+        return new ShopGeoIndex(cellDegrees,
+                lastId -> shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "type_id", "x", "y").gt("id", lastId).orderByAsc("id")
+                        .last("LIMIT " + ShopGeoIndex.loadBatchSize())),
+                stringRedisTemplate);
+    }
+
+    /**
+     * 启动时立即构建，之后定期重建以修正丢失的更新广播
+     */
+    @Scheduled(fixedDelayString = "${hmdp.geo.rebuild-interval-ms:3600000}")
+    public void rebuildShopGeoIndex() {
+        try {
+            shopGeoIndexProvider.getObject().rebuild();
+        } catch (Exception e) {
+            log.error("店铺位置索引重建失败", e);
+        }
+    }
+
+    @Bean
+    public ShopGeoLoader shopGeoLoader(ShopMapper shopMapper, PlatformTransactionManager transactionManager,
+                                       StringRedisTemplate stringRedisTemplate, RedissonClient redissonClient) {
+        // 游标需在同一个连接上遍历完，放在只读事务中
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        return new ShopGeoLoader(
+                action -> transactionTemplate.executeWithoutResult(status -> {
+                    try (Cursor<Shop> cursor = shopMapper.scanLocations()) {
+                        cursor.forEach(action);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }),
+                stringRedisTemplate, redissonClient);
+    }
+
+    /**
+     * 启动时及redis数据丢失后全量加载redis GEO，平时由新增和修改店铺增量更新
+     */
+    @Scheduled(fixedDelayString = "${hmdp.geo.redis-check-interval-ms:60000}")
+    public void checkShopGeoLoader() {
+        try {
+            shopGeoLoaderProvider.getObject().loadIfMissing();
+        } catch (Exception e) {
+            log.error("店铺坐标加载失败", e);
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.AdminInterceptor;
 import com.hmdp.utils.LoginInterceptor;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -15,6 +17,9 @@ public class MvcConfig implements WebMvcConfigurer {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Value("${hmdp.admin.user-ids:}")
+    private long[] adminUserIds;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         // 登录拦截器
@@ -29,6 +34,10 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/voucher/**"
                 )
                 .order(1);
+        // 管理接口拦截器
+        registry.addInterceptor(new AdminInterceptor(adminUserIds))
+                .addPathPatterns("/admin/**")
+                .order(2);
         // token刷新拦截器
         registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate))
                 .addPathPatterns("/**")
@@ -0,0 +1,71 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillStock;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopNameIndex;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+@Configuration
+public class RedisConfig {
+
+    @Bean
+    public RedisTemplate<String, byte[]> byteRedisTemplate(RedisConnectionFactory connectionFactory) {
+        // 缓存值由CacheClient自行编码，这里按原始字节读写
+        RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(RedisSerializer.string());
+        template.setValueSerializer(RedisSerializer.byteArray());
+        return template;
+    }
+
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(
+            RedisConnectionFactory connectionFactory, CacheClient cacheClient, List<IdBloomFilter> bloomFilters,
+            ShopGeoIndex shopGeoIndex, ShopNameIndex shopNameIndex, SeckillStock seckillStock) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        // 缓存失效广播，各节点删除本地缓存
+        container.addMessageListener(
+                (message, pattern) -> cacheClient.onInvalidateMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RedisConstants.CACHE_INVALIDATE_CHANNEL));
+        // 布隆过滤器新增id广播，消息格式：过滤器名称:id
+        Map<String, IdBloomFilter> filterMap = bloomFilters.stream()
+                .collect(Collectors.toMap(IdBloomFilter::getName, Function.identity()));
+        container.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            int index = body.lastIndexOf(':');
+            IdBloomFilter bloomFilter = filterMap.get(body.substring(0, Math.max(index, 0)));
+            if (bloomFilter != null) {
+                bloomFilter.putLocal(Long.valueOf(body.substring(index + 1)));
+            }
+        }, new ChannelTopic(RedisConstants.BLOOM_ADD_CHANNEL));
+        // 店铺位置更新广播
+        container.addMessageListener(
+                (message, pattern) -> shopGeoIndex.onUpdateMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RedisConstants.GEO_UPDATE_CHANNEL));
+        // 店铺名称更新广播
+        container.addMessageListener(
+                (message, pattern) -> shopNameIndex.onUpdateMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RedisConstants.SHOP_NAME_UPDATE_CHANNEL));
+        // 秒杀券售罄及补充库存广播
+        container.addMessageListener(
+                (message, pattern) -> seckillStock.onSoldOutMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RedisConstants.SECKILL_SOLD_OUT_CHANNEL));
+        return container;
+    }
+}
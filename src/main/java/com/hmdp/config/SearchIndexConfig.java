@@ -0,0 +1,69 @@
+package com.hmdp.config;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.ShopSuggester;
+import com.hmdp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.annotation.Resource;
+
+@Slf4j
+@Configuration
+public class SearchIndexConfig {
+
+    // 索引由本类创建，延迟获取
+    @Resource
+    private ObjectProvider<ShopNameIndex> shopNameIndexProvider;
+
+    @Resource
+    private ObjectProvider<ShopSuggester> shopSuggesterProvider;
+
+    @Bean
+    public ShopNameIndex shopNameIndex(ShopMapper shopMapper, StringRedisTemplate stringRedisTemplate) {
+        return new ShopNameIndex(
+                lastId -> shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "name").gt("id", lastId).orderByAsc("id")
+                        .last("LIMIT " + ShopNameIndex.loadBatchSize())),
+                stringRedisTemplate);
+    }
+
+    @Bean
+    public ShopSuggester shopSuggester(ShopMapper shopMapper) {
+        return new ShopSuggester(SystemConstants.SUGGEST_SIZE,
+                lastId -> shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "name", "area", "sold", "score").gt("id", lastId).orderByAsc("id")
+                        .last("LIMIT " + ShopSuggester.loadBatchSize())));
+    }
+
+    /**
+     * 启动时立即构建，之后定期重建以修正丢失的更新广播
+     */
+    @Scheduled(fixedDelayString = "${hmdp.search.rebuild-interval-ms:3600000}")
+    public void rebuildShopNameIndex() {
+        try {
+            shopNameIndexProvider.getObject().rebuild();
+        } catch (Exception e) {
+            log.error("店铺名称索引重建失败", e);
+        }
+    }
+
+    /**
+     * 联想字典树只读，在后台定期全量重建后替换
+     */
+    @Scheduled(fixedDelayString = "${hmdp.search.suggest-rebuild-interval-ms:600000}")
+    public void rebuildShopSuggester() {
+        try {
+            shopSuggesterProvider.getObject().rebuild();
+        } catch (Exception e) {
+            log.error("店铺联想字典树重建失败", e);
+        }
+    }
+}
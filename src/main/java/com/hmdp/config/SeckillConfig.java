@@ -0,0 +1,68 @@
+package com.hmdp.config;
+
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillStock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Set;
+
+@Slf4j
+@Configuration
+public class SeckillConfig {
+
+    // 由本类创建，延迟获取
+    @Resource
+    private ObjectProvider<SeckillStock> seckillStockProvider;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    // 退役的分片stream保留的时间，需长于消费者更新分配的间隔
+    @Value("${hmdp.seckill.retired-stream-keep-seconds:3600}")
+    private long retiredStreamKeepSeconds;
+
+    @Bean
+    public SeckillStock seckillStock(StringRedisTemplate stringRedisTemplate,
+                                     @Value("${hmdp.seckill.stock-shards:4}") int shards,
+                                     @Value("${hmdp.seckill.stream-partitions:1}") int streamPartitions,
+                                     @Value("${hmdp.seckill.sold-out-ttl-seconds:60}") long soldOutTtlSeconds) {
+        return new SeckillStock(stringRedisTemplate, shards, RedisConstants.SECKILL_STREAM_KEY, streamPartitions,
+                soldOutTtlSeconds);
+    }
+
+    /**
+     * 已结束的秒杀券的分片stream处理完后移出登记集合，避免消费者分配和认领检查的stream只增不减
+     */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.retire-check-interval-ms:600000}")
+    public void retireEndedStreams() {
+        try {
+            SeckillStock seckillStock = seckillStockProvider.getObject();
+            Set<Long> voucherIds = seckillStock.shardedVouchers();
+            if (voucherIds.isEmpty()) {
+                return;
+            }
+            LocalDateTime now = LocalDateTime.now();
+            for (SeckillVoucher voucher : seckillVoucherService.listByIds(voucherIds)) {
+                if (voucher.getEndTime() == null || voucher.getEndTime().isAfter(now)) {
+                    continue;
+                }
+                if (seckillStock.retireStreams(voucher.getVoucherId(), Duration.ofSeconds(retiredStreamKeepSeconds))) {
+                    log.info("秒杀券的分片stream已退役：{}", voucher.getVoucherId());
+                }
+            }
+        } catch (Exception e) {
+            log.error("分片stream退役失败", e);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.hmdp.config;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.utils.ShopRanking;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.annotation.Resource;
+
+@Slf4j
+@Configuration
+public class ShopRankConfig {
+
+    // 由本类创建，延迟获取
+    @Resource
+    private ObjectProvider<ShopRanking> shopRankingProvider;
+
+    @Bean
+    public ShopRanking shopRanking(ShopMapper shopMapper, StringRedisTemplate stringRedisTemplate,
+                                   RedissonClient redissonClient) {
+        return new ShopRanking(
+                lastId -> shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "type_id", "score", "sold", "comments").gt("id", lastId).orderByAsc("id")
+                        .last("LIMIT " + ShopRanking.loadBatchSize())),
+                stringRedisTemplate, redissonClient);
+    }
+
+    /**
+     * 启动时及redis数据丢失后全量构建，平时由新增和修改店铺增量更新
+     */
+    @Scheduled(fixedDelayString = "${hmdp.rank.check-interval-ms:60000}")
+    public void checkShopRanking() {
+        try {
+            shopRankingProvider.getObject().rebuildIfMissing();
+        } catch (Exception e) {
+            log.error("店铺排行重建失败", e);
+        }
+    }
+}
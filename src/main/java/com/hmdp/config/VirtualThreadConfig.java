@@ -0,0 +1,34 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.VirtualThreads;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 开启hmdp.virtual-threads.enabled后，Tomcat每个请求使用一个虚拟线程处理，需要JDK 21运行
+ * UserHolder的ThreadLocal随请求线程创建和销毁，拦截器的afterCompletion中仍需清理
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "hmdp.virtual-threads.enabled", havingValue = "true")
+public class VirtualThreadConfig {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        return protocolHandler -> {
+            // 未能创建虚拟线程执行器时不修改，Tomcat使用默认的平台线程池
+            ExecutorService executor = VirtualThreads.tryNewExecutor("tomcat-virtual-");
+            if (executor == null) {
+                log.warn("Tomcat使用平台线程池");
+                return;
+            }
+            protocolHandler.setExecutor(executor);
+            log.info("Tomcat使用虚拟线程处理请求");
+        };
+    }
+}
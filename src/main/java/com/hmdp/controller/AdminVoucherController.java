@@ -0,0 +1,36 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IVoucherService;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 优惠券管理，仅管理员可访问
+ * </p>
+ */
+@RestController
+@RequestMapping("/admin/voucher")
+public class AdminVoucherController {
+
+    @Resource
+    private IVoucherService voucherService;
+
+    /**
+     * 补充秒杀券库存
+     * @param voucherId 秒杀券id
+     * @param amount 补充数量
+     * @return 无
+     */
+    @PutMapping("/seckill/{id}/stock")
+    public Result restockSeckillVoucher(@PathVariable("id") Long voucherId, @RequestParam("amount") Integer amount) {
+        return voucherService.restockSeckillVoucher(voucherId, amount);
+    }
+}
@@ -47,12 +47,17 @@ public class BlogController {
     }
 
     @GetMapping("/of/me")
-    public Result queryMyBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
+    public Result queryMyBlog(@RequestParam(value = "current", defaultValue = "1") Integer current,
+                              @RequestParam(value = "cursor", required = false) String cursor) {
         // 获取登录用户
         UserDTO user = UserHolder.getUser();
-        // 根据用户查询
+        // 传入游标（第一页传空值）时使用键集分页
+        if (cursor != null) {
+            return blogService.queryBlogOfUser(user.getId(), cursor);
+        }
+        // 根据用户查询，不查询总数
         Page<Blog> page = blogService.query()
-                .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+                .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
         return Result.ok(records);
@@ -76,10 +81,15 @@ public class BlogController {
     @GetMapping("/of/user")
     public Result queryBlogByUserId(
             @RequestParam(value = "current", defaultValue = "1") Integer current,
-            @RequestParam("id") Long id) {
-        // 根据用户查询
+            @RequestParam("id") Long id,
+            @RequestParam(value = "cursor", required = false) String cursor) {
+        // 传入游标（第一页传空值）时使用键集分页
+        if (cursor != null) {
+            return blogService.queryBlogOfUser(id, cursor);
+        }
+        // 根据用户查询，不查询总数
         Page<Blog> page = blogService.query()
-                .eq("user_id", id).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+                .eq("user_id", id).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
         return Result.ok(records);
@@ -0,0 +1,129 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.SeckillStock;
+import com.hmdp.utils.ShopFacetIndex;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopGeoLoader;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.ShopRanking;
+import com.hmdp.utils.ShopSuggester;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * 缓存运行指标
+ * </p>
+ */
+@RestController
+@RequestMapping("/admin/cache")
+public class CacheController {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private List<IdBloomFilter> bloomFilters;
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Resource
+    private ShopNameIndex shopNameIndex;
+
+    @Resource
+    private ShopSuggester shopSuggester;
+
+    @Resource
+    private ShopFacetIndex shopFacetIndex;
+
+    @Resource
+    private ShopRanking shopRanking;
+
+    @Resource
+    private ShopGeoLoader shopGeoLoader;
+
+    @Resource
+    private SeckillStock seckillStock;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    /**
+     * 查询缓存统计信息
+     * @return 各缓存层的命中率、陈旧度等指标
+     */
+    @GetMapping("/stats")
+    public Result queryStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("local", cacheClient.localCacheStats());
+        stats.put("hot", cacheClient.hotCacheStats());
+        stats.put("singleFlight", cacheClient.singleFlightStats());
+        stats.put("lease", cacheClient.leaseStats());
+        stats.put("refreshAhead", cacheClient.refreshAheadStats());
+        stats.put("compression", cacheClient.compressionStats());
+        Map<String, Object> bloom = new LinkedHashMap<>();
+        for (IdBloomFilter bloomFilter : bloomFilters) {
+            bloom.put(bloomFilter.getName(), bloomFilter.stats());
+        }
+        stats.put("bloom", bloom);
+        stats.put("geo", shopGeoIndex.stats());
+        stats.put("name", shopNameIndex.stats());
+        stats.put("suggest", shopSuggester.stats());
+        stats.put("facet", shopFacetIndex.stats());
+        stats.put("seckill", seckillStock.stats());
+        stats.put("orderConsumers", voucherOrderService.queryConsumerStats());
+        return Result.ok(stats);
+    }
+
+    /**
+     * 查询当前热点key
+     * @return 按窗口内访问次数降序的热点key列表
+     */
+    @GetMapping("/hot-keys")
+    public Result queryHotKeys() {
+        return Result.ok(cacheClient.hotKeys());
+    }
+
+    /**
+     * 店铺类型变更后刷新快照
+     * @return 新快照的ETag
+     */
+    @PostMapping("/shop-type/refresh")
+    public Result refreshShopType() {
+        shopTypeService.refreshTypeList();
+        return Result.ok(shopTypeService.queryTypeSnapshot().getEtag());
+    }
+
+    /**
+     * 从数据库全量重建店铺排行
+     */
+    @PostMapping("/shop-rank/rebuild")
+    public Result rebuildShopRank() {
+        return shopRanking.rebuild() ? Result.ok() : Result.fail("其他节点正在重建");
+    }
+
+    /**
+     * 从数据库全量加载店铺坐标到redis GEO
+     */
+    @PostMapping("/shop-geo/reload")
+    public Result reloadShopGeo() {
+        return shopGeoLoader.load() ? Result.ok() : Result.fail("其他节点正在加载");
+    }
+}
@@ -1,15 +1,15 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.SystemConstants;
+import org.springframework.http.HttpHeaders;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import javax.annotation.Resource;
+import java.util.List;
 
 /**
  * <p>
@@ -27,13 +27,27 @@ public class ShopController {
     public IShopService shopService;
 
     /**
-     * 根据id查询商铺信息
+     * 根据id查询商铺信息，支持If-None-Match条件请求
      * @param id 商铺id
-     * @return 商铺详情数据
+     * @return 商铺详情数据，未变化时返回304
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
-        return shopService.queryById(id);
+    public Result queryShopById(@PathVariable("id") Long id, WebRequest request) {
+        // 条件请求先只读取缓存头部的版本号，未变化时不读取店铺数据
+        Long version = null;
+        if (request.getHeader(HttpHeaders.IF_NONE_MATCH) != null) {
+            version = shopService.queryShopVersion(id);
+        }
+        Result result = null;
+        if (version == null) {
+            result = shopService.queryById(id);
+            Object data = result.getData();
+            version = data instanceof Shop ? ((Shop) data).getVersion() : null;
+        }
+        if (version != null && request.checkNotModified("\"" + version + "\"")) {
+            return null;
+        }
+        return result != null ? result : shopService.queryById(id);
     }
 
     /**
@@ -44,9 +58,7 @@ public class ShopController {
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
         // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -64,47 +76,95 @@ public class ShopController {
      * 根据商铺类型分页查询商铺信息
      * @param typeId 商铺类型
      * @param current 页码
-     * @return 商铺列表
+     * @param x 经度，为空时不按距离排序
+     * @param y 纬度
+     * @param cursor 不按距离排序时的分页游标，传入（第一页传空值）时使用键集分页并返回下一页的游标
+     * @param sortBy 按 score、sold 或 comments 降序排序，传入时忽略坐标和游标
+     * @return 商铺列表，带坐标时按距离升序并返回距离
      */
     @GetMapping("/of/type")
     public Result queryShopByType(
             @RequestParam("typeId") Integer typeId,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "sortBy", required = false) String sortBy
+    ) {
+        if (sortBy != null) {
+            return shopService.queryShopByRank(typeId, sortBy, current);
+        }
+        if (cursor != null && (x == null || y == null)) {
+            return shopService.queryShopByTypeAfter(typeId, cursor);
+        }
+        return shopService.queryShopByType(typeId, current, x, y);
+    }
+
+    /**
+     * 按距离滚动查询附近的商铺，深度翻页时每页只读取一页数据
+     * @param typeId 商铺类型
+     * @param x 经度，查询第一页时必填
+     * @param y 纬度，查询第一页时必填
+     * @param cursor 上一页返回的游标，查询第一页时为空
+     * @return 商铺列表及下一页的游标
+     */
+    @GetMapping("/of/type/scroll")
+    public Result scrollShopByType(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y,
+            @RequestParam(value = "cursor", required = false) String cursor
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .eq("type_id", typeId)
-                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.scrollShopByType(typeId, x, y, cursor);
     }
 
-//    @GetMapping("/of/type")
-//    public Result queryShopByType(
-//            @RequestParam("typeId") Integer typeId,
-//            @RequestParam(value = "current", defaultValue = "1") Integer current,
-//            @RequestParam(value = "x", required = false) Double x,
-//            @RequestParam(value = "y", required = false) Double y
-//    ) {
-//        return shopService.queryShopByType(typeId, current, x, y);
-//    }
+    /**
+     * 按商圈、人均价格、评分筛选某类型的店铺
+     * @param typeId 商铺类型
+     * @param areas 商圈，可传多个
+     * @param minPrice 人均价格下限
+     * @param maxPrice 人均价格上限
+     * @param minScore 评分下限，10倍的整数，如40表示4星
+     * @param current 页码
+     * @param x 经度，与纬度同时传入时只筛选附近的店铺并按距离排序
+     * @param y 纬度
+     * @return 店铺列表、总数及各筛选项的店铺数
+     */
+    @GetMapping("/of/type/facet")
+    public Result queryShopByFacet(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam(value = "area", required = false) List<String> areas,
+            @RequestParam(value = "minPrice", required = false) Long minPrice,
+            @RequestParam(value = "maxPrice", required = false) Long maxPrice,
+            @RequestParam(value = "minScore", required = false) Integer minScore,
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y
+    ) {
+        return shopService.queryShopByFacet(typeId, areas, minPrice, maxPrice, minScore, current, x, y);
+    }
+
+    /**
+     * 搜索框输入时的联想提示
+     * @param prefix 已输入的前缀
+     * @return 店铺名称和商圈，按销量和评分加权排序
+     */
+    @GetMapping("/suggest")
+    public Result suggestShop(@RequestParam(value = "prefix", required = false) String prefix) {
+        return shopService.suggestShop(prefix);
+    }
 
     /**
      * 根据商铺名称关键字分页查询商铺信息
      * @param name 商铺名称关键字
      * @param current 页码
-     * @return 商铺列表
+     * @return 商铺列表，按名称相关度排序
      */
     @GetMapping("/of/name")
     public Result queryShopByName(
             @RequestParam(value = "name", required = false) String name,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryShopByName(name, current);
     }
 }
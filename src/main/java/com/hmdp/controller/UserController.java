@@ -71,6 +71,16 @@ public class UserController {
         return Result.ok(userDTO);
     }
 
+    /**
+     * 修改当前用户的昵称和头像
+     * @param userDTO 为空的字段不修改
+     * @return 无
+     */
+    @PutMapping("/me")
+    public Result updateMe(@RequestBody UserDTO userDTO, HttpServletRequest request){
+        return userService.updateMe(userDTO, request);
+    }
+
     @GetMapping("/info/{id}")
     public Result info(@PathVariable("id") Long userId){
         // 查询详情
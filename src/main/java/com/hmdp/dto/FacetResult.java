@@ -0,0 +1,19 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+public class FacetResult {
+    private List<?> list;
+    /**
+     * 满足全部筛选条件的店铺总数
+     */
+    private Integer total;
+    /**
+     * 筛选组 -> 筛选项 -> 店铺数，某一组的数量按其他各组的条件统计
+     */
+    private Map<String, Map<String, Integer>> facets;
+}
@@ -0,0 +1,23 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ShopSuggestion {
+    public static final String TYPE_SHOP = "shop";
+    public static final String TYPE_AREA = "area";
+
+    private String text;
+    /**
+     * 提示类型：shop 店铺名称，area 商圈
+     */
+    private String type;
+    /**
+     * 店铺名称对应的店铺id，同名店铺取权重最高的，商圈为空
+     */
+    private Long shopId;
+}
@@ -0,0 +1,31 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.ShopType;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 店铺类型列表的不可变快照，响应体提前序列化好，请求时直接写出
+ */
+@Getter
+@AllArgsConstructor
+public class ShopTypeSnapshot {
+    /**
+     * 生成快照时redis中的版本号
+     */
+    private final long version;
+    /**
+     * 只读的类型列表
+     */
+    private final List<ShopType> types;
+    /**
+     * 序列化好的Result响应体
+     */
+    private final byte[] body;
+    /**
+     * 强ETag，由版本号和响应体摘要组成
+     */
+    private final String etag;
+}
@@ -103,6 +103,11 @@ public class Shop implements Serializable {
      */
     private LocalDateTime updateTime;
 
+    /**
+     * 数据版本号，每次更新加1
+     */
+    private Long version;
+
 
     @TableField(exist = false)
     private Double distance;
@@ -25,4 +25,10 @@ public interface IBlogService extends IService<Blog> {
     Result saveBlog(Blog blog);
 
     Result queryBlogOfFollow(Long max, Integer offset);
+
+    /**
+     * 按用户键集分页查询笔记，按id升序
+     * @param cursor 上一页返回的游标，查询第一页时为空
+     */
+    Result queryBlogOfUser(Long userId, String cursor);
 }
@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -16,7 +18,51 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    /**
+     * 查询店铺缓存的数据版本号，不解码店铺数据
+     * @return 布隆过滤器判断不存在或缓存未命中时返回null
+     */
+    Long queryShopVersion(Long id);
+
+    Result saveShop(Shop shop);
+
     Result updateShop(Shop shop);
 
     Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+
+    /**
+     * 按评分、销量或评论数降序分页查询某类型的店铺
+     * @param sortBy score、sold 或 comments
+     */
+    Result queryShopByRank(Integer typeId, String sortBy, Integer current);
+
+    /**
+     * 按名称分页查询店铺，名称不为空时查询本地名称索引，结果按相关度排序
+     */
+    Result queryShopByName(String name, Integer current);
+
+    /**
+     * 按商圈、人均价格、评分筛选某类型的店铺，同时返回各筛选项的店铺数
+     * @param areas 商圈，多个之间为或的关系
+     * @param x 经度，与纬度同时传入时按距离排序，否则按id排序
+     */
+    Result queryShopByFacet(Integer typeId, List<String> areas, Long minPrice, Long maxPrice, Integer minScore,
+                            Integer current, Double x, Double y);
+
+    /**
+     * 搜索框前缀联想，候选为店铺名称和商圈，按销量和评分加权排序
+     */
+    Result suggestShop(String prefix);
+
+    /**
+     * 按类型键集分页查询店铺，按id升序
+     * @param cursor 上一页返回的游标，查询第一页时为空
+     */
+    Result queryShopByTypeAfter(Integer typeId, String cursor);
+
+    /**
+     * 按距离滚动查询附近店铺，第一页计算全部结果并生成快照，后续页按游标读取
+     * @param cursor 上一页返回的游标，查询第一页时为空
+     */
+    Result scrollShopByType(Integer typeId, Double x, Double y, String cursor);
 }
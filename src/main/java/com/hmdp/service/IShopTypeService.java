@@ -1,6 +1,7 @@
 package com.hmdp.service;
 
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -15,4 +16,14 @@ import com.baomidou.mybatisplus.extension.service.IService;
 public interface IShopTypeService extends IService<ShopType> {
 
     Result queryTypeList();
+
+    /**
+     * 获取店铺类型列表的当前快照
+     */
+    ShopTypeSnapshot queryTypeSnapshot();
+
+    /**
+     * 店铺类型变更后调用，递增版本号并重新加载快照
+     */
+    void refreshTypeList();
 }
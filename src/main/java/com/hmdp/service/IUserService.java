@@ -3,6 +3,7 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpServletRequest;
@@ -24,6 +25,8 @@ public interface IUserService extends IService<User> {
 
     Result logout(HttpServletRequest request);
 
+    Result updateMe(UserDTO userDTO, HttpServletRequest request);
+
     Result sign();
 
     Result signCount();
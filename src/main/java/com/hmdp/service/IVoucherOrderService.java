@@ -4,6 +4,9 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * <p>
  *  服务类
@@ -19,4 +22,11 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
     // Result createVoucherOrder(Long voucherId, Long userId);
 
     void createVoucherOrder(VoucherOrder voucherOrder);
+
+    void createVoucherOrders(List<VoucherOrder> voucherOrders);
+
+    /**
+     * 本节点各订单消费者的处理量、pending-list深度、认领及死信数量
+     */
+    List<Map<String, Object>> queryConsumerStats();
 }
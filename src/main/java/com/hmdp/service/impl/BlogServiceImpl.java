@@ -4,6 +4,7 @@ import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
@@ -15,18 +16,25 @@ import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CursorUtils;
+import com.hmdp.utils.IdBloomFilter;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -48,6 +56,12 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private IFollowService followService;
 
+    @Resource
+    private IdBloomFilter blogBloomFilter;
+
+    @Resource
+    private CacheClient cacheClient;
+
     @Override
     public Result queryHotBlog(Integer current){
         // 根据用户查询
@@ -56,16 +70,18 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog -> {
-            this.queryBlogUser(blog);
-            this.isBlogLiked(blog);
-        });
+        // 批量查询用户及点赞状态
+        queryBlogUsers(records);
+        isBlogsLiked(records);
         return Result.ok(records);
     }
 
     @Override
     public Result queryBlogById(Long id){
+        // 布隆过滤器拦截不存在的id
+        if(!blogBloomFilter.mightContain(id)){
+            return Result.fail("笔记不存在");
+        }
         // 查询blog
         Blog blog = getById(id);
         if(blog == null){
@@ -89,15 +105,58 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
         // 判断登录用户是否点赞
         String key = RedisConstants.BLOG_LIKED_KEY + blog.getId();
+        cacheClient.recordAccess(key);
         Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
         blog.setIsLike(score != null);
     }
 
+    private void isBlogsLiked(List<Blog> blogs) {
+        // 获取登录用户
+        UserDTO user = UserHolder.getUser();
+        if(user == null || blogs.isEmpty()){
+            // 未登录
+            return;
+        }
+        String userId = user.getId().toString();
+
+        // 一次pipeline判断登录用户是否点赞
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Blog blog : blogs) {
+                cacheClient.recordAccess(RedisConstants.BLOG_LIKED_KEY + blog.getId());
+                connection.zSetCommands().zScore(
+                        (RedisConstants.BLOG_LIKED_KEY + blog.getId()).getBytes(StandardCharsets.UTF_8),
+                        userId.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
+    }
+
     private void queryBlogUser(Blog blog){
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+        queryBlogUsers(Collections.singletonList(blog));
+    }
+
+    private void queryBlogUsers(List<Blog> blogs){
+        // 批量查询用户，走缓存
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toList());
+        List<UserDTO> users = cacheClient.queryBatch(
+                RedisConstants.CACHE_USER_KEY,
+                userIds,
+                UserDTO.class,
+                ids -> userService.listByIds(ids).stream()
+                        .collect(Collectors.toMap(User::getId, user -> BeanUtil.copyProperties(user, UserDTO.class))),
+                RedisConstants.CACHE_USER_TTL,
+                TimeUnit.MINUTES,
+                Duration.ofSeconds(RedisConstants.LOCK_USER_TTL));
+        for (int i = 0; i < blogs.size(); i++) {
+            UserDTO user = users.get(i);
+            if(user != null){
+                blogs.get(i).setName(user.getNickName());
+                blogs.get(i).setIcon(user.getIcon());
+            }
+        }
     }
 
     @Override
@@ -107,6 +166,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
         // 判断登录用户是否点赞
         String key = RedisConstants.BLOG_LIKED_KEY + id;
+        cacheClient.recordAccess(key);
         Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
 
         if(score == null){
@@ -131,6 +191,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     public Result queryBlogLikes(Long id){
         // 查询点赞前五
         String key = RedisConstants.BLOG_LIKED_KEY + id;
+        cacheClient.recordAccess(key);
         Set<String> top5 = stringRedisTemplate.opsForZSet().range(key, 0, 4);
 
         // 空或无
@@ -165,6 +226,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if(!success){
             return Result.fail("保存失败");
         }
+        // 加入布隆过滤器
+        blogBloomFilter.add(blog.getId());
         // 推送给粉丝
         List<Follow> follows = followService.query().eq("follow_user_id", user.getId()).list();
         for(Follow follow : follows){
@@ -210,10 +273,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         // 根据id查blog
         String idStr = StrUtil.join(",",ids);
         List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
-        for(Blog blog : blogs){
-            queryBlogUser(blog);
-            isBlogLiked(blog);
-        }
+        queryBlogUsers(blogs);
+        isBlogsLiked(blogs);
         // 返回
         ScrollResult r = new ScrollResult();
         r.setList(blogs);
@@ -221,4 +282,31 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         r.setMinTime(minTime);
         return Result.ok(r);
     }
+
+    @Override
+    public Result queryBlogOfUser(Long userId, String cursor){
+        // 游标为上一页最后一篇笔记的id，走(user_id, id)索引直接定位，不扫描前面的行
+        Long lastId = 0L;
+        if(StrUtil.isNotBlank(cursor)){
+            lastId = CursorUtils.decodeId(cursor);
+            if(lastId == null){
+                return Result.fail("无效的游标");
+            }
+        }
+        int pageSize = SystemConstants.MAX_PAGE_SIZE;
+        // 多查一条判断是否还有下一页
+        List<Blog> blogs = query()
+                .eq("user_id", userId)
+                .gt("id", lastId)
+                .orderByAsc("id")
+                .last("LIMIT " + (pageSize + 1))
+                .list();
+        CursorResult r = new CursorResult();
+        if(blogs.size() > pageSize){
+            blogs = blogs.subList(0, pageSize);
+            r.setCursor(CursorUtils.encode(blogs.get(pageSize - 1).getId()));
+        }
+        r.setList(blogs);
+        return Result.ok(r);
+    }
 }
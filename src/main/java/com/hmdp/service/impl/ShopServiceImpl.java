@@ -1,34 +1,52 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.NumberUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.CursorResult;
+import com.hmdp.dto.FacetResult;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CursorUtils;
+import com.hmdp.utils.GeoIndex;
+import com.hmdp.utils.IdBloomFilter;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopFacetIndex;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopGeoLoader;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.ShopRanking;
+import com.hmdp.utils.ShopSuggester;
 import com.hmdp.utils.SystemConstants;
-import org.springframework.data.geo.Distance;
-import org.springframework.data.geo.GeoResult;
-import org.springframework.data.geo.GeoResults;
-import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.DefaultTypedTuple;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.domain.geo.GeoReference;
+import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -47,8 +65,49 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private IdBloomFilter shopBloomFilter;
+
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Resource
+    private ShopNameIndex shopNameIndex;
+
+    @Resource
+    private ShopSuggester shopSuggester;
+
+    @Resource
+    private ShopFacetIndex shopFacetIndex;
+
+    @Resource
+    private ShopRanking shopRanking;
+
+    @Resource
+    private ShopGeoLoader shopGeoLoader;
+
+    @PostConstruct
+    private void init() {
+        // 店铺缓存头部写入数据版本号，更新时单调递增
+        cacheClient.versionBy(RedisConstants.CACHE_SHOP_KEY, Shop.class, Shop::getVersion);
+    }
+
+    @Override
+    public Long queryShopVersion(Long id) {
+        // 布隆过滤器拦截不存在的id，不访问redis
+        if(!shopBloomFilter.mightContain(id)){
+            return null;
+        }
+        return cacheClient.queryVersion(RedisConstants.CACHE_SHOP_KEY + id);
+    }
+
     @Override
     public Result queryById(Long id){
+        // 布隆过滤器拦截不存在的id
+        if(!shopBloomFilter.mightContain(id)){
+            return Result.fail("店铺不存在");
+        }
+
         // 存在缓存穿透问题的实现
         // 实现1
         // Shop shop = queryWithPassThrough(id);
@@ -121,70 +180,15 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     }*/
 
     public Shop queryWithMutex(Long id){
-        // 从redis查
-        String key = RedisConstants.CACHE_SHOP_KEY + id;
-        String shopJSON = stringRedisTemplate.opsForValue().get(key);
-
-        // 判断是否存在
-        if(StrUtil.isNotBlank(shopJSON)) {
-            // 存在则直接返回
-            Shop shop = JSONUtil.toBean(shopJSON, Shop.class);
-            return shop;
-        }
-
-        // 由于穿透问题处理，此处增加判断命中的是不是空值
-        if(shopJSON != null){
-            // 返回错误信息
-            return null;
-        }
-
-        // 获取互斥锁并判断是否成功
-        String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
-        Shop shop = null;
-        try {
-            boolean isLock = tryLock(lockKey);
-
-//             // 判断是否加锁成功，递归
-//            if (!isLock) {
-//                // 失败则休眠并重试
-//                Thread.sleep(50);
-//                return queryWithMutex(id);
-//            }
-
-            // 判断是否加锁成功，循环
-            while (!isLock) {
-                // 失败则休眠并重试
-                Thread.sleep(50);
-                isLock = tryLock(lockKey);
-            }
-
-            // 不存在则查数据库
-            shop = getById(id);
-
-            // 模拟重建延时
-            Thread.sleep(200);
-
-            // 不存在于数据库则返回错误
-            if (shop == null) {
-                // 将空值写入redis，应对传统问题
-                // TTL添加随机值防止雪崩
-                stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL + new Random().nextInt(10), TimeUnit.MINUTES);
-                // 返回错误信息
-                return null;
-            }
-            // 存在于数据库则写回缓存，TTL添加随机值防止雪崩
-            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop), RedisConstants.CACHE_SHOP_TTL + new Random().nextInt(10), TimeUnit.MINUTES);
-        }
-        catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-        finally {
-            // 释放锁
-            unlock(lockKey);
-        }
-
-        // 返回数据
-        return shop;
+        // 互斥锁重建，带本地一级缓存
+        return cacheClient.queryWithMutex(
+                RedisConstants.CACHE_SHOP_KEY,
+                id,
+                Shop.class,
+                this::getById,
+                RedisConstants.CACHE_SHOP_TTL,
+                TimeUnit.MINUTES,
+                Duration.ofSeconds(RedisConstants.LOCK_SHOP_TTL));
     }
 
     // 尝试加锁
@@ -267,13 +271,25 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         // 查询店铺数据
         Shop shop = getById(id);
 
-        // 封装逻辑过期时间
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
+        // 封装逻辑过期时间并写入Redis
+        cacheClient.setWithLogicalExpire(RedisConstants.CACHE_SHOP_KEY + id, shop, expireSeconds, TimeUnit.SECONDS);
+    }
 
-        // 写入Redis
-        stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
+    @Override
+    public Result saveShop(Shop shop){
+        // 写入数据库
+        save(shop);
+        // 加入布隆过滤器
+        shopBloomFilter.add(shop.getId());
+        // 加入位置索引和名称索引，筛选索引稍后重建
+        shopGeoIndex.update(shop);
+        shopGeoLoader.update(shop, null);
+        shopNameIndex.update(shop);
+        shopFacetIndex.markChanged();
+        // 加入排行
+        shopRanking.update(shop, null);
+        // 返回店铺id
+        return Result.ok(shop.getId());
     }
 
     @Override
@@ -284,65 +300,307 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             return Result.fail("店铺id不能为空");
         }
 
-        // 更新数据库
-        updateById(shop);
-
-        // 删除缓存
-        stringRedisTemplate.delete(RedisConstants.CACHE_SHOP_KEY + id);
+        // 类型变化时需要从原类型的坐标和排行中移除
+        Shop old = shop.getTypeId() != null ? getById(id) : null;
+        Long oldTypeId = old == null ? null : old.getTypeId();
+
+        // 更新数据库，版本号加1
+        shop.setVersion(null);
+        update(shop, new UpdateWrapper<Shop>().eq("id", id).setSql("version = version + 1"));
+
+        // 位置、类型、排序字段或名称变化时更新索引，请求体只含部分字段，事务内读取更新后的完整数据
+        boolean located = shop.getX() != null || shop.getY() != null || shop.getTypeId() != null;
+        boolean ranked = shop.getTypeId() != null || shop.getScore() != null
+                || shop.getSold() != null || shop.getComments() != null;
+        boolean named = shop.getName() != null;
+        Shop latest = located || ranked || named ? getById(id) : null;
+
+        // 提交后再删除缓存和广播，避免其他节点读到未提交的数据、回滚后广播已发出
+        afterCommit(() -> {
+            // 删除缓存，并广播让各节点删除本地缓存
+            cacheClient.invalidate(RedisConstants.CACHE_SHOP_KEY + id);
+            if(latest != null && located){
+                shopGeoIndex.update(latest);
+                shopGeoLoader.update(latest, oldTypeId);
+            }
+            if(latest != null && ranked){
+                shopRanking.update(latest, oldTypeId);
+            }
+            // 名称变化时更新名称索引
+            if(latest != null && named){
+                shopNameIndex.update(latest);
+            }
+            // 筛选字段变化时重建筛选索引
+            if(shop.getTypeId() != null || shop.getArea() != null || shop.getAvgPrice() != null || shop.getScore() != null){
+                shopFacetIndex.markChanged();
+            }
+        });
 
         return Result.ok();
     }
 
+    // 存在事务时在提交后执行，否则立即执行
+    private static void afterCommit(Runnable action){
+        if(!TransactionSynchronizationManager.isSynchronizationActive()){
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
     @Override
     public Result queryShopByType(Integer typeId, Integer current, Double x, Double y){
-        // 注意：需要redis 6.0以上版本，由于版本原因此功能实现了未启用
-
-        // 先判断是否需要坐标判断
-        if(x == null || y == null){
-            // 根据类型分页查询
+        // 先判断是否需要坐标判断，位置索引未构建完成时降级为不按距离排序
+        if(x == null || y == null || !shopGeoIndex.isReady()){
+            // 根据类型分页查询，不查询总数
             Page<Shop> page = query()
                     .eq("type_id", typeId)
-                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
+                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE, false));
             // 返回数据
             return Result.ok(page.getRecords());
         }
         // 计算分页参数
         int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
         int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
-        // 查询redis
-        String key = RedisConstants.SHOP_GEO_KEY + typeId;
-        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo()
-                .search(
-                        key,
-                        GeoReference.fromCoordinate(x, y),
-                        new Distance(5000),
-                        RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().limit(end)
-                );
-        // 解析
-        if(results == null){
-            return Result.ok(Collections.emptyList());
-        }
+        // 查询本地位置索引，不依赖redis GEOSEARCH
+        List<GeoIndex.Hit> hits = shopGeoIndex.search(typeId, x, y, 5000, end);
         // 截取from到end
-        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list = results.getContent();
-        if(list.size() <= from){
+        if(hits.size() <= from){
             return Result.ok(Collections.emptyList());
         }
-        List<Long> ids = new ArrayList<>(list.size());
-        Map<String, Distance> distanceMap = new HashMap<>(list.size());
-        list.stream().skip(from).forEach(result -> {
-            String shopIdStr = result.getContent().getName();
-            ids.add(Long.valueOf(shopIdStr));
-            Distance distance = result.getDistance();
-            distanceMap.put(shopIdStr, distance);
+        List<Long> ids = new ArrayList<>(hits.size() - from);
+        Map<Long, Double> distanceMap = new HashMap<>(hits.size() - from);
+        hits.stream().skip(from).forEach(hit -> {
+            ids.add(hit.getId());
+            distanceMap.put(hit.getId(), hit.getDistance());
         });
-        // 根据id查询Shop
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD( id, " + idStr + ")").list();
-        for (Shop shop : shops) {
-            shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
-        }
         // 返回
-        return Result.ok(shops);
+        return Result.ok(queryShopsWithDistance(ids, distanceMap));
+    }
+
+    @Override
+    public Result queryShopByRank(Integer typeId, String sortBy, Integer current){
+        ShopRanking.Field field = ShopRanking.Field.of(sortBy);
+        if(field == null){
+            return Result.fail("不支持的排序字段：" + sortBy);
+        }
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        // 排行尚未构建时降级为数据库排序
+        if(!shopRanking.isReady()){
+            Page<Shop> page = query()
+                    .eq("type_id", typeId)
+                    .orderByDesc(field.getColumn())
+                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE, false));
+            return Result.ok(page.getRecords());
+        }
+        // 从sorted set中取出当前页的id，再走缓存批量查询
+        List<Long> ids = shopRanking.range(typeId.longValue(), field, from, SystemConstants.DEFAULT_PAGE_SIZE);
+        return Result.ok(queryShopsByIds(ids));
+    }
+
+    @Override
+    public Result queryShopByName(String name, Integer current){
+        // 名称为空或名称索引未构建完成时降级为数据库查询
+        if(StrUtil.isBlank(name) || !shopNameIndex.isReady()){
+            Page<Shop> page = query()
+                    .like(StrUtil.isNotBlank(name), "name", name)
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
+            return Result.ok(page.getRecords());
+        }
+        // 查询本地名称索引，按相关度排序
+        int from = (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+        List<Long> ids = shopNameIndex.search(name, current * SystemConstants.MAX_PAGE_SIZE);
+        if(ids.size() <= from){
+            return Result.ok(Collections.emptyList());
+        }
+        return Result.ok(queryShopsByIds(ids.subList(from, ids.size())));
+    }
+
+    @Override
+    public Result queryShopByFacet(Integer typeId, List<String> areas, Long minPrice, Long maxPrice, Integer minScore,
+                                   Integer current, Double x, Double y){
+        // 筛选索引未构建完成时降级为数据库查询，不统计各筛选项
+        if(!shopFacetIndex.isReady()){
+            Page<Shop> page = query()
+                    .eq("type_id", typeId)
+                    .in(areas != null && !areas.isEmpty(), "area", areas)
+                    .ge(minPrice != null, "avg_price", minPrice)
+                    .le(maxPrice != null, "avg_price", maxPrice)
+                    .ge(minScore != null, "score", minScore)
+                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE, false));
+            FacetResult r = new FacetResult();
+            r.setList(page.getRecords());
+            r.setFacets(Collections.emptyMap());
+            return Result.ok(r);
+        }
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        FacetResult r = new FacetResult();
+        if(x == null || y == null || !shopGeoIndex.isReady()){
+            // 按id升序分页
+            ShopFacetIndex.Selection selection = shopFacetIndex.select(typeId, null, areas, minPrice, maxPrice, minScore);
+            r.setList(queryShopsByIds(selection.ids(from, SystemConstants.DEFAULT_PAGE_SIZE)));
+            r.setTotal(selection.total());
+            r.setFacets(selection.getFacets());
+            return Result.ok(r);
+        }
+        // 只在附近的店铺中筛选和统计，按距离排序
+        List<GeoIndex.Hit> hits = shopGeoIndex.search(typeId, x, y, 5000, Integer.MAX_VALUE);
+        List<Long> nearby = hits.stream().map(GeoIndex.Hit::getId).collect(Collectors.toList());
+        ShopFacetIndex.Selection selection = shopFacetIndex.select(typeId, nearby, areas, minPrice, maxPrice, minScore);
+        List<Long> ids = new ArrayList<>(SystemConstants.DEFAULT_PAGE_SIZE);
+        Map<Long, Double> distanceMap = new HashMap<>(SystemConstants.DEFAULT_PAGE_SIZE);
+        int skipped = 0;
+        for (GeoIndex.Hit hit : hits) {
+            if(ids.size() == SystemConstants.DEFAULT_PAGE_SIZE){
+                break;
+            }
+            if(!selection.contains(hit.getId()) || skipped++ < from){
+                continue;
+            }
+            ids.add(hit.getId());
+            distanceMap.put(hit.getId(), hit.getDistance());
+        }
+        r.setList(queryShopsWithDistance(ids, distanceMap));
+        r.setTotal(selection.total());
+        r.setFacets(selection.getFacets());
+        return Result.ok(r);
+    }
+
+    @Override
+    public Result suggestShop(String prefix){
+        // 未构建完成时返回空，联想不回源数据库
+        return Result.ok(shopSuggester.suggest(prefix, SystemConstants.SUGGEST_SIZE));
+    }
+
+    @Override
+    public Result queryShopByTypeAfter(Integer typeId, String cursor){
+        // 游标为上一页最后一个店铺的id，走(type_id, id)索引直接定位，不扫描前面的行
+        Long lastId = 0L;
+        if(StrUtil.isNotBlank(cursor)){
+            lastId = CursorUtils.decodeId(cursor);
+            if(lastId == null){
+                return Result.fail("无效的游标");
+            }
+        }
+        int pageSize = SystemConstants.DEFAULT_PAGE_SIZE;
+        // 多查一条判断是否还有下一页
+        List<Shop> shops = query()
+                .eq("type_id", typeId)
+                .gt("id", lastId)
+                .orderByAsc("id")
+                .last("LIMIT " + (pageSize + 1))
+                .list();
+        CursorResult r = new CursorResult();
+        if(shops.size() > pageSize){
+            shops = shops.subList(0, pageSize);
+            r.setCursor(CursorUtils.encode(shops.get(pageSize - 1).getId()));
+        }
+        r.setList(shops);
+        return Result.ok(r);
+    }
+
+    @Override
+    public Result scrollShopByType(Integer typeId, Double x, Double y, String cursor){
+        if(StrUtil.isNotBlank(cursor)){
+            return scrollShopByCursor(cursor);
+        }
+        if(x == null || y == null){
+            return Result.fail("缺少坐标");
+        }
+        if(!shopGeoIndex.isReady()){
+            return Result.fail("附近店铺服务暂不可用");
+        }
+        // 第一页：一次算出全部结果，第一页直接返回，其余写入短期快照
+        List<GeoIndex.Hit> hits = shopGeoIndex.search(typeId, x, y, 5000, Integer.MAX_VALUE);
+        int end = Math.min(SystemConstants.DEFAULT_PAGE_SIZE, hits.size());
+        List<Long> ids = new ArrayList<>(end);
+        Map<Long, Double> distanceMap = new HashMap<>(end);
+        for (GeoIndex.Hit hit : hits.subList(0, end)) {
+            ids.add(hit.getId());
+            distanceMap.put(hit.getId(), hit.getDistance());
+        }
+        CursorResult r = new CursorResult();
+        r.setList(queryShopsWithDistance(ids, distanceMap));
+        if(hits.size() > end){
+            String snapshotId = UUID.randomUUID().toString(true);
+            String key = RedisConstants.SHOP_GEO_CURSOR_KEY + snapshotId;
+            Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(hits.size() - end);
+            for (GeoIndex.Hit hit : hits.subList(end, hits.size())) {
+                tuples.add(new DefaultTypedTuple<>(String.valueOf(hit.getId()), hit.getDistance()));
+            }
+            stringRedisTemplate.opsForZSet().add(key, tuples);
+            stringRedisTemplate.expire(key, RedisConstants.SHOP_GEO_CURSOR_TTL, TimeUnit.MINUTES);
+            r.setCursor(CursorUtils.encode(snapshotId, 0));
+        }
+        return Result.ok(r);
+    }
+
+    // 后续页：按排名读取快照中的一页，多读一个判断是否还有下一页
+    private Result scrollShopByCursor(String cursor){
+        int pageSize = SystemConstants.DEFAULT_PAGE_SIZE;
+        String[] parts = CursorUtils.decode(cursor, 2);
+        if(parts == null || !parts[0].matches("[0-9a-f]{32}") || !NumberUtil.isInteger(parts[1])
+                || Integer.parseInt(parts[1]) < 0){
+            return Result.fail("无效的游标");
+        }
+        String snapshotId = parts[0];
+        int offset = Integer.parseInt(parts[1]);
+        String key = RedisConstants.SHOP_GEO_CURSOR_KEY + snapshotId;
+        Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                .rangeWithScores(key, offset, offset + pageSize);
+        if(tuples == null || tuples.isEmpty()){
+            return Result.fail("游标已过期，请重新查询");
+        }
+        List<Long> ids = new ArrayList<>(pageSize);
+        Map<Long, Double> distanceMap = new HashMap<>(pageSize);
+        for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+            if(ids.size() == pageSize){
+                break;
+            }
+            Long id = Long.valueOf(tuple.getValue());
+            ids.add(id);
+            distanceMap.put(id, tuple.getScore());
+        }
+        CursorResult r = new CursorResult();
+        r.setList(queryShopsWithDistance(ids, distanceMap));
+        if(tuples.size() > pageSize){
+            r.setCursor(CursorUtils.encode(snapshotId, offset + pageSize));
+        }
+        return Result.ok(r);
+    }
+
+    // 根据id批量查询Shop并设置距离，保持ids的顺序
+    private List<Shop> queryShopsWithDistance(List<Long> ids, Map<Long, Double> distanceMap){
+        List<Shop> cached = queryShopsByIds(ids);
+        List<Shop> shops = new ArrayList<>(cached.size());
+        for (Shop shop : cached) {
+            // 缓存中的对象是共享的，复制后再设置距离
+            Shop copy = BeanUtil.copyProperties(shop, Shop.class);
+            copy.setDistance(distanceMap.get(shop.getId()));
+            shops.add(copy);
+        }
+        return shops;
+    }
+
+    // 根据id批量查询Shop，走缓存，保持ids的顺序并跳过不存在的店铺
+    private List<Shop> queryShopsByIds(List<Long> ids){
+        if(ids.isEmpty()){
+            return Collections.emptyList();
+        }
+        List<Shop> cached = cacheClient.queryBatch(
+                RedisConstants.CACHE_SHOP_KEY,
+                ids,
+                Shop.class,
+                shopIds -> listByIds(shopIds).stream().collect(Collectors.toMap(Shop::getId, Function.identity())),
+                RedisConstants.CACHE_SHOP_TTL,
+                TimeUnit.MINUTES,
+                Duration.ofSeconds(RedisConstants.LOCK_SHOP_TTL));
+        return cached.stream().filter(Objects::nonNull).collect(Collectors.toList());
     }
 
 }
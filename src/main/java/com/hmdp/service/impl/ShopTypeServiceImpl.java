@@ -1,20 +1,24 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.RedisConstants;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 
 /**
  * <p>
@@ -24,36 +28,82 @@ import java.util.concurrent.TimeUnit;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private ObjectMapper objectMapper;
+
+    // 店铺类型很少变化，整体缓存在JVM中，通过redis中的版本号感知变化
+    private volatile ShopTypeSnapshot snapshot;
+
     @Override
     public Result queryTypeList(){
-        // 从redis查
-        String key = RedisConstants.CACHE_SHOP_TYPE_KEY + UUID.randomUUID().toString(true);
-        String shopTypeJSON = stringRedisTemplate.opsForValue().get(key);
-
-        // 判断是否存在
-        if(StrUtil.isNotBlank(shopTypeJSON)) {
-            // 存在则直接返回
-            List<ShopType> shopTypes = JSONUtil.toList(shopTypeJSON, ShopType.class);
-            return Result.ok(shopTypes);
+        return Result.ok(queryTypeSnapshot().getTypes());
+    }
+
+    @Override
+    public ShopTypeSnapshot queryTypeSnapshot() {
+        ShopTypeSnapshot current = snapshot;
+        if (current != null) {
+            return current;
         }
+        return reload(readVersion());
+    }
 
-        // 不存在则查数据库
-        List<ShopType> shopTypes = query().orderByAsc("sort").list();
+    @Override
+    public void refreshTypeList() {
+        // 其他节点在下一次版本检查时重新加载
+        Long version = stringRedisTemplate.opsForValue().increment(RedisConstants.CACHE_SHOP_TYPE_VERSION_KEY);
+        reload(version == null ? 0 : version);
+    }
 
-        // 不存在于数据库则返回错误
-        if(shopTypes == null) {
-            return Result.fail("店铺类型不存在");
+    /**
+     * 定时检查版本号，与本地快照不一致时重新加载
+     */
+    @Scheduled(fixedDelayString = "${hmdp.shop-type.version-check-interval-ms:5000}")
+    public void checkVersion() {
+        long version;
+        try {
+            version = readVersion();
+        } catch (Exception e) {
+            log.warn("读取店铺类型版本号失败，继续使用当前快照", e);
+            return;
+        }
+        ShopTypeSnapshot current = snapshot;
+        if (current == null || current.getVersion() != version) {
+            reload(version);
         }
-        // 存在于数据库则写回缓存
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shopTypes));
-        stringRedisTemplate.expire(key, RedisConstants.CACHE_SHOP_TYPE_TTL, TimeUnit.MINUTES);
+    }
 
-        // 返回数据
-        return Result.ok(shopTypes);
+    private long readVersion() {
+        String version = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_TYPE_VERSION_KEY);
+        return StrUtil.isBlank(version) ? 0 : Long.parseLong(version);
+    }
+
+    // 先读版本号再查库，查库期间发生的变更会在下一次检查时再加载
+    private synchronized ShopTypeSnapshot reload(long version) {
+        ShopTypeSnapshot current = snapshot;
+        if (current != null && current.getVersion() == version) {
+            return current;
+        }
+        List<ShopType> shopTypes = Collections.unmodifiableList(query().orderByAsc("sort").list());
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(Result.ok(shopTypes));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("店铺类型序列化失败", e);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        // 版本号被重置时靠摘要区分内容
+        String etag = "\"" + version + "-" + Long.toHexString(crc.getValue()) + "\"";
+        ShopTypeSnapshot loaded = new ShopTypeSnapshot(version, shopTypes, body, etag);
+        snapshot = loaded;
+        log.debug("店铺类型快照已加载，version = {}, size = {}", version, shopTypes.size());
+        return loaded;
     }
 }
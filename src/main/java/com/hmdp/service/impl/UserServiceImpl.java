@@ -4,6 +4,7 @@ import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
@@ -11,6 +12,7 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RegexUtils;
 import com.hmdp.utils.UserHolder;
@@ -45,6 +47,9 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheClient cacheClient;
+
     @Override
     public Result sendCode(String phone, HttpSession session){
         // 校验手机号格式
@@ -127,6 +132,33 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         return Result.ok();
     }
 
+    @Override
+    public Result updateMe(UserDTO userDTO, HttpServletRequest request){
+        if(StrUtil.isBlank(userDTO.getNickName()) && StrUtil.isBlank(userDTO.getIcon())){
+            return Result.fail("昵称和头像不能都为空");
+        }
+        // 只允许修改自己的昵称和头像
+        Long userId = UserHolder.getUser().getId();
+        User user = new User();
+        user.setId(userId);
+        user.setNickName(StrUtil.emptyToNull(userDTO.getNickName()));
+        user.setIcon(StrUtil.emptyToNull(userDTO.getIcon()));
+        updateById(user);
+
+        // 更新登录信息
+        Map<String, Object> userMap = new HashMap<>();
+        if(user.getNickName() != null){
+            userMap.put("nickName", user.getNickName());
+        }
+        if(user.getIcon() != null){
+            userMap.put("icon", user.getIcon());
+        }
+        stringRedisTemplate.opsForHash().putAll(RedisConstants.LOGIN_USER_KEY + request.getHeader("authorization"), userMap);
+        // 删除用户缓存，并广播让各节点删除本地缓存
+        cacheClient.invalidate(RedisConstants.CACHE_USER_KEY + userId);
+        return Result.ok();
+    }
+
     @Override
     public Result sign(){
         // 获取登录用户
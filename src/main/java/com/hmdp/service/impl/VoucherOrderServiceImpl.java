@@ -1,39 +1,44 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.Result;
-import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisIdWorker;
-import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.SeckillStock;
 import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.VirtualThreads;
+import com.hmdp.utils.VoucherOrderConsumer;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.data.redis.connection.stream.*;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.connection.stream.StreamRecords;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import java.time.Duration;
-import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -57,23 +62,79 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private RedissonClient redissonClient;
+    private CacheClient cacheClient;
 
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
-    static {
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
-    }
+    @Resource
+    private SeckillStock seckillStock;
 
 //    private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024 * 1024);
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    private ExecutorService seckillOrderExecutor;
+
+    @Value("${hmdp.virtual-threads.enabled:false}")
+    private boolean virtualThreads;
+
+    // 每次从消息队列读取的订单数
+    @Value("${hmdp.seckill.order-batch-size:100}")
+    private int orderBatchSize;
+
+    // 本节点的订单消费者数
+    @Value("${hmdp.seckill.consumer-threads:1}")
+    private int consumerThreads;
+
+    // 消费者名称前缀，同一台机器部署多个节点时需分别配置，默认为主机名
+    @Value("${hmdp.seckill.consumer-name:}")
+    private String consumerName;
+
+    // 消息空闲超过该时间后可被其他消费者认领重试
+    @Value("${hmdp.seckill.claim-min-idle-ms:60000}")
+    private long claimMinIdleMs;
+
+    // 检查可认领消息的间隔
+    @Value("${hmdp.seckill.claim-interval-ms:10000}")
+    private long claimIntervalMs;
+
+    // 投递次数达到该值后转入死信队列
+    @Value("${hmdp.seckill.max-deliveries:5}")
+    private int maxDeliveries;
 
+    // 代理对象（事务），消费线程启动时还没有请求，不能从AopContext获取
+    @Lazy
+    @Resource
     private IVoucherOrderService proxy;
 
+    private final List<VoucherOrderConsumer> voucherOrderConsumers = new ArrayList<>();
+
     @PostConstruct
     private void init(){
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        int threads = Math.max(1, consumerThreads);
+        // 开启虚拟线程时订单处理也运行在虚拟线程上
+        seckillOrderExecutor = virtualThreads
+                ? VirtualThreads.newExecutor("seckill-order-", () -> Executors.newFixedThreadPool(threads))
+                : Executors.newFixedThreadPool(threads);
+        // 消费者名称为 主机名-序号，各节点的消费者互不相同，重启后仍能处理自己的pending-list
+        String prefix = StrUtil.isNotBlank(consumerName) ? consumerName : NetUtil.getLocalHostName();
+        // 各分片的stream随新建秒杀券增加，消费者定期重新分配
+        for (int i = 0; i < threads; i++) {
+            int index = i;
+            VoucherOrderConsumer consumer = new VoucherOrderConsumer(stringRedisTemplate,
+                    () -> VoucherOrderConsumer.assign(seckillStock.streamKeys(), threads, index), "g1", prefix + "-" + i,
+                    orderBatchSize, orders -> proxy.createVoucherOrders(orders),
+                    Duration.ofMillis(claimMinIdleMs), claimIntervalMs, maxDeliveries,
+                    RedisConstants.SECKILL_DEAD_LETTER_KEY);
+            voucherOrderConsumers.add(consumer);
+            seckillOrderExecutor.submit(consumer);
+        }
+    }
+
+    @Override
+    public List<Map<String, Object>> queryConsumerStats(){
+        return voucherOrderConsumers.stream().map(VoucherOrderConsumer::stats).collect(Collectors.toList());
+    }
+
+    @PreDestroy
+    private void destroy(){
+        voucherOrderConsumers.forEach(VoucherOrderConsumer::stop);
+        seckillOrderExecutor.shutdown();
     }
 
 //    private class VoucherOrderHandler implements Runnable{
@@ -94,137 +155,26 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 //        }
 //    }
 
-    private class VoucherOrderHandler implements Runnable{
-        String queueName = "stream.orders";
-
-        @Override
-        public void run() {
-            while(true){
-                try {
-                    // 获取消息队列中的订单信息
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(queueName, ReadOffset.lastConsumed())
-                    );
-
-                    // 判断消息是否获得成功
-                    if(list == null || list.isEmpty()){
-                        // 失败则下一次循环
-                        continue;
-                    }
-
-                    // 解析订单信息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-
-                    // 成功则创建订单
-                    handleVoucherOrder(voucherOrder);
-
-                    // ack确认
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
-                }
-                catch (Exception e){
-                    log.error("处理订单异常情况", e);
-                    handlePendingList();
-                }
-            }
-        }
-
-        private void handlePendingList() {
-            while(true){
-                try {
-                    // 获取消息队列中的订单信息
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
-                            StreamOffset.create(queueName, ReadOffset.from("0"))
-                    );
-
-                    // 判断消息是否获得成功
-                    if(list == null || list.isEmpty()){
-                        // 失败结束
-                        break;
-                    }
-
-                    // 解析订单信息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-
-                    // 成功则创建订单
-                    handleVoucherOrder(voucherOrder);
-
-                    // ack确认
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
-                }
-                catch (Exception e){
-                    log.error("处理pending-list订单异常情况", e);
-                    try {
-                        Thread.sleep(20);
-                    }catch (InterruptedException e1){
-                        e1.printStackTrace();
-                    }
-                }
-            }
-        }
-
-    }
-
-    private void handleVoucherOrder(VoucherOrder voucherOrder) {
-        // 获取用户id
-        Long userId = voucherOrder.getUserId();
-
-        // 创建锁对象
-        RLock lock = redissonClient.getLock("lock:order:" + userId);
-
-        // 尝试获取锁
-        boolean isLock = lock.tryLock();
-
-        // 获取失败
-        if(!isLock){
-            // 返回错误信息
-            log.error("不允许重复下单");
-            return;
-        }
-
-        // 加锁防止一人一单功能失效
-        try {
-            proxy.createVoucherOrder(voucherOrder);
-        }
-        finally {
-            // 释放锁
-            lock.unlock();
-        }
-    }
-
     @Override
     public Result seckillVoucher(Long voucherId){
-        // ！注意：此处要正常使用需要先在redis创建名为stream.orders的stream用户组
+        // 消费者组g1由订单消费者启动时创建
+
+        // 本地已标记售罄时直接返回
+        if(seckillStock.isSoldOut(voucherId)){
+            return Result.fail("库存不足");
+        }
 
         // 执行lua脚本
         Long userId = UserHolder.getUser().getId();
+        cacheClient.recordAccess(RedisConstants.SECKILL_STOCK_KEY + voucherId);
         Long orderId = redisIdWorker.nextId("order");
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(),
-                userId.toString(),
-                orderId.toString()
-        );
-
-        // 判断返回结果
-        int r = result.intValue();
+        int r = seckillStock.deduct(voucherId, userId, orderId);
 
         // 没有购买资格
-        if(r != 0){
-            return Result.fail(r == 1 ? "库存不足" : "不能重复下单");
+        if(r != SeckillStock.OK){
+            return Result.fail(r == SeckillStock.SOLD_OUT ? "库存不足" : "不能重复下单");
         }
 
-        // 获取代理对象（事务）
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
-
         // 返回订单id
         return Result.ok(orderId);
     }
@@ -356,35 +306,100 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 //        return Result.ok(orderId);
 //    }
 
+    @Override
     @Transactional
     public void createVoucherOrder(VoucherOrder voucherOrder){
-        // 获取用户id
-        Long userId = voucherOrder.getUserId();
-
-        // 查询订单
-        int count = query().eq("user_id", userId).eq("voucher_id", voucherOrder).count();
-        // 判断有无订单数据
-        if(count > 0){
-            // 已经买过了
-            log.error("已经买过了");
-            return;
+        createVoucherOrders(Collections.singletonList(voucherOrder));
+    }
+
+    @Override
+    @Transactional
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders){
+        // 按秒杀券分组，每张券一次查询、一次扣减库存
+        Map<Long, List<VoucherOrder>> byVoucher = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+        List<VoucherOrder> toSave = new ArrayList<>(voucherOrders.size());
+        List<VoucherOrder> shortage = new ArrayList<>();
+        byVoucher.forEach((voucherId, orders) -> {
+            // 查询已下单的用户，消息重复投递时跳过
+            Set<Long> bought = query()
+                    .select("user_id")
+                    .eq("voucher_id", voucherId)
+                    .in("user_id", orders.stream().map(VoucherOrder::getUserId).collect(Collectors.toSet()))
+                    .list()
+                    .stream()
+                    .map(VoucherOrder::getUserId)
+                    .collect(Collectors.toSet());
+            List<VoucherOrder> fresh = orders.stream()
+                    .filter(order -> bought.add(order.getUserId()))
+                    .collect(Collectors.toList());
+            if(fresh.size() < orders.size()){
+                log.error("已经买过了，秒杀券：{}，订单数：{}", voucherId, orders.size() - fresh.size());
+            }
+            if(fresh.isEmpty()){
+                return;
+            }
+
+            // 整批扣减库存
+            int k = fresh.size();
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + k)
+                    .eq("voucher_id", voucherId)
+                    .ge("stock", k) // 利用update原子性/MySQL行锁防止超卖
+                    .update();
+            if(success){
+                toSave.addAll(fresh);
+                return;
+            }
+
+            // 库存不够整批扣减时逐个扣减，扣到0为止
+            for (int i = 0; i < fresh.size(); i++) {
+                boolean one = seckillVoucherService.update()
+                        .setSql("stock = stock - 1")
+                        .eq("voucher_id", voucherId)
+                        .gt("stock", 0)
+                        .update();
+                if(!one){
+                    // Redis已扣减库存并接受的订单在数据库扣不到库存，两边库存不一致
+                    List<VoucherOrder> rest = fresh.subList(i, fresh.size());
+                    log.error("Redis与数据库库存不一致，秒杀券：{}，无法扣减的订单数：{}", voucherId, rest.size());
+                    shortage.addAll(rest);
+                    break;
+                }
+                toSave.add(fresh.get(i));
+            }
+        });
+
+        // 一次保存整批订单
+        if(!toSave.isEmpty()){
+            getBaseMapper().insertBatch(toSave);
         }
 
-        // 尝试扣减库存
-        boolean success = seckillVoucherService.update()
-                .setSql("stock = stock - 1")
-                .eq("voucher_id", voucherOrder)
-                // .eq("stock", voucher.getStock()) // 乐观锁判断
-                .gt("stock", 0) // 改进乐观锁逻辑，同时利用update原子性/MySQL行锁防止超卖
-                .update();
-
-        // 库存不足扣减失败
-        if(!success){
-            log.error("库存不足");
-            return;
+        // 扣不到库存的订单不能随整批确认而丢失，事务提交后转入死信队列人工处理
+        if(!shortage.isEmpty()){
+            if(TransactionSynchronizationManager.isSynchronizationActive()){
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        deadLetter(shortage);
+                    }
+                });
+            } else {
+                deadLetter(shortage);
+            }
         }
+    }
 
-        // 保存订单
-        save(voucherOrder);
+    private void deadLetter(List<VoucherOrder> orders){
+        for (VoucherOrder order : orders) {
+            Map<String, String> values = new LinkedHashMap<>();
+            values.put("userId", order.getUserId().toString());
+            values.put("voucherId", order.getVoucherId().toString());
+            values.put("id", order.getId().toString());
+            values.put("reason", "stock");
+            stringRedisTemplate.opsForStream().add(
+                    StreamRecords.newRecord().in(RedisConstants.SECKILL_DEAD_LETTER_KEY).ofMap(values));
+            log.error("订单扣减数据库库存失败，转入死信队列：{}", values);
+        }
     }
 }
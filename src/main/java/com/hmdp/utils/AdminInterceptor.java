@@ -0,0 +1,34 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 管理接口拦截器，只允许配置的管理员用户访问，需在登录拦截器之后执行
+ */
+public class AdminInterceptor implements HandlerInterceptor {
+
+    private final Set<Long> adminIds = new HashSet<>();
+
+    public AdminInterceptor(long[] adminIds) {
+        for (long id : adminIds) {
+            this.adminIds.add(id);
+        }
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 未配置管理员时管理接口全部拒绝
+        UserDTO user = UserHolder.getUser();
+        if(user == null || !adminIds.contains(user.getId())){
+            response.setStatus(403);
+            return false;
+        }
+        return true;
+    }
+}
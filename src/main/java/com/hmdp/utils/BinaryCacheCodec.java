@@ -0,0 +1,284 @@
+package com.hmdp.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑二进制编解码器，适用于字段均为基本类型、字符串、时间的实体（如Shop、Blog）
+ * 格式：[4字节schema指纹][null位图][按字段名排序的字段值]
+ * 整数使用zigzag变长编码，字符串为变长长度+UTF-8字节
+ * 实体字段变更后指纹不同，旧缓存解码失败，由调用方按未命中处理
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    public static final byte ID = 1;
+
+    private final ConcurrentHashMap<Class<?>, Schema> schemas = new ConcurrentHashMap<>();
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public boolean supports(Class<?> type) {
+        try {
+            schema(type);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        Schema schema = schema(value.getClass());
+        Writer out = new Writer(128);
+        out.writeInt(schema.fingerprint);
+        try {
+            // null位图
+            byte[] nulls = new byte[(schema.fields.length + 7) >>> 3];
+            Object[] values = new Object[schema.fields.length];
+            for (int i = 0; i < schema.fields.length; i++) {
+                values[i] = schema.fields[i].get(value);
+                if (values[i] == null) {
+                    nulls[i >>> 3] |= 1 << (i & 7);
+                }
+            }
+            out.write(nulls, 0, nulls.length);
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    writeValue(out, schema.kinds[i], values[i]);
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, int offset, int length, Class<R> type) {
+        Schema schema = schema(type);
+        Reader in = new Reader(bytes, offset);
+        if (in.readInt() != schema.fingerprint) {
+            throw new IllegalStateException("缓存schema不匹配：" + type.getName());
+        }
+        try {
+            R r = type.getDeclaredConstructor().newInstance();
+            int nullBytes = (schema.fields.length + 7) >>> 3;
+            int nullsAt = in.pos;
+            in.pos += nullBytes;
+            for (int i = 0; i < schema.fields.length; i++) {
+                if ((bytes[nullsAt + (i >>> 3)] & (1 << (i & 7))) == 0) {
+                    schema.fields[i].set(r, readValue(in, schema.kinds[i]));
+                }
+            }
+            if (in.pos != offset + length) {
+                throw new IllegalStateException("缓存数据长度不匹配：" + type.getName());
+            }
+            return r;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Schema schema(Class<?> type) {
+        Schema schema = schemas.get(type);
+        if (schema == null) {
+            schema = new Schema(type);
+            schemas.putIfAbsent(type, schema);
+        }
+        return schema;
+    }
+
+    private static void writeValue(Writer out, Kind kind, Object v) {
+        switch (kind) {
+            case STRING:
+                byte[] b = ((String) v).getBytes(StandardCharsets.UTF_8);
+                out.writeVarLong(b.length);
+                out.write(b, 0, b.length);
+                break;
+            case LONG:
+            case INT:
+            case SHORT:
+            case BYTE:
+                out.writeVarLong(zigzag(((Number) v).longValue()));
+                break;
+            case DOUBLE:
+                out.writeLong(Double.doubleToRawLongBits((Double) v));
+                break;
+            case FLOAT:
+                out.writeInt(Float.floatToRawIntBits((Float) v));
+                break;
+            case BOOLEAN:
+                out.write((Boolean) v ? 1 : 0);
+                break;
+            case DATE_TIME:
+                LocalDateTime t = (LocalDateTime) v;
+                out.writeVarLong(zigzag(t.toEpochSecond(ZoneOffset.UTC)));
+                out.writeVarLong(t.getNano());
+                break;
+            case DATE:
+                out.writeVarLong(zigzag(((LocalDate) v).toEpochDay()));
+                break;
+            default:
+                throw new IllegalStateException(kind.name());
+        }
+    }
+
+    private static Object readValue(Reader in, Kind kind) {
+        switch (kind) {
+            case STRING:
+                int len = (int) in.readVarLong();
+                String s = new String(in.bytes, in.pos, len, StandardCharsets.UTF_8);
+                in.pos += len;
+                return s;
+            case LONG:
+                return unzigzag(in.readVarLong());
+            case INT:
+                return (int) unzigzag(in.readVarLong());
+            case SHORT:
+                return (short) unzigzag(in.readVarLong());
+            case BYTE:
+                return (byte) unzigzag(in.readVarLong());
+            case DOUBLE:
+                return Double.longBitsToDouble(in.readLong());
+            case FLOAT:
+                return Float.intBitsToFloat(in.readInt());
+            case BOOLEAN:
+                return in.bytes[in.pos++] != 0;
+            case DATE_TIME:
+                long seconds = unzigzag(in.readVarLong());
+                int nanos = (int) in.readVarLong();
+                return LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+            case DATE:
+                return LocalDate.ofEpochDay(unzigzag(in.readVarLong()));
+            default:
+                throw new IllegalStateException(kind.name());
+        }
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private enum Kind {
+        STRING, LONG, INT, SHORT, BYTE, DOUBLE, FLOAT, BOOLEAN, DATE_TIME, DATE;
+
+        static Kind of(Class<?> c) {
+            if (c == String.class) return STRING;
+            if (c == Long.class || c == long.class) return LONG;
+            if (c == Integer.class || c == int.class) return INT;
+            if (c == Short.class || c == short.class) return SHORT;
+            if (c == Byte.class || c == byte.class) return BYTE;
+            if (c == Double.class || c == double.class) return DOUBLE;
+            if (c == Float.class || c == float.class) return FLOAT;
+            if (c == Boolean.class || c == boolean.class) return BOOLEAN;
+            if (c == LocalDateTime.class) return DATE_TIME;
+            if (c == LocalDate.class) return DATE;
+            return null;
+        }
+    }
+
+    private static class Schema {
+        private final Field[] fields;
+        private final Kind[] kinds;
+        private final int fingerprint;
+
+        private Schema(Class<?> type) {
+            List<Field> list = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field f : c.getDeclaredFields()) {
+                    int m = f.getModifiers();
+                    if (!Modifier.isStatic(m) && !Modifier.isTransient(m)) {
+                        list.add(f);
+                    }
+                }
+            }
+            list.sort(Comparator.comparing(Field::getName));
+            this.fields = list.toArray(new Field[0]);
+            this.kinds = new Kind[fields.length];
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < fields.length; i++) {
+                kinds[i] = Kind.of(fields[i].getType());
+                if (kinds[i] == null) {
+                    throw new IllegalArgumentException("不支持的字段类型：" + fields[i]);
+                }
+                fields[i].setAccessible(true);
+                sb.append(fields[i].getName()).append(':').append(kinds[i].name()).append(';');
+            }
+            this.fingerprint = sb.toString().hashCode();
+        }
+    }
+
+    private static class Writer extends ByteArrayOutputStream {
+        Writer(int size) {
+            super(size);
+        }
+
+        void writeVarLong(long v) {
+            while ((v & ~0x7FL) != 0) {
+                write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            write((int) v);
+        }
+
+        void writeInt(int v) {
+            write(v >>> 24);
+            write(v >>> 16);
+            write(v >>> 8);
+            write(v);
+        }
+
+        void writeLong(long v) {
+            writeInt((int) (v >>> 32));
+            writeInt((int) v);
+        }
+    }
+
+    private static class Reader {
+        private final byte[] bytes;
+        private int pos;
+
+        Reader(byte[] bytes, int pos) {
+            this.bytes = bytes;
+            this.pos = pos;
+        }
+
+        long readVarLong() {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return v;
+        }
+
+        int readInt() {
+            return (bytes[pos++] & 0xFF) << 24 | (bytes[pos++] & 0xFF) << 16
+                    | (bytes[pos++] & 0xFF) << 8 | (bytes[pos++] & 0xFF);
+        }
+
+        long readLong() {
+            return (long) readInt() << 32 | (readInt() & 0xFFFFFFFFL);
+        }
+    }
+}
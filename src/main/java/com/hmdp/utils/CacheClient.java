@@ -1,21 +1,41 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
-import com.hmdp.entity.Shop;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 @Slf4j
 @Component
@@ -23,133 +43,886 @@ public class CacheClient {
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    // 缓存值以字节形式读写，编码由codecs决定
+    private final RedisTemplate<String, byte[]> byteRedisTemplate;
+
+    private final CacheCodecs codecs;
+
+    // 空值标记，应对缓存穿透
+    private static final byte[] NULL_VALUE = new byte[0];
+    // 命中空值时read的返回值
+    private static final RedisData NULL_HIT = new RedisData();
+
+    // 进程内一级缓存
+    private final LocalCache localCache;
+
+    // 热点探测及热点key的短期本地缓存
+    private final HotKeyDetector hotKeyDetector;
+    private final LocalCache hotCache;
+
+    // 正在重建的key
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder singleFlightLeaders = new LongAdder();
+    private final LongAdder singleFlightWaiters = new LongAdder();
+    // 等待其他线程重建时，在填充租约有效期之外额外等待的时间，覆盖退避和查库耗时
+    private static final long SINGLE_FLIGHT_EXTRA_WAIT_SECONDS = 5;
+
+    private static final String CACHE_KEY_PREFIX = "cache:";
+    private static final String LOCK_KEY_PREFIX = "lock:";
+
+    // 缓存填充租约：未命中时发放唯一token，只有持有者的写入会被接受
+    private static final DefaultRedisScript<Long> LEASE_ACQUIRE_SCRIPT;
+    private static final DefaultRedisScript<Long> LEASE_FILL_SCRIPT;
+    private static final DefaultRedisScript<Long> LEASE_RELEASE_SCRIPT;
+    static {
+        LEASE_ACQUIRE_SCRIPT = new DefaultRedisScript<>();
+        LEASE_ACQUIRE_SCRIPT.setLocation(new ClassPathResource("lease_acquire.lua"));
+        LEASE_ACQUIRE_SCRIPT.setResultType(Long.class);
+        LEASE_FILL_SCRIPT = new DefaultRedisScript<>();
+        LEASE_FILL_SCRIPT.setLocation(new ClassPathResource("lease_fill.lua"));
+        LEASE_FILL_SCRIPT.setResultType(Long.class);
+        LEASE_RELEASE_SCRIPT = new DefaultRedisScript<>();
+        LEASE_RELEASE_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        LEASE_RELEASE_SCRIPT.setResultType(Long.class);
+    }
+    // 本节点的token前缀，加上序号保证每次发放的token唯一
+    private final String leaseIdPrefix = UUID.randomUUID().toString(true) + "-";
+    private final AtomicLong leaseSequence = new AtomicLong();
+    private final LongAdder leasesGranted = new LongAdder();
+    private final LongAdder hotMisses = new LongAdder();
+    private final LongAdder rejectedFills = new LongAdder();
+
+    // 临近过期提前刷新，beta为0时关闭
+    private static final long DEFAULT_REBUILD_COST_MILLIS = 50;
+    private final double refreshAheadBeta;
+    private final ConcurrentHashMap<String, Long> rebuildCostMillis = new ConcurrentHashMap<>();
+    private final LongAdder earlyRefreshes = new LongAdder();
+    private final LongAdder staleReads = new LongAdder();
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate,
+                       RedisTemplate<String, byte[]> byteRedisTemplate,
+                       @Value("${hmdp.cache.local.max-size:10000}") int localMaxSize,
+                       @Value("${hmdp.cache.local.ttl-seconds:30}") long localTtlSeconds,
+                       @Value("${hmdp.cache.codec.binary-prefixes:}") List<String> binaryPrefixes,
+                       @Value("${hmdp.cache.codec.compress-threshold:1024}") int compressThreshold,
+                       @Value("${hmdp.cache.refresh-ahead.beta:1.0}") double refreshAheadBeta,
+                       @Value("${hmdp.cache.hot-key.window-seconds:10}") long hotKeyWindowSeconds,
+                       @Value("${hmdp.cache.hot-key.threshold:1000}") long hotKeyThreshold,
+                       @Value("${hmdp.cache.hot-key.top-k:100}") int hotKeyTopK,
+                       @Value("${hmdp.cache.hot-key.local-ttl-seconds:3}") long hotKeyLocalTtlSeconds,
+                       @Value("${hmdp.virtual-threads.enabled:false}") boolean virtualThreads) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheRebuildExecutor = virtualThreads
+                ? VirtualThreads.newExecutor("cache-rebuild-", () -> Executors.newFixedThreadPool(10))
+                : Executors.newFixedThreadPool(10);
+        this.hotKeyDetector = new HotKeyDetector(
+                TimeUnit.SECONDS.toMillis(hotKeyWindowSeconds), 10, hotKeyThreshold, hotKeyTopK);
+        this.hotCache = new LocalCache(hotKeyTopK, TimeUnit.SECONDS.toMillis(hotKeyLocalTtlSeconds));
+        this.refreshAheadBeta = refreshAheadBeta;
+        this.byteRedisTemplate = byteRedisTemplate;
+        this.localCache = new LocalCache(localMaxSize, TimeUnit.SECONDS.toMillis(localTtlSeconds));
+        // 默认使用JSON，配置的前缀使用二进制编码
+        BinaryCacheCodec binaryCodec = new BinaryCacheCodec();
+        this.codecs = new CacheCodecs(new JsonCacheCodec()).register(binaryCodec);
+        if (compressThreshold > 0) {
+            codecs.compressor(new CacheCompressor(compressThreshold));
+        }
+        for (String prefix : binaryPrefixes) {
+            if (StrUtil.isNotBlank(prefix)) {
+                codecs.use(prefix.trim(), binaryCodec);
+            }
+        }
     }
 
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        byteRedisTemplate.opsForValue().set(key, codecs.encode(key, value, null), time, unit);
     }
 
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        // 逻辑过期的数据不设置redis过期时间
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(unit.toSeconds(time));
+        byteRedisTemplate.opsForValue().set(key, codecs.encode(key, value, expireTime));
+    }
+
+    /**
+     * 从redis读取并解码
+     * @return null表示未命中（包括无法解码的旧数据），NULL_HIT表示命中空值
+     */
+    private <R> RedisData read(String key, Class<R> type) {
+        byte[] bytes = byteRedisTemplate.opsForValue().get(key);
+        if(bytes == null) {
+            return null;
+        }
+        if(bytes.length == 0) {
+            return NULL_HIT;
+        }
+        return decode(key, bytes, type);
+    }
+
+    // 解码，格式不兼容时按未命中处理
+    private <R> RedisData decode(String key, byte[] bytes, Class<R> type) {
+        try {
+            return codecs.decode(key, bytes, type);
+        } catch (RuntimeException e) {
+            log.warn("缓存解码失败，按未命中处理：{}", key, e);
+            return null;
+        }
+    }
+
+    /**
+     * 指定key前缀的数据版本号，写入缓存头部，供条件请求判断数据是否变化
+     * @param versionOf 从数据计算版本号，返回null表示无版本号
+     */
+    public <R> void versionBy(String keyPrefix, Class<R> type, Function<R, Long> versionOf) {
+        codecs.versioned(keyPrefix, value -> type.isInstance(value) ? versionOf.apply(type.cast(value)) : null);
+    }
+
+    /**
+     * 查询缓存数据的版本号，不解码数据
+     * 先查本地缓存，再用GETRANGE只读取redis中值的头部
+     * @return 未命中或没有版本号时返回null
+     */
+    public Long queryVersion(String key) {
+        Object r = hotCache.peek(key);
+        if (r == null) {
+            r = localCache.peek(key);
+        }
+        if (r != null) {
+            return codecs.versionOf(key, r);
+        }
+        byte[] header = byteRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.getRange(
+                key.getBytes(StandardCharsets.UTF_8), 0, CacheCodecs.MAX_VERSION_HEADER_LENGTH - 1));
+        return CacheCodecs.peekVersion(header);
     }
 
+    @SuppressWarnings("unchecked")
     public <R, ID> R queryWithPassThrough(
-            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
-        // 从redis查
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit,
+            Duration leaseTtl){
         String key = keyPrefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
-
-        R r = null;
-        // 判断是否存在
-        if(StrUtil.isNotBlank(json)) {
-            // 存在则直接返回
-            return JSONUtil.toBean(json, type);
+        boolean isHot = hotKeyDetector.record(key);
+        // 先查本地缓存
+        R r = localGet(key, isHot);
+        if(r != null) {
+            return r;
         }
 
+        // 从redis查
+        RedisData cached = read(key, type);
+
         // 由于穿透问题处理，此处增加判断命中的是不是空值
-        if(Objects.nonNull(json)){
+        if(cached == NULL_HIT){
             // 返回错误信息
             return null;
         }
 
-        // 不存在则查数据库
-        r = dbFallback.apply(id);
+        // 判断是否存在
+        if(cached != null) {
+            // 存在则写入本地缓存并返回
+            r = (R) cached.getData();
+            localPut(key, r, isHot);
+            return r;
+        }
+
+        // 不存在则获取填充租约后查数据库，租约在其他节点手中时只查库不回写，避免与失效竞争写入旧数据
+        String leaseKey = lockKeyOf(key);
+        String token = nextLeaseToken();
+        boolean leased = acquireLease(leaseKey, token, leaseTtl) == 0;
+        try {
+            long begin = System.currentTimeMillis();
+            r = dbFallback.apply(id);
+            recordRebuildCost(keyPrefix, begin);
+
+            // 不存在于数据库则返回错误
+            if(Objects.isNull(r)) {
+                // 将空值写入redis，应对传统问题
+                // TTL添加随机值防止雪崩
+                if(leased) {
+                    leased = false;
+                    fill(key, leaseKey, token, NULL_VALUE,
+                            TimeUnit.MINUTES.toMillis(RedisConstants.CACHE_NULL_TTL + new Random().nextInt(10)));
+                }
+                // 返回错误信息
+                return null;
+            }
+            // 存在于数据库则写回缓存，TTL添加随机值防止雪崩，过期时间同时写入头部供提前刷新判断
+            // 租约已被作废时不写入本地缓存
+            if(leased) {
+                leased = false;
+                long ttlMillis = unit.toMillis(time + new Random().nextInt(10));
+                if(fill(key, leaseKey, token, codecs.encode(key, r, expireTimeAfter(ttlMillis)), ttlMillis)) {
+                    localCache.put(key, r);
+                }
+            }
+
+            // 返回数据
+            return r;
+        }
+        finally {
+            // 未完成填充时释放自己持有的租约
+            if(leased) {
+                releaseLease(leaseKey, token);
+            }
+        }
+    }
+
+    /**
+     * 批量查询：本地缓存 -> 一次MGET -> 一次批量查库，未命中的数据通过一次pipeline按租约写回
+     * 查库前通过一次pipeline获取各key的填充租约，租约在其他节点手中的数据只返回不回写
+     * 写入的数据头部带过期时间，命中时与queryWithMutex一样参与提前刷新
+     * @param keyPrefix key前缀
+     * @param ids id列表
+     * @param type 数据类型
+     * @param dbBatchFallback 批量查库，返回id到数据的映射，不存在的id不在映射中
+     * @param leaseTtl 填充租约的有效期，需大于查库耗时，否则租约过期后其他节点会重复查库
+     * @return 与ids顺序一致的结果，不存在的数据对应位置为null
+     */
+    @SuppressWarnings("unchecked")
+    public <R, ID> List<R> queryBatch(
+            String keyPrefix, List<ID> ids, Class<R> type, Function<List<ID>, Map<ID, R>> dbBatchFallback, Long time, TimeUnit unit,
+            Duration leaseTtl){
+        List<R> result = new ArrayList<>(Collections.nCopies(ids.size(), (R) null));
+        if(ids.isEmpty()) {
+            return result;
+        }
+
+        // 先查本地缓存
+        List<Integer> missIndexes = new ArrayList<>();
+        List<String> missKeys = new ArrayList<>();
+        List<Boolean> missHot = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            String key = keyPrefix + ids.get(i);
+            boolean isHot = hotKeyDetector.record(key);
+            R r = localGet(key, isHot);
+            if(r != null) {
+                result.set(i, r);
+            } else {
+                missIndexes.add(i);
+                missKeys.add(key);
+                missHot.add(isHot);
+            }
+        }
+        if(missKeys.isEmpty()) {
+            return result;
+        }
 
-        // 不存在于数据库则返回错误
-        if(Objects.isNull(r)) {
-            // 将空值写入redis，应对传统问题
+        // 一次MGET查redis
+        List<byte[]> values = byteRedisTemplate.opsForValue().multiGet(missKeys);
+        List<ID> dbIds = new ArrayList<>();
+        List<Integer> dbIndexes = new ArrayList<>();
+        for (int i = 0; i < missKeys.size(); i++) {
+            byte[] bytes = values == null ? null : values.get(i);
+            // 命中空值
+            if(bytes != null && bytes.length == 0) {
+                continue;
+            }
+            RedisData cached = bytes == null ? null : decode(missKeys.get(i), bytes, type);
+            if(cached != null) {
+                R r = (R) cached.getData();
+                localPut(missKeys.get(i), r, missHot.get(i));
+                result.set(missIndexes.get(i), r);
+                // 与单个查询一样，临近过期时按概率提前在后台刷新
+                refreshEarlyIfNeeded(keyPrefix, missKeys.get(i), ids.get(missIndexes.get(i)), cached,
+                        id -> dbBatchFallback.apply(Collections.singletonList(id)).get(id), time, unit, leaseTtl);
+            } else {
+                dbIds.add(ids.get(missIndexes.get(i)));
+                dbIndexes.add(missIndexes.get(i));
+            }
+        }
+        if(dbIds.isEmpty()) {
+            return result;
+        }
+
+        // 获取填充租约，查库期间缓存被作废时租约一并作废，之后的写入被拒绝
+        List<String> dbKeys = new ArrayList<>(dbIds.size());
+        List<String> leaseKeys = new ArrayList<>(dbIds.size());
+        List<String> tokens = new ArrayList<>(dbIds.size());
+        for (ID id : dbIds) {
+            String key = keyPrefix + id;
+            dbKeys.add(key);
+            leaseKeys.add(lockKeyOf(key));
+            tokens.add(nextLeaseToken());
+        }
+        List<Boolean> leased = acquireLeases(leaseKeys, tokens, leaseTtl);
+        boolean pending = true;
+        try {
+            // 一次批量查库，耗时计入该前缀的重建耗时
+            long begin = System.currentTimeMillis();
+            Map<ID, R> loaded = dbBatchFallback.apply(dbIds);
+            recordRebuildCost(keyPrefix, begin);
+            List<Integer> fillIndexes = new ArrayList<>();
+            List<byte[]> fillValues = new ArrayList<>();
+            List<Long> fillTtls = new ArrayList<>();
             // TTL添加随机值防止雪崩
-            this.set(key, "", RedisConstants.CACHE_NULL_TTL + new Random().nextInt(10), TimeUnit.MINUTES);
+            Random random = new Random();
+            for (int i = 0; i < dbIds.size(); i++) {
+                R r = loaded.get(dbIds.get(i));
+                if(r != null) {
+                    result.set(dbIndexes.get(i), r);
+                }
+                if(!leased.get(i)) {
+                    continue;
+                }
+                fillIndexes.add(i);
+                if(r == null) {
+                    fillValues.add(NULL_VALUE);
+                    fillTtls.add(TimeUnit.MINUTES.toMillis(RedisConstants.CACHE_NULL_TTL + random.nextInt(10)));
+                } else {
+                    // 过期时间写入头部，与rebuildWithMutex写入的数据一样参与提前刷新
+                    long ttlMillis = unit.toMillis(time + random.nextInt(10));
+                    fillValues.add(codecs.encode(dbKeys.get(i), r, expireTimeAfter(ttlMillis)));
+                    fillTtls.add(ttlMillis);
+                }
+            }
+
+            // 一次pipeline按租约写回，租约已被作废的数据可能已过时，不写入本地缓存
+            pending = false;
+            List<Boolean> filled = fillAll(fillIndexes, dbKeys, leaseKeys, tokens, fillValues, fillTtls);
+            for (int j = 0; j < fillIndexes.size(); j++) {
+                int i = fillIndexes.get(j);
+                R r = loaded.get(dbIds.get(i));
+                if(filled.get(j) && r != null) {
+                    localCache.put(dbKeys.get(i), r);
+                }
+            }
+        }
+        finally {
+            // 查库失败时释放已获取的租约
+            if(pending) {
+                releaseLeases(leased, leaseKeys, tokens);
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <R, ID> R queryWithMutex(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit,
+            Duration leaseTtl){
+        String key = keyPrefix + id;
+        boolean isHot = hotKeyDetector.record(key);
+        // 先查本地缓存
+        R r = localGet(key, isHot);
+        if(r != null) {
+            return r;
+        }
+
+        // 从redis查
+        RedisData cached = read(key, type);
+
+        // 由于穿透问题处理，此处增加判断命中的是不是空值
+        if(cached == NULL_HIT){
             // 返回错误信息
             return null;
         }
-        // 存在于数据库则写回缓存，TTL添加随机值防止雪崩
-        this.set(key, r, (time + new Random().nextInt(10)), unit);
 
-        // 返回数据
+        // 判断是否存在
+        if(cached != null) {
+            // 存在则写入本地缓存并返回，临近过期时按概率提前在后台刷新
+            r = (R) cached.getData();
+            localPut(key, r, isHot);
+            refreshEarlyIfNeeded(keyPrefix, key, id, cached, dbFallback, time, unit, leaseTtl);
+            return r;
+        }
+
+        // 同一key的并发未命中在本进程内合并为一次重建，其余线程等待结果而不是轮询redis
+        return singleFlight(key, () -> rebuildWithMutex(keyPrefix, key, id, type, dbFallback, time, unit, leaseTtl),
+                leaseTtl.toMillis() + TimeUnit.SECONDS.toMillis(SINGLE_FLIGHT_EXTRA_WAIT_SECONDS), TimeUnit.MILLISECONDS);
+    }
+
+    private <R, ID> R rebuildWithMutex(
+            String keyPrefix, String key, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit,
+            Duration leaseTtl){
+        // 获取填充租约，此时只有本进程的一个线程在竞争
+        String leaseKey = lockKeyOf(key);
+        String token = nextLeaseToken();
+        boolean leased = false;
+        try {
+            long backoff = 50;
+            long hint;
+            while ((hint = acquireLease(leaseKey, token, leaseTtl)) > 0) {
+                // 热点未命中：租约在其他节点手中，按提示退避后检查其是否已填充
+                hotMisses.increment();
+                Thread.sleep(Math.min(backoff, hint));
+                backoff = Math.min(backoff * 2, 200);
+                RedisData cached = read(key, type);
+                if(cached != null) {
+                    return fromCached(key, cached);
+                }
+            }
+            leased = true;
+
+            // 双检，获取租约期间缓存可能已经填充
+            RedisData cached = read(key, type);
+            if(cached != null) {
+                return fromCached(key, cached);
+            }
+
+            // 不存在则查数据库
+            long begin = System.currentTimeMillis();
+            R r = dbFallback.apply(id);
+            recordRebuildCost(keyPrefix, begin);
+
+            // 不存在于数据库则返回错误
+            if (Objects.isNull(r)) {
+                // 将空值写入redis，应对传统问题
+                // TTL添加随机值防止雪崩
+                fill(key, leaseKey, token, NULL_VALUE,
+                        TimeUnit.MINUTES.toMillis(RedisConstants.CACHE_NULL_TTL + new Random().nextInt(10)));
+                leased = false;
+                // 返回错误信息
+                return null;
+            }
+            // 存在于数据库则写回缓存，TTL添加随机值防止雪崩，过期时间同时写入头部供提前刷新判断
+            // 租约已被作废时数据可能已过时，不写入本地缓存
+            long ttlMillis = unit.toMillis(time + new Random().nextInt(10));
+            if (fill(key, leaseKey, token, codecs.encode(key, r, expireTimeAfter(ttlMillis)), ttlMillis)) {
+                localCache.put(key, r);
+            }
+            leased = false;
+            return r;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        finally {
+            // 未完成填充时释放自己持有的租约
+            if(leased) {
+                releaseLease(leaseKey, token);
+            }
+        }
+    }
+
+    // 命中redis后写入本地缓存，空值返回null
+    @SuppressWarnings("unchecked")
+    private <R> R fromCached(String key, RedisData cached) {
+        if(cached == NULL_HIT) {
+            return null;
+        }
+        R r = (R) cached.getData();
+        localCache.put(key, r);
+        return r;
+    }
+
+    /**
+     * 读取本地缓存，热点key优先读取热点缓存
+     * 热点缓存只保存top-K的热点key，不会因一级缓存的LRU淘汰而回源redis
+     */
+    private <R> R localGet(String key, boolean isHot) {
+        R r = hotCache.get(key);
+        if(r != null) {
+            return r;
+        }
+        r = localCache.get(key);
+        if(r != null && isHot) {
+            // 一级缓存中的热点key提升到热点缓存
+            hotCache.put(key, r);
+        }
         return r;
     }
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private void localPut(String key, Object r, boolean isHot) {
+        localCache.put(key, r);
+        if(isHot) {
+            hotCache.put(key, r);
+        }
+    }
+
+    /**
+     * 进程内single-flight：同一key同一时刻只有一个线程执行loader，其余线程共享其结果
+     * @param key 缓存key
+     * @param loader 重建逻辑
+     * @param timeout 等待其他线程重建结果的最长时间
+     */
+    @SuppressWarnings("unchecked")
+    private <R> R singleFlight(String key, Supplier<R> loader, long timeout, TimeUnit unit) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(key, future);
+        if(running != null) {
+            // 已有线程在重建，等待其结果
+            singleFlightWaiters.increment();
+            try {
+                return (R) running.get(timeout, unit);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            catch (ExecutionException e) {
+                throw new RuntimeException("缓存重建失败：" + key, e.getCause());
+            }
+            catch (TimeoutException e) {
+                throw new RuntimeException("等待缓存重建超时：" + key, e);
+            }
+        }
+
+        singleFlightLeaders.increment();
+        try {
+            R r = loader.get();
+            future.complete(r);
+            return r;
+        }
+        catch (Throwable e) {
+            future.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    public Map<String, Object> singleFlightStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("inFlight", inFlight.size());
+        stats.put("leaders", singleFlightLeaders.sum());
+        stats.put("waiters", singleFlightWaiters.sum());
+        return stats;
+    }
+
+    /**
+     * 删除缓存，并通过pub/sub通知所有节点删除本地缓存
+     * @param key 缓存key
+     */
+    public void invalidate(String key) {
+        // 同时作废填充租约，正在进行的填充会被拒绝，避免旧数据回填
+        stringRedisTemplate.delete(Arrays.asList(key, lockKeyOf(key)));
+        localCache.invalidate(key);
+        hotCache.invalidate(key);
+        // 消息格式：发布时间戳:key
+        stringRedisTemplate.convertAndSend(
+                RedisConstants.CACHE_INVALIDATE_CHANNEL, System.currentTimeMillis() + ":" + key);
+    }
+
+    /**
+     * 处理失效消息，由订阅线程调用
+     * @param message 发布时间戳:key
+     */
+    public void onInvalidateMessage(String message) {
+        int index = message.indexOf(':');
+        if(index <= 0) {
+            log.warn("无法解析的缓存失效消息：{}", message);
+            return;
+        }
+        long publishTime = Long.parseLong(message.substring(0, index));
+        String key = message.substring(index + 1);
+        localCache.invalidate(key, publishTime);
+        hotCache.invalidate(key);
+    }
+
+    public Map<String, Object> localCacheStats() {
+        return localCache.stats();
+    }
+
+    /**
+     * 记录对某个key的访问，供直接使用redis的业务调用
+     * 只用于热点探测和统计，这些key不是缓存值，不会提升到本地
+     */
+    public void recordAccess(String key) {
+        hotKeyDetector.record(key);
+    }
+
+    public List<Map<String, Object>> hotKeys() {
+        return hotKeyDetector.hotKeys();
+    }
+
+    public Map<String, Object> compressionStats() {
+        CacheCompressor compressor = codecs.compressor();
+        return compressor == null ? Collections.emptyMap() : compressor.stats();
+    }
+
+    public Map<String, Object> hotCacheStats() {
+        return hotCache.stats();
+    }
+
+    // 缓存重建线程池，开启虚拟线程时每个重建任务一个虚拟线程
+    private final ExecutorService cacheRebuildExecutor;
 
+    @SuppressWarnings("unchecked")
     public <R, ID> R queryWithLogicalExpire(
-            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
-        // 从redis查
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit,
+            Duration leaseTtl){
         String key = keyPrefix + id;
-        String json = stringRedisTemplate.opsForValue().get(key);
+        // 热点key提升到短期本地缓存，本地数据过期前不再访问redis
+        boolean isHot = hotKeyDetector.record(key);
+        R hot = hotCache.get(key);
+        if(hot != null) {
+            return hot;
+        }
+
+        // 从redis查
+        // 过期时间在缓存头部中，只需解析一次
+        RedisData redisData = read(key, type);
 
         // 判断是否存在
-        if(StrUtil.isBlank(json)) {
+        if(redisData == null || redisData.getExpireTime() == null) {
             // 不存在，返回
             return null;
         }
-
-        // 存在，首先序列化
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        LocalDateTime expireTime = redisData.getExpireTime();
+        R r = (R) redisData.getData();
+        long now = System.currentTimeMillis();
+        long expireMillis = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
 
         // 判断是否过期
-        if(expireTime.isAfter(LocalDateTime.now())) {
-            // 未过期直接返回
+        if(expireMillis > now) {
+            // 未过期，临近过期时按概率提前在后台刷新，仍返回当前数据
+            if(shouldRefreshEarly(keyPrefix, expireMillis, now)) {
+                if(rebuildAsync(keyPrefix, key, id, dbFallback, time, unit, leaseTtl, true)) {
+                    earlyRefreshes.increment();
+                }
+            }
+            else if(isHot) {
+                hotCache.put(key, r);
+            }
             return r;
         }
 
-        // 获取互斥锁
-        String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-
-        if(isLock){
-            // 成功获取锁，开启独立线程实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    R r1 = dbFallback.apply(id);
-                    this.setWithLogicalExpire(key, r1, time, unit);
-                }catch (Exception e){
-                    throw new RuntimeException(e);
-                }finally {
-                    // 释放锁
-                    unlock(lockKey);
-                }
-            });
-        }
+        // 已过期，获取锁成功则开启独立线程实现缓存重建
+        staleReads.increment();
+        rebuildAsync(keyPrefix, key, id, dbFallback, time, unit, leaseTtl, true);
 
         // 增加双检环节
         // 获取锁失败，再次查询缓存，判断缓存是否重建
-        json = stringRedisTemplate.opsForValue().get(key);
-        if(StrUtil.isBlank(json)) {
-            // 不存在，返回
+        RedisData latest = read(key, type);
+        if(latest == null || latest.getExpireTime() == null) {
+            // 不存在，返回过期数据
+            return r;
+        }
+
+        // 未过期返回新数据，否则返回过期数据
+        return (R) latest.getData();
+    }
+
+    // 带过期时间的缓存在临近过期时按概率提前在后台重建，重建期间仍返回当前数据
+    private <R, ID> void refreshEarlyIfNeeded(
+            String keyPrefix, String key, ID id, RedisData cached, Function<ID, R> dbFallback, Long time, TimeUnit unit,
+            Duration leaseTtl) {
+        if(cached == NULL_HIT || cached.getExpireTime() == null) {
+            return;
+        }
+        long expireMillis = cached.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        if(shouldRefreshEarly(keyPrefix, expireMillis, System.currentTimeMillis())
+                && rebuildAsync(keyPrefix, key, id, dbFallback, time, unit, leaseTtl, false)) {
+            earlyRefreshes.increment();
+        }
+    }
+
+    private boolean shouldRefreshEarly(String keyPrefix, long expireMillis, long now) {
+        long cost = rebuildCostMillis.getOrDefault(keyPrefix, DEFAULT_REBUILD_COST_MILLIS);
+        return shouldRefreshEarly(now, expireMillis, cost, refreshAheadBeta, ThreadLocalRandom.current().nextDouble());
+    }
+
+    /**
+     * 概率提前刷新（XFetch）：now - cost * beta * ln(rand) >= expire 时刷新
+     * 越接近过期、重建越慢，刷新概率越大；热点key在过期前几乎必然被刷新
+     * 距过期还有remaining毫秒时的刷新概率为 exp(-remaining / (cost * beta))
+     * @param rand (0, 1]之间的随机数
+     */
+    static boolean shouldRefreshEarly(long now, long expireMillis, long costMillis, double beta, double rand) {
+        if(beta <= 0) {
+            return false;
+        }
+        return now - costMillis * beta * Math.log(rand) >= expireMillis;
+    }
+
+    private static LocalDateTime expireTimeAfter(long ttlMillis) {
+        return LocalDateTime.now().plusNanos(TimeUnit.MILLISECONDS.toNanos(ttlMillis));
+    }
+
+    // 记录重建耗时，指数加权平均
+    private void recordRebuildCost(String keyPrefix, long begin) {
+        long cost = System.currentTimeMillis() - begin;
+        rebuildCostMillis.merge(keyPrefix, cost, (old, c) -> (old * 7 + c) / 8);
+    }
+
+    /**
+     * 获取租约并提交后台重建，返回是否提交成功
+     * @param logicalExpire true为逻辑过期的数据，不设置redis过期时间；否则按time设置过期时间
+     */
+    private <R, ID> boolean rebuildAsync(
+            String keyPrefix, String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit, Duration leaseTtl,
+            boolean logicalExpire) {
+        // 获取填充租约，未获取到说明其他节点正在重建，调用方返回旧数据
+        String leaseKey = lockKeyOf(key);
+        String token = nextLeaseToken();
+        if(acquireLease(leaseKey, token, leaseTtl) > 0) {
+            hotMisses.increment();
+            return false;
+        }
+        // 成功获取租约，开启独立线程实现缓存重建
+        cacheRebuildExecutor.submit(() -> {
+            long begin = System.currentTimeMillis();
+            boolean filled = false;
+            try {
+                R r1 = dbFallback.apply(id);
+                recordRebuildCost(keyPrefix, begin);
+                if(r1 == null) {
+                    // 数据已删除，逻辑过期的数据直接删除，否则写入空值
+                    fill(key, leaseKey, token, NULL_VALUE, logicalExpire ? -1
+                            : TimeUnit.MINUTES.toMillis(RedisConstants.CACHE_NULL_TTL + new Random().nextInt(10)));
+                } else if(logicalExpire) {
+                    // 逻辑过期的数据不设置redis过期时间
+                    LocalDateTime expireTime = LocalDateTime.now().plusSeconds(unit.toSeconds(time));
+                    fill(key, leaseKey, token, codecs.encode(key, r1, expireTime), 0);
+                } else {
+                    long ttlMillis = unit.toMillis(time + new Random().nextInt(10));
+                    fill(key, leaseKey, token, codecs.encode(key, r1, expireTimeAfter(ttlMillis)), ttlMillis);
+                }
+                filled = true;
+            }catch (Exception e){
+                log.error("缓存重建失败：{}", key, e);
+            }finally {
+                if(!filled) {
+                    releaseLease(leaseKey, token);
+                }
+            }
+        });
+        return true;
+    }
+
+    public Map<String, Object> refreshAheadStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("beta", refreshAheadBeta);
+        stats.put("earlyRefreshes", earlyRefreshes.sum());
+        stats.put("staleReads", staleReads.sum());
+        stats.put("rebuildCostMillis", new LinkedHashMap<>(rebuildCostMillis));
+        return stats;
+    }
+
+    /**
+     * 重建锁的key由缓存key推导，如cache:shop:1 -> lock:shop:1
+     */
+    private static String lockKeyOf(String key) {
+        String name = key.startsWith(CACHE_KEY_PREFIX) ? key.substring(CACHE_KEY_PREFIX.length()) : key;
+        return LOCK_KEY_PREFIX + name;
+    }
+
+    private String nextLeaseToken() {
+        return leaseIdPrefix + leaseSequence.incrementAndGet();
+    }
+
+    /**
+     * 获取填充租约
+     * @return 0表示获取成功，否则为租约剩余毫秒数，作为退避提示
+     */
+    private long acquireLease(String leaseKey, String token, Duration leaseTtl) {
+        Long hint = stringRedisTemplate.execute(
+                LEASE_ACQUIRE_SCRIPT,
+                Collections.singletonList(leaseKey),
+                token, String.valueOf(leaseTtl.toMillis()));
+        if(hint != null && hint == 0) {
+            leasesGranted.increment();
+            return 0;
+        }
+        return hint == null ? 1 : hint;
+    }
+
+    /**
+     * 批量获取填充租约，一次pipeline
+     * @return 与leaseKeys顺序一致，是否获取成功
+     */
+    private List<Boolean> acquireLeases(List<String> leaseKeys, List<String> tokens, Duration leaseTtl) {
+        byte[] script = bytes(LEASE_ACQUIRE_SCRIPT.getScriptAsString());
+        byte[] ttl = bytes(String.valueOf(leaseTtl.toMillis()));
+        List<Object> hints = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < leaseKeys.size(); i++) {
+                connection.scriptingCommands().eval(script, ReturnType.INTEGER, 1,
+                        bytes(leaseKeys.get(i)), bytes(tokens.get(i)), ttl);
+            }
+            return null;
+        });
+        List<Boolean> leased = new ArrayList<>(leaseKeys.size());
+        for (int i = 0; i < leaseKeys.size(); i++) {
+            boolean granted = i < hints.size() && Long.valueOf(0).equals(hints.get(i));
+            if(granted) {
+                leasesGranted.increment();
+            } else {
+                hotMisses.increment();
+            }
+            leased.add(granted);
+        }
+        return leased;
+    }
+
+    /**
+     * 批量按租约写入缓存，一次pipeline，每个key的校验与写入在lua中原子执行
+     * @param indexes 要写入的数据在keys、leaseKeys、tokens中的下标
+     * @return 与indexes顺序一致，是否写入成功
+     */
+    private List<Boolean> fillAll(List<Integer> indexes, List<String> keys, List<String> leaseKeys,
+                                  List<String> tokens, List<byte[]> values, List<Long> ttlMillis) {
+        if(indexes.isEmpty()) {
+            return Collections.emptyList();
+        }
+        byte[] script = bytes(LEASE_FILL_SCRIPT.getScriptAsString());
+        List<Object> results = byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int j = 0; j < indexes.size(); j++) {
+                int i = indexes.get(j);
+                connection.scriptingCommands().eval(script, ReturnType.INTEGER, 2,
+                        bytes(leaseKeys.get(i)), bytes(keys.get(i)), bytes(tokens.get(i)), values.get(j),
+                        bytes(String.valueOf(ttlMillis.get(j))));
+            }
             return null;
+        });
+        List<Boolean> filled = new ArrayList<>(indexes.size());
+        for (int j = 0; j < indexes.size(); j++) {
+            boolean ok = j < results.size() && Long.valueOf(1).equals(results.get(j));
+            if(!ok) {
+                rejectedFills.increment();
+                log.debug("填充租约已失效，丢弃写入：{}", keys.get(indexes.get(j)));
+            }
+            filled.add(ok);
         }
+        return filled;
+    }
 
-        // 存在，首先序列化
-        redisData = JSONUtil.toBean(json, RedisData.class);
-        r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        expireTime = redisData.getExpireTime();
+    // 批量释放自己持有的租约
+    private void releaseLeases(List<Boolean> leased, List<String> leaseKeys, List<String> tokens) {
+        byte[] script = bytes(LEASE_RELEASE_SCRIPT.getScriptAsString());
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < leaseKeys.size(); i++) {
+                if(leased.get(i)) {
+                    connection.scriptingCommands().eval(script, ReturnType.INTEGER, 1,
+                            bytes(leaseKeys.get(i)), bytes(tokens.get(i)));
+                }
+            }
+            return null;
+        });
+    }
 
-        // 判断是否过期
-        if(expireTime.isAfter(LocalDateTime.now())) {
-            // 未过期直接返回
-            return r;
+    /**
+     * 校验租约后写入缓存并释放租约，校验与写入在lua中原子执行
+     * @param ttlMillis 大于0设置过期时间，0为不过期，小于0为删除缓存
+     * @return 租约已失效时返回false，不写入
+     */
+    private boolean fill(String key, String leaseKey, String token, byte[] value, long ttlMillis) {
+        Long filled = byteRedisTemplate.execute(
+                LEASE_FILL_SCRIPT,
+                Arrays.asList(leaseKey, key),
+                token.getBytes(StandardCharsets.UTF_8), value,
+                String.valueOf(ttlMillis).getBytes(StandardCharsets.UTF_8));
+        if(filled == null || filled == 0) {
+            rejectedFills.increment();
+            log.debug("填充租约已失效，丢弃写入：{}", key);
+            return false;
         }
+        return true;
+    }
 
-        // 返回过期数据
-        return r;
+    // 只释放自己持有的租约
+    private void releaseLease(String leaseKey, String token) {
+        stringRedisTemplate.execute(LEASE_RELEASE_SCRIPT, Collections.singletonList(leaseKey), token);
     }
 
-    // 尝试加锁
-    private boolean tryLock(String key){
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", RedisConstants.LOCK_SHOP_TTL, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
     }
 
-    // 解锁
-    private void unlock(String key){
-        stringRedisTemplate.delete(key);
+    public Map<String, Object> leaseStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("granted", leasesGranted.sum());
+        stats.put("hotMisses", hotMisses.sum());
+        stats.put("rejectedFills", rejectedFills.sum());
+        return stats;
     }
 }
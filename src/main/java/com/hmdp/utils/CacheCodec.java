@@ -0,0 +1,22 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存值编解码器
+ * 编码结果不含头部，头部由{@link CacheCodecs}统一写入，解码时根据头部中的id选择编解码器
+ */
+public interface CacheCodec {
+
+    /**
+     * 编解码器id，写入缓存头部，一经使用不可修改
+     */
+    byte id();
+
+    /**
+     * 是否支持该类型
+     */
+    boolean supports(Class<?> type);
+
+    byte[] encode(Object value);
+
+    <R> R decode(byte[] bytes, int offset, int length, Class<R> type);
+}
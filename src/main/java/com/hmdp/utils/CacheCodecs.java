@@ -0,0 +1,245 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 缓存编解码入口：按key前缀选择编解码器，并负责缓存头部的读写
+ * 头部格式：[MAGIC][格式版本][编解码器id][标志位][逻辑过期时间(可选，8字节毫秒)][数据版本号(可选，8字节)][原始长度(可选，4字节)]
+ * 首字节不是MAGIC的值视为旧的JSON格式（JSON首字节不可能是0xCA），保证灰度期间旧数据可读
+ * JSON编解码器在未压缩且无版本号时仍写出无头部的旧格式，未切换前缀的节点之间完全兼容
+ */
+public class CacheCodecs {
+
+    static final byte MAGIC = (byte) 0xCA;
+    static final byte FORMAT_VERSION = 1;
+    static final int FLAG_LOGICAL_EXPIRE = 1;
+    static final int FLAG_COMPRESSED = 2;
+    static final int FLAG_VERSIONED = 4;
+
+    private static final int HEADER_LENGTH = 4;
+    // 读取版本号需要的最大头部长度
+    static final int MAX_VERSION_HEADER_LENGTH = HEADER_LENGTH + 16;
+    private static final CacheCompressor DECOMPRESSOR = new CacheCompressor(Integer.MAX_VALUE);
+
+    private final CacheCodec[] codecById = new CacheCodec[8];
+    private final List<String> prefixes = new ArrayList<>();
+    private final List<CacheCodec> prefixCodecs = new ArrayList<>();
+    private final List<String> versionPrefixes = new ArrayList<>();
+    private final List<Function<Object, Long>> versionFunctions = new ArrayList<>();
+    private final CacheCodec defaultCodec;
+    // 为null时不压缩
+    private CacheCompressor compressor;
+
+    public CacheCodecs(CacheCodec defaultCodec) {
+        this.defaultCodec = defaultCodec;
+        register(defaultCodec);
+    }
+
+    /**
+     * 开启压缩
+     */
+    public CacheCodecs compressor(CacheCompressor compressor) {
+        this.compressor = compressor;
+        return this;
+    }
+
+    public CacheCompressor compressor() {
+        return compressor;
+    }
+
+    public CacheCodecs register(CacheCodec codec) {
+        codecById[codec.id()] = codec;
+        return this;
+    }
+
+    /**
+     * 指定key前缀使用的编解码器
+     */
+    public CacheCodecs use(String keyPrefix, CacheCodec codec) {
+        register(codec);
+        prefixes.add(keyPrefix);
+        prefixCodecs.add(codec);
+        return this;
+    }
+
+    /**
+     * 指定key前缀的数据版本号，写入头部后可以不解码直接读取
+     * @param versionOf 从缓存值计算版本号，返回null表示无版本号
+     */
+    public CacheCodecs versioned(String keyPrefix, Function<Object, Long> versionOf) {
+        versionPrefixes.add(keyPrefix);
+        versionFunctions.add(versionOf);
+        return this;
+    }
+
+    /**
+     * 计算缓存值的版本号
+     * @return 未配置版本号的前缀返回null
+     */
+    public Long versionOf(String key, Object value) {
+        for (int i = 0; i < versionPrefixes.size(); i++) {
+            if (key.startsWith(versionPrefixes.get(i))) {
+                return versionFunctions.get(i).apply(value);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 只读取头部中的版本号，不解码数据
+     * @param bytes 完整的缓存值或其开头的MAX_VERSION_HEADER_LENGTH个字节
+     * @return 没有版本号（包括旧格式）时返回null
+     */
+    public static Long peekVersion(byte[] bytes) {
+        if (bytes == null || bytes.length < HEADER_LENGTH || bytes[0] != MAGIC || bytes[1] != FORMAT_VERSION
+                || (bytes[3] & FLAG_VERSIONED) == 0) {
+            return null;
+        }
+        int offset = HEADER_LENGTH + ((bytes[3] & FLAG_LOGICAL_EXPIRE) != 0 ? 8 : 0);
+        if (bytes.length < offset + 8) {
+            return null;
+        }
+        return readLong(bytes, offset);
+    }
+
+    CacheCodec codecFor(String key, Class<?> type) {
+        for (int i = 0; i < prefixes.size(); i++) {
+            if (key.startsWith(prefixes.get(i))) {
+                CacheCodec codec = prefixCodecs.get(i);
+                return codec.supports(type) ? codec : defaultCodec;
+            }
+        }
+        return defaultCodec;
+    }
+
+    /**
+     * 编码
+     * @param key 缓存key，用于选择编解码器
+     * @param value 缓存值，非null
+     * @param expireTime 逻辑过期时间，null表示不使用逻辑过期
+     */
+    public byte[] encode(String key, Object value, LocalDateTime expireTime) {
+        CacheCodec codec = codecFor(key, value.getClass());
+        byte[] payload = codec.encode(value);
+        // 超过阈值时压缩
+        byte[] compressed = compressor == null ? null : compressor.compress(key, payload);
+        Long version = versionOf(key, value);
+        if (codec.id() == JsonCacheCodec.ID && compressed == null && version == null) {
+            // 保持旧格式
+            if (expireTime == null) {
+                return payload;
+            }
+            RedisData redisData = new RedisData();
+            redisData.setData(value);
+            redisData.setExpireTime(expireTime);
+            return codec.encode(redisData);
+        }
+        int flags = (expireTime == null ? 0 : FLAG_LOGICAL_EXPIRE)
+                | (compressed == null ? 0 : FLAG_COMPRESSED)
+                | (version == null ? 0 : FLAG_VERSIONED);
+        int headerLength = HEADER_LENGTH + (expireTime == null ? 0 : 8)
+                + (version == null ? 0 : 8) + (compressed == null ? 0 : 4);
+        byte[] body = compressed == null ? payload : compressed;
+        byte[] bytes = new byte[headerLength + body.length];
+        bytes[0] = MAGIC;
+        bytes[1] = FORMAT_VERSION;
+        bytes[2] = codec.id();
+        bytes[3] = (byte) flags;
+        int offset = HEADER_LENGTH;
+        if (expireTime != null) {
+            long millis = expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            for (int i = 0; i < 8; i++) {
+                bytes[offset++] = (byte) (millis >>> (56 - 8 * i));
+            }
+        }
+        if (version != null) {
+            for (int i = 0; i < 8; i++) {
+                bytes[offset++] = (byte) (version >>> (56 - 8 * i));
+            }
+        }
+        if (compressed != null) {
+            for (int i = 0; i < 4; i++) {
+                bytes[offset++] = (byte) (payload.length >>> (24 - 8 * i));
+            }
+        }
+        System.arraycopy(body, 0, bytes, headerLength, body.length);
+        return bytes;
+    }
+
+    /**
+     * 解码
+     * @param key 缓存key，用于统计
+     * @param bytes 非空的缓存值
+     * @param type 目标类型
+     * @return data为解码结果，expireTime为逻辑过期时间（未设置时为null）
+     */
+    public <R> RedisData decode(String key, byte[] bytes, Class<R> type) {
+        if (bytes[0] != MAGIC) {
+            return decodeLegacyJson(bytes, type);
+        }
+        if (bytes[1] != FORMAT_VERSION) {
+            throw new IllegalStateException("不支持的缓存格式版本：" + bytes[1]);
+        }
+        CacheCodec codec = codecById[bytes[2]];
+        if (codec == null) {
+            throw new IllegalStateException("未注册的缓存编解码器：" + bytes[2]);
+        }
+        int flags = bytes[3];
+        int offset = HEADER_LENGTH;
+        RedisData redisData = new RedisData();
+        if ((flags & FLAG_LOGICAL_EXPIRE) != 0) {
+            long millis = readLong(bytes, offset);
+            offset += 8;
+            redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()));
+        }
+        if ((flags & FLAG_VERSIONED) != 0) {
+            offset += 8;
+        }
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            int rawLength = 0;
+            for (int i = 0; i < 4; i++) {
+                rawLength = rawLength << 8 | (bytes[offset + i] & 0xFF);
+            }
+            offset += 4;
+            // 未开启压缩的节点也要能读取压缩数据
+            CacheCompressor c = compressor == null ? DECOMPRESSOR : compressor;
+            byte[] raw = c.decompress(key, bytes, offset, bytes.length - offset, rawLength);
+            redisData.setData(codec.decode(raw, 0, raw.length, type));
+            return redisData;
+        }
+        redisData.setData(codec.decode(bytes, offset, bytes.length - offset, type));
+        return redisData;
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private <R> RedisData decodeLegacyJson(byte[] bytes, Class<R> type) {
+        String json = new String(bytes, StandardCharsets.UTF_8);
+        JSONObject obj = JSONUtil.parseObj(json);
+        // 逻辑过期的旧数据外层包了一层RedisData
+        if (obj.size() == 2 && obj.containsKey("expireTime") && obj.get("data") instanceof Map) {
+            RedisData redisData = obj.toBean(RedisData.class);
+            redisData.setData(((JSONObject) redisData.getData()).toBean(type));
+            return redisData;
+        }
+        RedisData redisData = new RedisData();
+        redisData.setData(obj.toBean(type));
+        return redisData;
+    }
+}
@@ -0,0 +1,134 @@
+package com.hmdp.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 缓存值压缩，超过阈值的值使用最快级别的deflate压缩，并按key前缀统计压缩率与耗时
+ * 压缩后不小于原值的数据不压缩
+ */
+public class CacheCompressor {
+
+    // Deflater/Inflater创建代价较高，按线程复用
+    private static final ThreadLocal<Deflater> DEFLATER =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final int threshold;
+    private final ConcurrentHashMap<String, Stats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * @param threshold 超过该字节数才压缩
+     */
+    public CacheCompressor(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * 尝试压缩
+     * @return 压缩后的数据，未达到阈值或压缩无收益时返回null
+     */
+    public byte[] compress(String key, byte[] raw) {
+        if (raw.length < threshold) {
+            return null;
+        }
+        Stats s = statsOf(key);
+        long begin = System.nanoTime();
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        byte[] buf = new byte[raw.length];
+        int length = 0;
+        while (!deflater.finished() && length < buf.length) {
+            length += deflater.deflate(buf, length, buf.length - length);
+        }
+        boolean useful = deflater.finished() && length < raw.length;
+        s.compressNanos.add(System.nanoTime() - begin);
+        if (!useful) {
+            s.skipped.increment();
+            return null;
+        }
+        s.compressed.increment();
+        s.rawBytes.add(raw.length);
+        s.compressedBytes.add(length);
+        byte[] out = new byte[length];
+        System.arraycopy(buf, 0, out, 0, length);
+        return out;
+    }
+
+    public byte[] decompress(String key, byte[] bytes, int offset, int length, int rawLength) {
+        long begin = System.nanoTime();
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(bytes, offset, length);
+        byte[] raw = new byte[rawLength];
+        try {
+            int n = 0;
+            while (n < rawLength && !inflater.finished()) {
+                int read = inflater.inflate(raw, n, rawLength - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != rawLength) {
+                throw new IllegalStateException("缓存解压长度不匹配");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("缓存解压失败", e);
+        }
+        if (key != null) {
+            Stats s = statsOf(key);
+            s.decompressed.increment();
+            s.decompressNanos.add(System.nanoTime() - begin);
+        }
+        return raw;
+    }
+
+    private Stats statsOf(String key) {
+        int index = key.lastIndexOf(':');
+        String prefix = index < 0 ? key : key.substring(0, index + 1);
+        return stats.computeIfAbsent(prefix, p -> new Stats());
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("threshold", threshold);
+        Map<String, Object> prefixes = new TreeMap<>();
+        stats.forEach((prefix, s) -> {
+            long compressed = s.compressed.sum();
+            long decompressed = s.decompressed.sum();
+            long raw = s.rawBytes.sum();
+            long attempts = compressed + s.skipped.sum();
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("compressed", compressed);
+            item.put("skipped", s.skipped.sum());
+            item.put("rawBytes", raw);
+            item.put("compressedBytes", s.compressedBytes.sum());
+            item.put("ratio", raw == 0 ? 1D : (double) s.compressedBytes.sum() / raw);
+            item.put("avgCompressMicros", attempts == 0 ? 0 : s.compressNanos.sum() / attempts / 1000);
+            item.put("decompressed", decompressed);
+            item.put("avgDecompressMicros", decompressed == 0 ? 0 : s.decompressNanos.sum() / decompressed / 1000);
+            prefixes.put(prefix, item);
+        });
+        result.put("prefixes", prefixes);
+        return result;
+    }
+
+    private static class Stats {
+        private final LongAdder compressed = new LongAdder();
+        private final LongAdder skipped = new LongAdder();
+        private final LongAdder rawBytes = new LongAdder();
+        private final LongAdder compressedBytes = new LongAdder();
+        private final LongAdder compressNanos = new LongAdder();
+        private final LongAdder decompressed = new LongAdder();
+        private final LongAdder decompressNanos = new LongAdder();
+    }
+}
@@ -0,0 +1,465 @@
+package com.hmdp.utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * 不可变的压缩位图，按高16位分块，与Roaring相同：
+ * 块内元素不超过4096个时保存为有序char数组，否则保存为65536位的long数组
+ * 稀疏的取值（如某个商圈）只占元素数两倍的字节，稠密的取值（如某个价格区间）每块固定8KB
+ */
+public class CompactBitmap {
+
+    public static final CompactBitmap EMPTY = new CompactBitmap(new char[0], new Object[0], new int[0]);
+
+    // 块内元素超过该数量时使用位图
+    private static final int ARRAY_MAX_SIZE = 4096;
+    private static final int BITMAP_WORDS = 1024;
+
+    // 各块的高16位，升序
+    private final char[] keys;
+    // char[] 或 long[]
+    private final Object[] containers;
+    private final int[] cardinalities;
+
+    private CompactBitmap(char[] keys, Object[] containers, int[] cardinalities) {
+        this.keys = keys;
+        this.containers = containers;
+        this.cardinalities = cardinalities;
+    }
+
+    /**
+     * @param values 升序且不重复的非负整数
+     * @param size 数组中的有效数据量
+     */
+    public static CompactBitmap of(int[] values, int size) {
+        Builder builder = new Builder();
+        int i = 0;
+        while (i < size) {
+            char key = (char) (values[i] >>> 16);
+            int end = i;
+            while (end < size && values[end] >>> 16 == key) {
+                end++;
+            }
+            int n = end - i;
+            if (n > ARRAY_MAX_SIZE) {
+                long[] words = new long[BITMAP_WORDS];
+                for (int j = i; j < end; j++) {
+                    int low = values[j] & 0xFFFF;
+                    words[low >>> 6] |= 1L << low;
+                }
+                builder.add(key, words, n);
+            } else {
+                char[] array = new char[n];
+                for (int j = i; j < end; j++) {
+                    array[j - i] = (char) values[j];
+                }
+                builder.add(key, array, n);
+            }
+            i = end;
+        }
+        return builder.build();
+    }
+
+    public int cardinality() {
+        int sum = 0;
+        for (int c : cardinalities) {
+            sum += c;
+        }
+        return sum;
+    }
+
+    public boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    public boolean contains(int value) {
+        int index = Arrays.binarySearch(keys, (char) (value >>> 16));
+        if (index < 0) {
+            return false;
+        }
+        Object container = containers[index];
+        int low = value & 0xFFFF;
+        if (container instanceof long[]) {
+            return (((long[]) container)[low >>> 6] & 1L << low) != 0;
+        }
+        return Arrays.binarySearch((char[]) container, (char) low) >= 0;
+    }
+
+    public CompactBitmap and(CompactBitmap other) {
+        Builder builder = new Builder();
+        int i = 0;
+        int j = 0;
+        while (i < keys.length && j < other.keys.length) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                builder.addOptimized(keys[i], and(containers[i], other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * 交集的元素数，不生成结果位图
+     */
+    public int andCardinality(CompactBitmap other) {
+        int sum = 0;
+        int i = 0;
+        int j = 0;
+        while (i < keys.length && j < other.keys.length) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                sum += andCardinality(containers[i], other.containers[j]);
+                i++;
+                j++;
+            }
+        }
+        return sum;
+    }
+
+    public CompactBitmap or(CompactBitmap other) {
+        Builder builder = new Builder();
+        int i = 0;
+        int j = 0;
+        while (i < keys.length || j < other.keys.length) {
+            if (j == other.keys.length || i < keys.length && keys[i] < other.keys[j]) {
+                builder.add(keys[i], containers[i], cardinalities[i]);
+                i++;
+            } else if (i == keys.length || keys[i] > other.keys[j]) {
+                builder.add(other.keys[j], other.containers[j], other.cardinalities[j]);
+                j++;
+            } else {
+                builder.addOptimized(keys[i], or(containers[i], other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return builder.build();
+    }
+
+    public static CompactBitmap or(List<CompactBitmap> bitmaps) {
+        CompactBitmap result = EMPTY;
+        for (CompactBitmap bitmap : bitmaps) {
+            result = result.or(bitmap);
+        }
+        return result;
+    }
+
+    /**
+     * 只保留满足条件的元素，用于区间边界上的精确过滤
+     */
+    public CompactBitmap filter(IntPredicate predicate) {
+        int[] values = new int[64];
+        int n = 0;
+        PrimitiveIterator it = iterator();
+        while (it.hasNext()) {
+            int value = it.next();
+            if (predicate.test(value)) {
+                if (n == values.length) {
+                    values = Arrays.copyOf(values, n * 2);
+                }
+                values[n++] = value;
+            }
+        }
+        return of(values, n);
+    }
+
+    /**
+     * 升序取出从第skip个开始的最多limit个元素
+     */
+    public int[] toArray(int skip, int limit) {
+        int[] values = new int[Math.max(0, Math.min(limit, cardinality() - skip))];
+        int n = 0;
+        int index = 0;
+        for (int c = 0; c < keys.length && n < values.length; c++) {
+            // 整块跳过
+            if (index + cardinalities[c] <= skip) {
+                index += cardinalities[c];
+                continue;
+            }
+            int high = keys[c] << 16;
+            Object container = containers[c];
+            if (container instanceof char[]) {
+                for (char low : (char[]) container) {
+                    if (index++ >= skip && n < values.length) {
+                        values[n++] = high | low;
+                    }
+                }
+            } else {
+                long[] words = (long[]) container;
+                for (int w = 0; w < BITMAP_WORDS && n < values.length; w++) {
+                    long word = words[w];
+                    while (word != 0 && n < values.length) {
+                        int low = w << 6 | Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                        if (index++ >= skip) {
+                            values[n++] = high | low;
+                        }
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    public PrimitiveIterator iterator() {
+        return new PrimitiveIterator();
+    }
+
+    /**
+     * 占用的字节数（估算）
+     */
+    public long sizeInBytes() {
+        long bytes = keys.length * 2L + cardinalities.length * 4L;
+        for (Object container : containers) {
+            bytes += container instanceof long[] ? BITMAP_WORDS * 8L : ((char[]) container).length * 2L;
+        }
+        return bytes;
+    }
+
+    private static Object and(Object a, Object b) {
+        if (a instanceof char[] && b instanceof char[]) {
+            char[] x = (char[]) a;
+            char[] y = (char[]) b;
+            char[] out = new char[Math.min(x.length, y.length)];
+            int n = 0;
+            int i = 0;
+            int j = 0;
+            while (i < x.length && j < y.length) {
+                if (x[i] < y[j]) {
+                    i++;
+                } else if (x[i] > y[j]) {
+                    j++;
+                } else {
+                    out[n++] = x[i];
+                    i++;
+                    j++;
+                }
+            }
+            return Arrays.copyOf(out, n);
+        }
+        if (a instanceof long[] && b instanceof long[]) {
+            long[] x = (long[]) a;
+            long[] y = (long[]) b;
+            long[] out = new long[BITMAP_WORDS];
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                out[i] = x[i] & y[i];
+            }
+            return out;
+        }
+        // 数组与位图，逐个判断数组中的元素
+        char[] array = (char[]) (a instanceof char[] ? a : b);
+        long[] words = (long[]) (a instanceof long[] ? a : b);
+        char[] out = new char[array.length];
+        int n = 0;
+        for (char low : array) {
+            if ((words[low >>> 6] & 1L << low) != 0) {
+                out[n++] = low;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int andCardinality(Object a, Object b) {
+        if (a instanceof char[] && b instanceof char[]) {
+            char[] x = (char[]) a;
+            char[] y = (char[]) b;
+            int n = 0;
+            int i = 0;
+            int j = 0;
+            while (i < x.length && j < y.length) {
+                if (x[i] < y[j]) {
+                    i++;
+                } else if (x[i] > y[j]) {
+                    j++;
+                } else {
+                    n++;
+                    i++;
+                    j++;
+                }
+            }
+            return n;
+        }
+        if (a instanceof long[] && b instanceof long[]) {
+            long[] x = (long[]) a;
+            long[] y = (long[]) b;
+            int n = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                n += Long.bitCount(x[i] & y[i]);
+            }
+            return n;
+        }
+        char[] array = (char[]) (a instanceof char[] ? a : b);
+        long[] words = (long[]) (a instanceof long[] ? a : b);
+        int n = 0;
+        for (char low : array) {
+            if ((words[low >>> 6] & 1L << low) != 0) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private static Object or(Object a, Object b) {
+        if (a instanceof char[] && b instanceof char[]) {
+            char[] x = (char[]) a;
+            char[] y = (char[]) b;
+            char[] out = new char[x.length + y.length];
+            int n = 0;
+            int i = 0;
+            int j = 0;
+            while (i < x.length || j < y.length) {
+                if (j == y.length || i < x.length && x[i] < y[j]) {
+                    out[n++] = x[i++];
+                } else if (i == x.length || x[i] > y[j]) {
+                    out[n++] = y[j++];
+                } else {
+                    out[n++] = x[i];
+                    i++;
+                    j++;
+                }
+            }
+            return Arrays.copyOf(out, n);
+        }
+        long[] out = new long[BITMAP_WORDS];
+        for (Object c : new Object[]{a, b}) {
+            if (c instanceof long[]) {
+                long[] words = (long[]) c;
+                for (int i = 0; i < BITMAP_WORDS; i++) {
+                    out[i] |= words[i];
+                }
+            } else {
+                for (char low : (char[]) c) {
+                    out[low >>> 6] |= 1L << low;
+                }
+            }
+        }
+        return out;
+    }
+
+    private static class Builder {
+        private char[] keys = new char[16];
+        private Object[] containers = new Object[16];
+        private int[] cardinalities = new int[16];
+        private int size;
+
+        void add(char key, Object container, int cardinality) {
+            if (cardinality == 0) {
+                return;
+            }
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                containers = Arrays.copyOf(containers, size * 2);
+                cardinalities = Arrays.copyOf(cardinalities, size * 2);
+            }
+            keys[size] = key;
+            containers[size] = container;
+            cardinalities[size] = cardinality;
+            size++;
+        }
+
+        // 按元素数选择数组或位图
+        void addOptimized(char key, Object container) {
+            if (container instanceof char[]) {
+                char[] array = (char[]) container;
+                if (array.length <= ARRAY_MAX_SIZE) {
+                    add(key, array, array.length);
+                    return;
+                }
+                long[] words = new long[BITMAP_WORDS];
+                for (char low : array) {
+                    words[low >>> 6] |= 1L << low;
+                }
+                add(key, words, array.length);
+                return;
+            }
+            long[] words = (long[]) container;
+            int cardinality = 0;
+            for (long word : words) {
+                cardinality += Long.bitCount(word);
+            }
+            if (cardinality > ARRAY_MAX_SIZE) {
+                add(key, words, cardinality);
+                return;
+            }
+            char[] array = new char[cardinality];
+            int n = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    array[n++] = (char) (w << 6 | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            add(key, array, cardinality);
+        }
+
+        CompactBitmap build() {
+            return new CompactBitmap(Arrays.copyOf(keys, size), Arrays.copyOf(containers, size),
+                    Arrays.copyOf(cardinalities, size));
+        }
+    }
+
+    /**
+     * 升序遍历，避免装箱
+     */
+    public class PrimitiveIterator {
+        private int container;
+        private int position;
+        private int word = -1;
+        private long bits;
+        private int next = -1;
+
+        PrimitiveIterator() {
+            advance();
+        }
+
+        public boolean hasNext() {
+            return next >= 0;
+        }
+
+        public int next() {
+            int value = next;
+            advance();
+            return value;
+        }
+
+        private void advance() {
+            while (container < keys.length) {
+                int high = keys[container] << 16;
+                Object c = containers[container];
+                if (c instanceof char[]) {
+                    char[] array = (char[]) c;
+                    if (position < array.length) {
+                        next = high | array[position++];
+                        return;
+                    }
+                } else {
+                    long[] words = (long[]) c;
+                    while (bits == 0 && word + 1 < BITMAP_WORDS) {
+                        bits = words[++word];
+                    }
+                    if (bits != 0) {
+                        next = high | word << 6 | Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+                        return;
+                    }
+                }
+                container++;
+                position = 0;
+                word = -1;
+                bits = 0;
+            }
+            next = -1;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.util.StrUtil;
+
+/**
+ * 分页游标的编解码，游标对客户端不透明，由若干字段拼接后做URL安全的Base64编码
+ */
+public class CursorUtils {
+
+    private static final String SEPARATOR = ":";
+
+    /**
+     * 编码游标
+     * @param parts 游标字段，不能包含分隔符
+     */
+    public static String encode(Object... parts) {
+        return Base64.encodeUrlSafe(StrUtil.join(SEPARATOR, parts));
+    }
+
+    /**
+     * 解码游标
+     * @param cursor 客户端传回的游标
+     * @param partCount 期望的字段数
+     * @return 游标字段，格式不正确时返回null
+     */
+    public static String[] decode(String cursor, int partCount) {
+        if (StrUtil.isBlank(cursor)) {
+            return null;
+        }
+        try {
+            String[] parts = Base64.decodeStr(cursor).split(SEPARATOR, -1);
+            return parts.length == partCount ? parts : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 解码只包含一个id的游标
+     * @return 格式不正确时返回null
+     */
+    public static Long decodeId(String cursor) {
+        String[] parts = decode(cursor, 1);
+        if (parts == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(parts[0]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.hmdp.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内地理位置索引，按经纬度网格分桶，数据保存在按网格编号排序的基本类型数组中
+ * 查询时按行二分定位网格区间，再精确计算球面距离
+ * 基础数据不可变，新增和修改先写入增量表，增量过多时合并生成新的基础数据
+ * 不处理跨越180度经线的查询
+ */
+public class GeoIndex {
+
+    private static final double EARTH_RADIUS = 6372797.560856;
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * EARTH_RADIUS;
+    // 增量表中表示已删除
+    private static final double[] REMOVED = new double[0];
+    // 增量超过基础数据的该比例时合并
+    private static final int COMPACT_RATIO = 64;
+    private static final int MIN_COMPACT_SIZE = 1024;
+
+    private final double cellDegrees;
+    private final long cols;
+
+    private volatile Snapshot snapshot;
+    // id -> {x, y}，覆盖基础数据中的同一id
+    private final ConcurrentHashMap<Long, double[]> overlay = new ConcurrentHashMap<>();
+
+    /**
+     * @param cellDegrees 网格边长（度），宜与常用查询半径同一量级，0.01度约1.1公里
+     */
+    public GeoIndex(double cellDegrees) {
+        this.cellDegrees = cellDegrees;
+        this.cols = (long) Math.ceil(360 / cellDegrees) + 1;
+        this.snapshot = build(new long[0], new double[0], new double[0], 0);
+    }
+
+    /**
+     * 全量加载，替换已有数据
+     * @param size 数组中的有效数据量
+     */
+    public synchronized void load(long[] ids, double[] xs, double[] ys, int size) {
+        snapshot = build(ids, xs, ys, size);
+        overlay.clear();
+    }
+
+    /**
+     * 新增或修改位置
+     */
+    public void put(long id, double x, double y) {
+        overlay.put(id, new double[]{x, y});
+        compactIfNeeded();
+    }
+
+    public void remove(long id) {
+        if (contains(id)) {
+            overlay.put(id, REMOVED);
+            compactIfNeeded();
+        }
+    }
+
+    public boolean contains(long id) {
+        double[] point = overlay.get(id);
+        if (point != null) {
+            return point != REMOVED;
+        }
+        return Arrays.binarySearch(snapshot.sortedIds, id) >= 0;
+    }
+
+    public int size() {
+        Snapshot s = snapshot;
+        int size = s.ids.length;
+        for (Map.Entry<Long, double[]> entry : overlay.entrySet()) {
+            boolean inBase = Arrays.binarySearch(s.sortedIds, entry.getKey()) >= 0;
+            if (entry.getValue() == REMOVED) {
+                size -= inBase ? 1 : 0;
+            } else {
+                size += inBase ? 0 : 1;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 半径查询
+     * @param x 经度
+     * @param y 纬度
+     * @param radius 半径（米）
+     * @param limit 最多返回的数量
+     * @return 按距离升序
+     */
+    public List<Hit> search(double x, double y, double radius, int limit) {
+        Snapshot s = snapshot;
+        Hits hits = new Hits();
+        double dLat = radius / METERS_PER_DEGREE;
+        double cos = Math.cos(Math.toRadians(y));
+        // 高纬度时经度范围退化为全部
+        double dLon = cos < 1e-6 ? 180 : Math.min(180, dLat / cos);
+        long row0 = row(Math.max(-90, y - dLat));
+        long row1 = row(Math.min(90, y + dLat));
+        long col0 = col(Math.max(-180, x - dLon));
+        long col1 = col(Math.min(180, x + dLon));
+        boolean hasOverlay = !overlay.isEmpty();
+        for (long row = row0; row <= row1; row++) {
+            long from = row * cols + col0;
+            long to = row * cols + col1;
+            // 同一行内相邻网格的编号连续，一次二分即可定位
+            int cell = lowerBound(s.cellKeys, from);
+            for (; cell < s.cellKeys.length && s.cellKeys[cell] <= to; cell++) {
+                for (int i = s.cellStarts[cell]; i < s.cellStarts[cell + 1]; i++) {
+                    if (hasOverlay && overlay.containsKey(s.ids[i])) {
+                        continue;
+                    }
+                    double d = distance(x, y, s.xs[i], s.ys[i]);
+                    if (d <= radius) {
+                        hits.add(s.ids[i], d);
+                    }
+                }
+            }
+        }
+        if (hasOverlay) {
+            for (Map.Entry<Long, double[]> entry : overlay.entrySet()) {
+                double[] point = entry.getValue();
+                if (point == REMOVED) {
+                    continue;
+                }
+                double d = distance(x, y, point[0], point[1]);
+                if (d <= radius) {
+                    hits.add(entry.getKey(), d);
+                }
+            }
+        }
+        return hits.sorted(limit);
+    }
+
+    /**
+     * k近邻查询，从较小半径开始倍增直到凑够k个
+     * @param maxRadius 最大搜索半径（米）
+     * @return 按距离升序，最多k个
+     */
+    public List<Hit> nearest(double x, double y, int k, double maxRadius) {
+        double radius = Math.min(maxRadius, cellDegrees * METERS_PER_DEGREE);
+        while (true) {
+            List<Hit> hits = search(x, y, radius, k);
+            // 半径内的全部点都已找到，前k个即为最近的k个
+            if (hits.size() >= k || radius >= maxRadius) {
+                return hits;
+            }
+            radius = Math.min(maxRadius, radius * 2);
+        }
+    }
+
+    private long row(double y) {
+        return (long) ((y + 90) / cellDegrees);
+    }
+
+    private long col(double x) {
+        return (long) ((x + 180) / cellDegrees);
+    }
+
+    // 与redis GEO一致的haversine距离（米）
+    static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+
+    private static int lowerBound(long[] keys, long key) {
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private boolean needsCompact() {
+        return overlay.size() > Math.max(MIN_COMPACT_SIZE, snapshot.ids.length / COMPACT_RATIO);
+    }
+
+    private void compactIfNeeded() {
+        if (needsCompact()) {
+            compact();
+        }
+    }
+
+    // 将增量合并到新的基础数据
+    private synchronized void compact() {
+        // 等待锁期间可能已被其他线程合并
+        if (!needsCompact()) {
+            return;
+        }
+        Snapshot s = snapshot;
+        Map<Long, double[]> merging = new ConcurrentHashMap<>(overlay);
+        int capacity = s.ids.length + merging.size();
+        long[] ids = new long[capacity];
+        double[] xs = new double[capacity];
+        double[] ys = new double[capacity];
+        int n = 0;
+        for (int i = 0; i < s.ids.length; i++) {
+            if (!merging.containsKey(s.ids[i])) {
+                ids[n] = s.ids[i];
+                xs[n] = s.xs[i];
+                ys[n] = s.ys[i];
+                n++;
+            }
+        }
+        for (Map.Entry<Long, double[]> entry : merging.entrySet()) {
+            double[] point = entry.getValue();
+            if (point != REMOVED) {
+                ids[n] = entry.getKey();
+                xs[n] = point[0];
+                ys[n] = point[1];
+                n++;
+            }
+        }
+        snapshot = build(ids, xs, ys, n);
+        // 先发布新数据再移除增量，期间同一id只会从增量中读到；合并期间又被修改的id保留
+        merging.forEach(overlay::remove);
+    }
+
+    private Snapshot build(long[] ids, double[] xs, double[] ys, int size) {
+        // 高位为网格编号、低位为下标，一次基本类型排序即可按网格分组
+        long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            long key = row(ys[i]) * cols + col(xs[i]);
+            order[i] = key << 32 | i;
+        }
+        Arrays.sort(order);
+        Snapshot s = new Snapshot();
+        s.ids = new long[size];
+        s.xs = new double[size];
+        s.ys = new double[size];
+        long[] cellKeys = new long[size];
+        int[] cellStarts = new int[size + 1];
+        int cells = 0;
+        long last = -1;
+        for (int i = 0; i < size; i++) {
+            long key = order[i] >>> 32;
+            int index = (int) order[i];
+            s.ids[i] = ids[index];
+            s.xs[i] = xs[index];
+            s.ys[i] = ys[index];
+            if (key != last) {
+                cellKeys[cells] = key;
+                cellStarts[cells] = i;
+                cells++;
+                last = key;
+            }
+        }
+        cellStarts[cells] = size;
+        s.cellKeys = Arrays.copyOf(cellKeys, cells);
+        s.cellStarts = Arrays.copyOf(cellStarts, cells + 1);
+        s.sortedIds = s.ids.clone();
+        Arrays.sort(s.sortedIds);
+        return s;
+    }
+
+    private static class Snapshot {
+        // 各网格的编号及其数据在数组中的起始下标，cellStarts比cellKeys多一个结束位置
+        private long[] cellKeys;
+        private int[] cellStarts;
+        private long[] ids;
+        private double[] xs;
+        private double[] ys;
+        // 用于判断id是否存在
+        private long[] sortedIds;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Hit {
+        private final long id;
+        /**
+         * 距离（米）
+         */
+        private final double distance;
+    }
+
+    // 查询结果缓冲区
+    private static class Hits {
+        private long[] ids = new long[64];
+        private double[] distances = new double[64];
+        private int size;
+
+        void add(long id, double distance) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+            ids[size] = id;
+            distances[size] = distance;
+            size++;
+        }
+
+        List<Hit> sorted(int limit) {
+            if (size == 0) {
+                return Collections.emptyList();
+            }
+            // 非负float的位模式与数值顺序一致，高位放距离、低位放下标后排序
+            long[] order = new long[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = (long) Float.floatToIntBits((float) distances[i]) << 32 | i;
+            }
+            Arrays.sort(order);
+            int n = Math.min(limit, size);
+            List<Hit> hits = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                int index = (int) order[i];
+                hits.add(new Hit(ids[index], distances[index]));
+            }
+            return hits;
+        }
+    }
+}
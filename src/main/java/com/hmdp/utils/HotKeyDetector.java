@@ -0,0 +1,151 @@
+package com.hmdp.utils;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 热点key探测：滑动窗口count-min sketch统计访问频次，超过阈值的key进入top-K候选
+ * 窗口被切分为若干个桶，每个桶一个sketch，过期的桶整体清零，统计值为所有桶之和
+ */
+public class HotKeyDetector {
+
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 4096;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final AtomicIntegerArray[] buckets;
+    private final long bucketMillis;
+    private final long threshold;
+    private final int topK;
+
+    // 当前桶对应的时间片编号
+    private volatile long currentSlot;
+    // 超过阈值的key及其估计频次
+    private final ConcurrentHashMap<String, Long> hotKeys = new ConcurrentHashMap<>();
+
+    /**
+     * @param windowMillis 滑动窗口长度
+     * @param bucketCount 窗口切分的桶数
+     * @param threshold 窗口内访问次数超过该值视为热点
+     * @param topK 最多保留的热点key数量
+     */
+    public HotKeyDetector(long windowMillis, int bucketCount, long threshold, int topK) {
+        this.buckets = new AtomicIntegerArray[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new AtomicIntegerArray(DEPTH * WIDTH);
+        }
+        this.bucketMillis = Math.max(1, windowMillis / bucketCount);
+        this.threshold = threshold;
+        this.topK = topK;
+        this.currentSlot = System.currentTimeMillis() / bucketMillis;
+    }
+
+    /**
+     * 记录一次访问
+     * @return 该key当前是否为热点
+     */
+    public boolean record(String key) {
+        long slot = System.currentTimeMillis() / bucketMillis;
+        if (slot != currentSlot) {
+            rotate(slot);
+        }
+        AtomicIntegerArray bucket = buckets[(int) (slot % buckets.length)];
+        int h = key.hashCode();
+        for (int i = 0; i < DEPTH; i++) {
+            bucket.incrementAndGet(i * WIDTH + index(h, i));
+        }
+        long estimate = estimate(h);
+        if (estimate < threshold) {
+            return false;
+        }
+        hotKeys.put(key, estimate);
+        if (hotKeys.size() > topK * 2) {
+            prune();
+        }
+        return hotKeys.containsKey(key);
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * 当前热点key，按频次降序
+     */
+    public List<Map<String, Object>> hotKeys() {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(hotKeys.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        List<Map<String, Object>> list = new ArrayList<>(entries.size());
+        for (Map.Entry<String, Long> entry : entries) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("key", entry.getKey());
+            item.put("count", entry.getValue());
+            list.add(item);
+        }
+        return list;
+    }
+
+    private long estimate(int h) {
+        long sum = 0;
+        for (AtomicIntegerArray bucket : buckets) {
+            int min = Integer.MAX_VALUE;
+            for (int i = 0; i < DEPTH; i++) {
+                min = Math.min(min, bucket.get(i * WIDTH + index(h, i)));
+            }
+            sum += min;
+        }
+        return sum;
+    }
+
+    private static int index(int h, int row) {
+        int x = h * SEEDS[row];
+        x ^= x >>> 16;
+        return x & (WIDTH - 1);
+    }
+
+    // 进入新的时间片，清空已滑出窗口的桶，并重新评估热点key
+    private synchronized void rotate(long slot) {
+        long old = currentSlot;
+        if (slot <= old) {
+            return;
+        }
+        long steps = Math.min(slot - old, buckets.length);
+        for (long s = 1; s <= steps; s++) {
+            AtomicIntegerArray bucket = buckets[(int) ((old + s) % buckets.length)];
+            for (int i = 0; i < bucket.length(); i++) {
+                bucket.set(i, 0);
+            }
+        }
+        currentSlot = slot;
+        hotKeys.replaceAll((k, v) -> estimate(k.hashCode()));
+        hotKeys.values().removeIf(v -> v < threshold);
+    }
+
+    // 只保留频次最高的topK个key
+    private synchronized void prune() {
+        if (hotKeys.size() <= topK) {
+            return;
+        }
+        PriorityQueue<Map.Entry<String, Long>> heap =
+                new PriorityQueue<>(topK + 1, Comparator.comparingLong(Map.Entry::getValue));
+        for (Map.Entry<String, Long> entry : hotKeys.entrySet()) {
+            heap.offer(new AbstractMap.SimpleEntry<>(entry));
+            if (heap.size() > topK) {
+                heap.poll();
+            }
+        }
+        Map<String, Long> keep = new HashMap<>();
+        for (Map.Entry<String, Long> entry : heap) {
+            keep.put(entry.getKey(), entry.getValue());
+        }
+        hotKeys.keySet().retainAll(keep.keySet());
+    }
+}
@@ -0,0 +1,154 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 某张表主键id的进程内布隆过滤器，用于在访问redis和数据库前拦截不存在的id，应对缓存穿透
+ * 启动时及定期从数据库全量重建，新增数据时增量写入并通过pub/sub广播给其他节点
+ * 未构建完成前放行所有请求
+ */
+@Slf4j
+public class IdBloomFilter {
+
+    private static final int LOAD_BATCH_SIZE = 10000;
+
+    private final String name;
+    private final double fpp;
+    private final long expectedInsertions;
+    // 按id升序分批加载，参数为上一批最大的id
+    private final Function<Long, List<Long>> idLoader;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private volatile LongBloomFilter filter;
+    // 重建期间新增的id同时写入新过滤器，避免切换后丢失
+    private volatile LongBloomFilter building;
+    private volatile long loadedCount;
+    private volatile long lastRebuildTime;
+
+    private final LongAdder checks = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    /**
+     * @param name 过滤器名称，用于广播和统计，如shop
+     * @param fpp 期望误判率
+     * @param expectedInsertions 预计数据量，实际数据量更大时按实际数据量的两倍分配
+     * @param idLoader 分批加载id
+     */
+    public IdBloomFilter(String name, double fpp, long expectedInsertions,
+                         Function<Long, List<Long>> idLoader, StringRedisTemplate stringRedisTemplate) {
+        this.name = name;
+        this.fpp = fpp;
+        this.expectedInsertions = expectedInsertions;
+        this.idLoader = idLoader;
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 判断id是否可能存在，返回false时一定不存在
+     */
+    public boolean mightContain(Long id) {
+        LongBloomFilter current = filter;
+        if (current == null || id == null) {
+            return true;
+        }
+        checks.increment();
+        if (current.mightContain(id)) {
+            return true;
+        }
+        rejections.increment();
+        return false;
+    }
+
+    /**
+     * 新增数据后调用，写入本地并广播给其他节点
+     */
+    public void add(Long id) {
+        putLocal(id);
+        stringRedisTemplate.convertAndSend(RedisConstants.BLOOM_ADD_CHANNEL, name + ":" + id);
+    }
+
+    /**
+     * 处理其他节点的新增广播
+     */
+    public void putLocal(Long id) {
+        LongBloomFilter current = filter;
+        if (current != null) {
+            current.put(id);
+        }
+        LongBloomFilter next = building;
+        if (next != null) {
+            next.put(id);
+        }
+    }
+
+    /**
+     * 从数据库全量重建并原子替换
+     */
+    public synchronized void rebuild() {
+        long begin = System.currentTimeMillis();
+        long size = Math.max(expectedInsertions, loadedCount * 2);
+        LongBloomFilter next = new LongBloomFilter(size, fpp);
+        building = next;
+        try {
+            long count = 0;
+            Long lastId = 0L;
+            while (true) {
+                List<Long> ids = idLoader.apply(lastId);
+                for (Long id : ids) {
+                    next.put(id);
+                }
+                count += ids.size();
+                if (ids.size() < LOAD_BATCH_SIZE) {
+                    break;
+                }
+                lastId = ids.get(ids.size() - 1);
+            }
+            // 数据量超出预期太多时误判率会上升，按实际数量重新分配
+            if (count > size) {
+                loadedCount = count;
+                building = null;
+                rebuild();
+                return;
+            }
+            filter = next;
+            loadedCount = count;
+            lastRebuildTime = System.currentTimeMillis();
+            log.info("布隆过滤器[{}]重建完成，数量：{}，内存：{}字节，耗时：{}ms",
+                    name, count, next.memoryBytes(), lastRebuildTime - begin);
+        } finally {
+            if (building == next) {
+                building = null;
+            }
+        }
+    }
+
+    public static int loadBatchSize() {
+        return LOAD_BATCH_SIZE;
+    }
+
+    public Map<String, Object> stats() {
+        LongBloomFilter current = filter;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", current != null);
+        stats.put("fpp", fpp);
+        stats.put("loadedCount", loadedCount);
+        stats.put("bitSize", current == null ? 0 : current.bitSize());
+        stats.put("hashCount", current == null ? 0 : current.hashCount());
+        stats.put("memoryBytes", current == null ? 0 : current.memoryBytes());
+        stats.put("checks", checks.sum());
+        stats.put("rejections", rejections.sum());
+        stats.put("lastRebuildTime", lastRebuildTime);
+        return stats;
+    }
+}
@@ -0,0 +1,33 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 基于hutool的JSON编解码器，与原有缓存格式一致
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+    public static final byte ID = 0;
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public boolean supports(Class<?> type) {
+        return true;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, int offset, int length, Class<R> type) {
+        return JSONUtil.toBean(new String(bytes, offset, length, StandardCharsets.UTF_8), type);
+    }
+}
@@ -0,0 +1,105 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.impl.LRUCache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 进程内一级缓存，位于Redis之前
+ * 按容量LRU淘汰，同时设置较短的存活时间兜底跨节点失效消息丢失的情况
+ */
+public class LocalCache {
+
+    private final LRUCache<String, Entry> cache;
+
+    // 命中统计
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    // 命中时数据的存活时长（毫秒），用于观察陈旧程度
+    private final LongAdder hitAgeSum = new LongAdder();
+    private final LongAccumulator hitAgeMax = new LongAccumulator(Math::max, 0);
+    // 失效消息从发布到本节点处理的延迟（毫秒）
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder invalidateLagSum = new LongAdder();
+    private final LongAccumulator invalidateLagMax = new LongAccumulator(Math::max, 0);
+
+    public LocalCache(int capacity, long ttlMillis) {
+        this.cache = new LRUCache<>(capacity, ttlMillis);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <R> R get(String key) {
+        // 不刷新访问时间，保证数据最多存活ttl
+        Entry entry = cache.get(key, false);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        long age = System.currentTimeMillis() - entry.loadTime;
+        hitAgeSum.add(age);
+        hitAgeMax.accumulate(age);
+        return (R) entry.value;
+    }
+
+    /**
+     * 读取但不计入命中统计
+     */
+    @SuppressWarnings("unchecked")
+    public <R> R peek(String key) {
+        Entry entry = cache.get(key, false);
+        return entry == null ? null : (R) entry.value;
+    }
+
+    public void put(String key, Object value) {
+        cache.put(key, new Entry(value, System.currentTimeMillis()));
+    }
+
+    public void invalidate(String key) {
+        cache.remove(key);
+    }
+
+    /**
+     * 处理来自其他节点（或本节点）的失效消息
+     * @param key 缓存key
+     * @param publishTime 消息发布时间
+     */
+    public void invalidate(String key, long publishTime) {
+        cache.remove(key);
+        invalidations.increment();
+        long lag = Math.max(0, System.currentTimeMillis() - publishTime);
+        invalidateLagSum.add(lag);
+        invalidateLagMax.accumulate(lag);
+    }
+
+    public Map<String, Object> stats() {
+        long h = hits.sum();
+        long m = misses.sum();
+        long inv = invalidations.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", cache.size());
+        stats.put("capacity", cache.capacity());
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hitRatio", h + m == 0 ? 0D : (double) h / (h + m));
+        stats.put("avgHitAgeMillis", h == 0 ? 0L : hitAgeSum.sum() / h);
+        stats.put("maxHitAgeMillis", hitAgeMax.get());
+        stats.put("invalidations", inv);
+        stats.put("avgInvalidateLagMillis", inv == 0 ? 0L : invalidateLagSum.sum() / inv);
+        stats.put("maxInvalidateLagMillis", invalidateLagMax.get());
+        return stats;
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long loadTime;
+
+        private Entry(Object value, long loadTime) {
+            this.value = value;
+            this.loadTime = loadTime;
+        }
+    }
+}
@@ -0,0 +1,463 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内名称倒排索引，以相邻两个字符（二元组）为词项，适合不分词的中文名称
+ * 倒排表为按文档编号升序的int数组，查询时对各词项的倒排表求交集，再校验名称确实包含查询串，结果与LIKE '%name%'一致
+ * 结果按匹配位置、名称多出的长度、id排序，完全相同的名称排在最前
+ * 倒排表同时保存词项在名称中首次出现的位置，一两个字符的查询只有一个词项，无需读取名称即可排序
+ * 基础数据不可变，新增和修改先写入增量表，增量过多时合并生成新的基础数据
+ */
+public class NameIndex {
+
+    // 增量表中表示已删除
+    private static final String REMOVED = new String("");
+    // 增量超过基础数据的该比例时合并
+    private static final int COMPACT_RATIO = 64;
+    private static final int MIN_COMPACT_SIZE = 1024;
+    // 排序用的位置和长度的上限
+    private static final int MAX_RANK_VALUE = 0xFF;
+
+    private volatile Snapshot snapshot = build(new long[0], new String[0], 0);
+    // id -> 规范化后的名称，覆盖基础数据中的同一id
+    private final ConcurrentHashMap<Long, String> overlay = new ConcurrentHashMap<>();
+
+    /**
+     * 全量加载，替换已有数据
+     * @param ids 按id升序
+     * @param size 数组中的有效数据量
+     */
+    public synchronized void load(long[] ids, String[] names, int size) {
+        String[] normalized = new String[size];
+        for (int i = 0; i < size; i++) {
+            normalized[i] = normalize(names[i]);
+        }
+        snapshot = build(ids, normalized, size);
+        overlay.clear();
+    }
+
+    /**
+     * 新增或修改名称
+     */
+    public void put(long id, String name) {
+        overlay.put(id, normalize(name));
+        compactIfNeeded();
+    }
+
+    public void remove(long id) {
+        if (contains(id)) {
+            overlay.put(id, REMOVED);
+            compactIfNeeded();
+        }
+    }
+
+    public boolean contains(long id) {
+        String name = overlay.get(id);
+        if (name != null) {
+            return name != REMOVED;
+        }
+        return Arrays.binarySearch(snapshot.ids, id) >= 0;
+    }
+
+    public int size() {
+        Snapshot s = snapshot;
+        int size = s.ids.length;
+        for (Map.Entry<Long, String> entry : overlay.entrySet()) {
+            boolean inBase = Arrays.binarySearch(s.ids, entry.getKey()) >= 0;
+            if (entry.getValue() == REMOVED) {
+                size -= inBase ? 1 : 0;
+            } else {
+                size += inBase ? 0 : 1;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 查询名称包含keyword的id
+     * @param limit 最多返回的数量
+     * @return 按相关度排序
+     */
+    public List<Long> search(String keyword, int limit) {
+        String query = normalize(keyword);
+        if (query.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        Snapshot s = snapshot;
+        TopK top = new TopK(limit);
+        boolean hasOverlay = !overlay.isEmpty();
+        if (query.length() <= 2) {
+            // 只有一个词项，倒排表中的文档都包含查询串
+            int term = Arrays.binarySearch(s.terms, terms(query)[0]);
+            if (term >= 0) {
+                int[] posting = s.postings[term];
+                byte[] positions = s.positions[term];
+                for (int i = 0; i < posting.length; i++) {
+                    long id = s.ids[posting[i]];
+                    if (hasOverlay && overlay.containsKey(id)) {
+                        continue;
+                    }
+                    top.offer(id, rank(positions[i] & 0xFF, (s.lengths[posting[i]] & 0xFF) - query.length()));
+                }
+            }
+        } else {
+            for (int doc : candidates(s, query)) {
+                long id = s.ids[doc];
+                if (hasOverlay && overlay.containsKey(id)) {
+                    continue;
+                }
+                offer(top, id, s.names[doc], query);
+            }
+        }
+        if (hasOverlay) {
+            for (Map.Entry<Long, String> entry : overlay.entrySet()) {
+                if (entry.getValue() != REMOVED) {
+                    offer(top, entry.getKey(), entry.getValue(), query);
+                }
+            }
+        }
+        return top.sorted();
+    }
+
+    // 校验名称包含查询串后计入结果
+    private static void offer(TopK top, long id, String name, String query) {
+        int pos = name.indexOf(query);
+        if (pos >= 0) {
+            top.offer(id, rank(Math.min(pos, MAX_RANK_VALUE),
+                    Math.min(name.length(), MAX_RANK_VALUE) - query.length()));
+        }
+    }
+
+    // 匹配位置越靠前、名称多出的长度越短越相关
+    private static long rank(int pos, int extra) {
+        return (long) pos << 48 | (long) Math.max(extra, 0) << 32;
+    }
+
+    // 词项在名称中首次出现的位置
+    private static int firstPosition(String name, int key) {
+        if (key >= 0 && key <= Character.MAX_VALUE) {
+            return name.indexOf(key);
+        }
+        char first = (char) (key >>> 16);
+        char second = (char) key;
+        for (int i = 0; i + 1 < name.length(); i++) {
+            if (name.charAt(i) == first && name.charAt(i + 1) == second) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // 各词项倒排表的交集，只保证包含全部二元组，仍需校验
+    private static int[] candidates(Snapshot s, String query) {
+        int[] keys = terms(query);
+        int[][] lists = new int[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            int term = Arrays.binarySearch(s.terms, keys[i]);
+            if (term < 0) {
+                return new int[0];
+            }
+            lists[i] = s.postings[term];
+        }
+        // 从最短的倒排表开始求交集
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.length, b.length));
+        int[] result = lists[0];
+        for (int i = 1; i < lists.length && result.length > 0; i++) {
+            result = intersect(result, lists[i]);
+        }
+        return result;
+    }
+
+    // 短表逐个在长表中二分（跳跃查找），长表只向前推进
+    private static int[] intersect(int[] small, int[] large) {
+        int[] out = new int[small.length];
+        int n = 0;
+        int from = 0;
+        for (int doc : small) {
+            // 倍增找到第一个不小于doc的位置所在的区间
+            int lo = from;
+            int hi = from;
+            int step = 1;
+            while (hi < large.length && large[hi] < doc) {
+                lo = hi + 1;
+                hi += step;
+                step <<= 1;
+            }
+            int index = Arrays.binarySearch(large, lo, Math.min(hi + 1, large.length), doc);
+            if (index >= 0) {
+                out[n++] = doc;
+                from = index + 1;
+            } else {
+                from = -index - 1;
+            }
+            if (from >= large.length) {
+                break;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * 名称的词项：单个字符的查询用一元组，其余用二元组
+     * 一元组的值为字符本身，二元组为两个字符拼接，规范化后不含空白字符，两者不会冲突
+     */
+    private static int[] terms(String query) {
+        if (query.length() == 1) {
+            return new int[]{query.charAt(0)};
+        }
+        int[] keys = new int[query.length() - 1];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = bigram(query, i);
+        }
+        return distinct(keys, keys.length);
+    }
+
+    private static int bigram(String s, int i) {
+        return s.charAt(i) << 16 | s.charAt(i + 1);
+    }
+
+    private static int[] distinct(int[] keys, int size) {
+        Arrays.sort(keys, 0, size);
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (n == 0 || keys[i] != keys[n - 1]) {
+                keys[n++] = keys[i];
+            }
+        }
+        return Arrays.copyOf(keys, n);
+    }
+
+    // 忽略大小写和空白字符，与数据库的排序规则保持一致
+    static String normalize(String name) {
+        if (name == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!Character.isWhitespace(c) && !Character.isISOControl(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    private boolean needsCompact() {
+        return overlay.size() > Math.max(MIN_COMPACT_SIZE, snapshot.ids.length / COMPACT_RATIO);
+    }
+
+    private void compactIfNeeded() {
+        if (needsCompact()) {
+            compact();
+        }
+    }
+
+    // 将增量合并到新的基础数据
+    private synchronized void compact() {
+        // 等待锁期间可能已被其他线程合并
+        if (!needsCompact()) {
+            return;
+        }
+        Snapshot s = snapshot;
+        Map<Long, String> merging = new ConcurrentHashMap<>(overlay);
+        // 按id归并基础数据和增量，保持id升序
+        long[] added = merging.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+        int capacity = s.ids.length + added.length;
+        long[] ids = new long[capacity];
+        String[] names = new String[capacity];
+        int n = 0;
+        int j = 0;
+        for (int i = 0; i <= s.ids.length; i++) {
+            long id = i < s.ids.length ? s.ids[i] : Long.MAX_VALUE;
+            for (; j < added.length && added[j] <= id; j++) {
+                String name = merging.get(added[j]);
+                if (name != REMOVED) {
+                    ids[n] = added[j];
+                    names[n] = name;
+                    n++;
+                }
+            }
+            if (i < s.ids.length && !merging.containsKey(id)) {
+                ids[n] = id;
+                names[n] = s.names[i];
+                n++;
+            }
+        }
+        snapshot = build(ids, names, n);
+        // 先发布新数据再移除增量，合并期间又被修改的id保留
+        merging.forEach(overlay::remove);
+    }
+
+    private static Snapshot build(long[] ids, String[] names, int size) {
+        // 高位为词项、低位为文档编号，一次基本类型排序即可得到全部倒排表
+        long[] pairs = new long[64];
+        int count = 0;
+        int[] buffer = new int[64];
+        for (int doc = 0; doc < size; doc++) {
+            String name = names[doc];
+            if (buffer.length < name.length() * 2) {
+                buffer = new int[name.length() * 2];
+            }
+            int n = 0;
+            for (int i = 0; i < name.length(); i++) {
+                buffer[n++] = name.charAt(i);
+                if (i + 1 < name.length()) {
+                    buffer[n++] = bigram(name, i);
+                }
+            }
+            int[] keys = distinct(buffer, n);
+            if (pairs.length < count + keys.length) {
+                pairs = Arrays.copyOf(pairs, Math.max(pairs.length * 2, count + keys.length));
+            }
+            for (int key : keys) {
+                pairs[count++] = (long) key << 32 | doc;
+            }
+        }
+        Arrays.sort(pairs, 0, count);
+        int[] terms = new int[count];
+        int[] starts = new int[count + 1];
+        int termCount = 0;
+        for (int i = 0; i < count; i++) {
+            int key = (int) (pairs[i] >> 32);
+            if (termCount == 0 || terms[termCount - 1] != key) {
+                terms[termCount] = key;
+                starts[termCount] = i;
+                termCount++;
+            }
+        }
+        starts[termCount] = count;
+        Snapshot s = new Snapshot();
+        s.ids = Arrays.copyOf(ids, size);
+        s.names = Arrays.copyOf(names, size);
+        s.lengths = new byte[size];
+        for (int doc = 0; doc < size; doc++) {
+            s.lengths[doc] = (byte) Math.min(names[doc].length(), MAX_RANK_VALUE);
+        }
+        s.terms = Arrays.copyOf(terms, termCount);
+        s.postings = new int[termCount][];
+        s.positions = new byte[termCount][];
+        for (int t = 0; t < termCount; t++) {
+            int[] posting = new int[starts[t + 1] - starts[t]];
+            byte[] positions = new byte[posting.length];
+            for (int i = 0; i < posting.length; i++) {
+                posting[i] = (int) pairs[starts[t] + i];
+                positions[i] = (byte) Math.min(firstPosition(names[posting[i]], terms[t]), MAX_RANK_VALUE);
+            }
+            s.postings[t] = posting;
+            s.positions[t] = positions;
+        }
+        return s;
+    }
+
+    private static class Snapshot {
+        // 文档编号即下标，id升序
+        private long[] ids;
+        private String[] names;
+        // 名称长度，超过上限的按上限保存
+        private byte[] lengths;
+        // 词项升序，与倒排表一一对应
+        private int[] terms;
+        private int[][] postings;
+        // 与倒排表一一对应，词项在名称中首次出现的位置
+        private byte[][] positions;
+    }
+
+    // 保留相关度最高的limit个结果，大顶堆，堆顶为当前最差的结果
+    private static class TopK {
+        private final int limit;
+        private long[] ranks;
+        private long[] ids;
+        private int size;
+
+        TopK(int limit) {
+            this.limit = limit;
+            this.ranks = new long[Math.min(limit, 64)];
+            this.ids = new long[ranks.length];
+        }
+
+        // 相关度相同时id小的在前
+        void offer(long id, long rank) {
+            if (size == limit) {
+                if (compare(rank, id, 0) >= 0) {
+                    return;
+                }
+                ranks[0] = rank;
+                ids[0] = id;
+                siftDown(0);
+                return;
+            }
+            if (size == ranks.length) {
+                int capacity = (int) Math.min(limit, size * 2L);
+                ranks = Arrays.copyOf(ranks, capacity);
+                ids = Arrays.copyOf(ids, capacity);
+            }
+            ranks[size] = rank;
+            ids[size] = id;
+            siftUp(size++);
+        }
+
+        // 堆排序，依次把堆顶换到末尾
+        List<Long> sorted() {
+            int n = size;
+            while (size > 1) {
+                swap(0, --size);
+                siftDown(0);
+            }
+            List<Long> result = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                result.add(ids[i]);
+            }
+            return result;
+        }
+
+        private int compare(long rank, long id, int i) {
+            int c = Long.compare(rank, ranks[i]);
+            return c != 0 ? c : Long.compare(id, ids[i]);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (compare(ranks[i], ids[i], parent) <= 0) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int largest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && compare(ranks[left], ids[left], largest) > 0) {
+                    largest = left;
+                }
+                if (right < size && compare(ranks[right], ids[right], largest) > 0) {
+                    largest = right;
+                }
+                if (largest == i) {
+                    return;
+                }
+                swap(i, largest);
+                i = largest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            long rank = ranks[a];
+            ranks[a] = ranks[b];
+            ranks[b] = rank;
+            long id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+        }
+    }
+}
@@ -13,13 +13,47 @@ public class RedisConstants {
 
     public static final Long CACHE_SHOP_TYPE_TTL = 30L;
     public static final String CACHE_SHOP_TYPE_KEY = "cache:shoptype:";
+    public static final String CACHE_SHOP_TYPE_VERSION_KEY = "cache:shoptype:version";
+
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long LOCK_USER_TTL = 5L;
+
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+
+    public static final String BLOOM_ADD_CHANNEL = "bloom:add";
+
+    public static final String GEO_UPDATE_CHANNEL = "geo:update";
+
+    public static final String SHOP_NAME_UPDATE_CHANNEL = "shop:name:update";
+
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:sold-out";
+
+    public static final String SHOP_FACET_VERSION_KEY = "facet:shop:version";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_SHARDS_KEY = "seckill:shards:";
+    public static final String SECKILL_STREAM_KEY = "stream.orders";
+    public static final String SECKILL_DEAD_LETTER_KEY = "stream.orders.dead";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_GEO_TMP_KEY = "shop:geo-tmp:";
+    public static final String SHOP_GEO_TYPES_KEY = "shop:geo-types";
+    public static final String SHOP_GEO_READY_KEY = "shop:geo-ready";
+    public static final String SHOP_GEO_LOADING_KEY = "shop:geo-loading";
+    public static final String LOCK_SHOP_GEO_KEY = "lock:shop:geo";
+    public static final String SHOP_RANK_KEY = "shop:rank:";
+    public static final String SHOP_RANK_TMP_KEY = "shop:rank-tmp:";
+    public static final String SHOP_RANK_TYPES_KEY = "shop:rank-types";
+    public static final String SHOP_RANK_READY_KEY = "shop:rank-ready";
+    public static final String SHOP_RANK_REBUILDING_KEY = "shop:rank-rebuilding";
+    public static final String LOCK_SHOP_RANK_KEY = "lock:shop:rank";
+    public static final String SHOP_GEO_CURSOR_KEY = "shop:geo:cursor:";
+    public static final Long SHOP_GEO_CURSOR_TTL = 10L;
     public static final String USER_SIGN_KEY = "sign:";
 }
@@ -0,0 +1,386 @@
+package com.hmdp.utils;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 秒杀库存，拆分为多个分片分散热点key，每个分片有各自的下单用户集合
+ * 用户按id哈希固定到一个分片，一人一单在该分片判断；分片库存不足时依次到其他分片扣减
+ * 分片的库存key、用户集合key和订单消息队列使用相同的hash tag {秒杀券id:分片}，集群模式下位于同一个slot，
+ * 脚本只访问一个slot；不同分片分布在不同slot，订单消息写入扣减库存的分片的stream，分散到各分片
+ * 分片的stream登记在 streamKey.shards 集合中，消费者定期读取并分配；秒杀结束且消息都已确认后移出集合
+ * 未分片的旧秒杀券仍写入streamKey，可按用户id哈希分区，集群模式下不保证位于同一slot
+ * 下单资格在用户所在分片占用后才到其他分片扣减，各分片位于不同slot，无法在一个脚本中完成：
+ * 借库存失败或redis异常时在finally中释放下单资格；只有进程在两步之间退出时下单资格不释放，
+ * 该用户不能再次下单但不会超卖，可对照订单表删除没有订单的用户
+ * 售罄后在本地标记并广播到各节点，之后的请求直接在本地拒绝，补充库存时清除
+ */
+public class SeckillStock {
+
+    /**
+     * 下单结果，与脚本返回值一致
+     */
+    public static final int OK = 0;
+    public static final int SOLD_OUT = 1;
+    public static final int DUPLICATE = 2;
+    private static final int SHARD_EMPTY = 3;
+
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<Long> SECKILL_SHARD_SCRIPT;
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+        SECKILL_SHARD_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SHARD_SCRIPT.setLocation(new ClassPathResource("seckill_shard.lua"));
+        SECKILL_SHARD_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    // 新建秒杀券的分片数
+    private final int shards;
+    private final String streamKey;
+    // 各分片stream的登记集合
+    private final String shardStreamsKey;
+    // 未分片的旧秒杀券的订单消息队列分区数，为1时不分区
+    private final int streamPartitions;
+    // 售罄标记的有效期，兜底补充库存的广播丢失
+    private final long soldOutTtlMillis;
+
+    // 秒杀券的分片数，创建后不变；未分片的旧秒杀券不缓存，每次查询
+    private final Map<Long, Integer> shardCounts = new ConcurrentHashMap<>();
+    // 已售罄的秒杀券及标记的过期时间
+    private final Map<Long, Long> soldOutUntil = new ConcurrentHashMap<>();
+
+    private final LongAdder orders = new LongAdder();
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder soldOuts = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder localRejects = new LongAdder();
+    private final LongAdder retired = new LongAdder();
+
+    /**
+     * @param shards 新建秒杀券的分片数，不超过库存
+     * @param streamKey 订单消息队列，也是各分片stream和分区的前缀
+     * @param streamPartitions 未分片的旧秒杀券的订单消息队列分区数
+     * @param soldOutTtlSeconds 本地售罄标记的有效期，过期后重新到redis判断
+     */
+    public SeckillStock(StringRedisTemplate stringRedisTemplate, int shards, String streamKey, int streamPartitions,
+                        long soldOutTtlSeconds) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.shards = Math.max(1, shards);
+        this.streamKey = streamKey;
+        this.shardStreamsKey = streamKey + ".shards";
+        this.streamPartitions = Math.max(1, streamPartitions);
+        this.soldOutTtlMillis = soldOutTtlSeconds * 1000;
+    }
+
+    /**
+     * 分片库存key，shardCount为0表示未分片的旧秒杀券
+     */
+    public static String stockKey(Long voucherId, int shardCount, int shard) {
+        return shardCount == 0 ? RedisConstants.SECKILL_STOCK_KEY + voucherId
+                : RedisConstants.SECKILL_STOCK_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    public static String orderKey(Long voucherId, int shardCount, int shard) {
+        return shardCount == 0 ? RedisConstants.SECKILL_ORDER_KEY + voucherId
+                : RedisConstants.SECKILL_ORDER_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    /**
+     * 分片的订单消息所在的stream，与分片库存使用相同的hash tag：streamKey:{秒杀券id:分片}
+     */
+    public String streamKey(Long voucherId, int shard) {
+        return streamKey + ":{" + voucherId + ":" + shard + "}";
+    }
+
+    /**
+     * 未分片的旧秒杀券的订单消息所在的stream，不分区时为streamKey，否则为 streamKey:分区号
+     */
+    public String streamKey(Long userId) {
+        return streamPartitions == 1 ? streamKey
+                : streamKey + ":" + Math.floorMod(Long.hashCode(userId), streamPartitions);
+    }
+
+    /**
+     * 全部stream：旧秒杀券的各分区，以及已登记的各分片stream，按名称排序保证各节点分配一致
+     */
+    public List<String> streamKeys() {
+        List<String> keys = new ArrayList<>();
+        if (streamPartitions == 1) {
+            keys.add(streamKey);
+        } else {
+            for (int i = 0; i < streamPartitions; i++) {
+                keys.add(streamKey + ":" + i);
+            }
+        }
+        Set<String> shardStreams = stringRedisTemplate.opsForSet().members(shardStreamsKey);
+        if (shardStreams != null) {
+            List<String> sorted = new ArrayList<>(shardStreams);
+            Collections.sort(sorted);
+            keys.addAll(sorted);
+        }
+        return keys;
+    }
+
+    /**
+     * 已登记分片stream的秒杀券
+     */
+    public Set<Long> shardedVouchers() {
+        Set<Long> voucherIds = new TreeSet<>();
+        Set<String> shardStreams = stringRedisTemplate.opsForSet().members(shardStreamsKey);
+        if (shardStreams == null) {
+            return voucherIds;
+        }
+        // streamKey:{秒杀券id:分片}
+        String prefix = streamKey + ":{";
+        for (String shardStream : shardStreams) {
+            if (shardStream.startsWith(prefix)) {
+                voucherIds.add(Long.valueOf(shardStream.substring(prefix.length(), shardStream.lastIndexOf(':'))));
+            }
+        }
+        return voucherIds;
+    }
+
+    /**
+     * 秒杀结束后退役各分片的stream：先清空redis中的分片库存，之后不再有新的订单消息，
+     * 各分片stream的消息都已被所有消费者组读取且确认后移出登记集合，消费者下次更新分配时不再读取
+     * stream保留keep后过期，期间尚未更新分配的消费者仍可读取
+     * @return 是否已全部退役，有未处理的消息时返回false，下次再检查
+     */
+    public boolean retireStreams(Long voucherId, Duration keep) {
+        int shardCount = shardCount(voucherId);
+        if (shardCount == 0) {
+            return true;
+        }
+        List<String> keys = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            keys.add(stockKey(voucherId, shardCount, i));
+        }
+        stringRedisTemplate.delete(keys);
+        for (int i = 0; i < shardCount; i++) {
+            if (!isDrained(streamKey(voucherId, i))) {
+                return false;
+            }
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < shardCount; i++) {
+                connection.setCommands().sRem(bytes(shardStreamsKey), bytes(streamKey(voucherId, i)));
+                connection.keyCommands().pExpire(bytes(streamKey(voucherId, i)), keep.toMillis());
+            }
+            return null;
+        });
+        retired.increment();
+        return true;
+    }
+
+    // 各消费者组都已读到最后一条消息，且没有未确认的消息
+    private boolean isDrained(String stream) {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(stream))) {
+            return true;
+        }
+        StreamInfo.XInfoStream info = stringRedisTemplate.opsForStream().info(stream);
+        StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(stream);
+        if (groups.isEmpty()) {
+            return info.streamLength() == 0;
+        }
+        return groups.stream().allMatch(group ->
+                group.pendingCount() == 0 && info.lastGeneratedId().equals(group.lastDeliveredId()));
+    }
+
+    /**
+     * 新建秒杀券时将库存平均拆分到各分片，并登记各分片的stream
+     */
+    public void init(Long voucherId, int stock) {
+        int n = Math.max(1, Math.min(shards, stock));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < n; i++) {
+                int shardStock = stock / n + (i < stock % n ? 1 : 0);
+                connection.stringCommands().set(bytes(stockKey(voucherId, n, i)), bytes(String.valueOf(shardStock)));
+                connection.setCommands().sAdd(bytes(shardStreamsKey), bytes(streamKey(voucherId, i)));
+            }
+            connection.stringCommands().set(bytes(RedisConstants.SECKILL_SHARDS_KEY + voucherId), bytes(String.valueOf(n)));
+            return null;
+        });
+        shardCounts.put(voucherId, n);
+    }
+
+    /**
+     * 补充库存，平均加到各分片，并清除各节点的售罄标记
+     */
+    public void restock(Long voucherId, int amount) {
+        int shardCount = shardCount(voucherId);
+        int n = Math.max(1, shardCount);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < n; i++) {
+                int shardAmount = amount / n + (i < amount % n ? 1 : 0);
+                if (shardAmount > 0) {
+                    connection.stringCommands().incrBy(bytes(stockKey(voucherId, shardCount, i)), shardAmount);
+                }
+            }
+            return null;
+        });
+        soldOutUntil.remove(voucherId);
+        stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_SOLD_OUT_CHANNEL, voucherId + ":0");
+    }
+
+    /**
+     * 本地是否已标记售罄，标记后的请求无需生成订单id和访问redis
+     */
+    public boolean isSoldOut(Long voucherId) {
+        Long until = soldOutUntil.get(voucherId);
+        if (until == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() >= until) {
+            soldOutUntil.remove(voucherId, until);
+            return false;
+        }
+        localRejects.increment();
+        return true;
+    }
+
+    /**
+     * 处理售罄和补充库存的广播，消息格式：秒杀券id:1售罄/0补充库存
+     */
+    public void onSoldOutMessage(String message) {
+        int index = message.indexOf(':');
+        Long voucherId = Long.valueOf(message.substring(0, index));
+        if ("1".equals(message.substring(index + 1))) {
+            soldOutUntil.put(voucherId, System.currentTimeMillis() + soldOutTtlMillis);
+        } else {
+            soldOutUntil.remove(voucherId);
+        }
+    }
+
+    private void markSoldOut(Long voucherId) {
+        // 本节点已标记时不再广播，避免售罄瞬间的并发请求重复广播
+        if (soldOutUntil.put(voucherId, System.currentTimeMillis() + soldOutTtlMillis) == null) {
+            stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_SOLD_OUT_CHANNEL, voucherId + ":1");
+        }
+    }
+
+    /**
+     * 扣减库存并发送订单消息
+     * @return OK、SOLD_OUT或DUPLICATE
+     */
+    public int deduct(Long voucherId, Long userId, Long orderId) {
+        int shardCount = shardCount(voucherId);
+        int n = Math.max(1, shardCount);
+        int home = shardOf(userId, n);
+        String user = userId.toString();
+        String voucher = voucherId.toString();
+        String order = orderId.toString();
+        String orderKey = orderKey(voucherId, shardCount, home);
+        String stream = shardCount == 0 ? streamKey(userId) : streamKey(voucherId, home);
+        Long result = stringRedisTemplate.execute(SECKILL_SCRIPT,
+                Arrays.asList(stockKey(voucherId, shardCount, home), orderKey, stream),
+                user, voucher, order, n > 1 ? "1" : "0");
+        int r = result.intValue();
+        if (r == SHARD_EMPTY) {
+            // 依次到其他分片扣减，订单消息写入该分片的stream，都不足或异常时释放占用的下单资格
+            r = SOLD_OUT;
+            try {
+                for (int i = 1; i < n; i++) {
+                    int shard = (home + i) % n;
+                    Long borrowed = stringRedisTemplate.execute(SECKILL_SHARD_SCRIPT,
+                            Arrays.asList(stockKey(voucherId, shardCount, shard), streamKey(voucherId, shard)),
+                            user, voucher, order);
+                    if (borrowed.intValue() == OK) {
+                        borrows.increment();
+                        r = OK;
+                        break;
+                    }
+                }
+            } finally {
+                if (r != OK) {
+                    stringRedisTemplate.opsForSet().remove(orderKey, user);
+                }
+            }
+        }
+        if (r == OK) {
+            orders.increment();
+        } else if (r == SOLD_OUT) {
+            soldOuts.increment();
+            markSoldOut(voucherId);
+        } else {
+            duplicates.increment();
+        }
+        return r;
+    }
+
+    /**
+     * 各分片剩余库存之和
+     */
+    public long remaining(Long voucherId) {
+        int shardCount = shardCount(voucherId);
+        int n = Math.max(1, shardCount);
+        List<String> keys = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            keys.add(stockKey(voucherId, shardCount, i));
+        }
+        long sum = 0;
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        if (values != null) {
+            for (String value : values) {
+                sum += value == null ? 0 : Long.parseLong(value);
+            }
+        }
+        return sum;
+    }
+
+    // 0表示未分片的旧秒杀券
+    int shardCount(Long voucherId) {
+        Integer cached = shardCounts.get(voucherId);
+        if (cached != null) {
+            return cached;
+        }
+        String value = stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_SHARDS_KEY + voucherId);
+        if (value == null) {
+            return 0;
+        }
+        int n = Integer.parseInt(value);
+        shardCounts.put(voucherId, n);
+        return n;
+    }
+
+    // 打散连续的用户id
+    static int shardOf(Long userId, int n) {
+        return Math.floorMod(Long.hashCode(userId * 0x9E3779B97F4A7C15L), n);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("shards", shards);
+        stats.put("streamPartitions", streamPartitions);
+        stats.put("orders", orders.sum());
+        stats.put("borrows", borrows.sum());
+        stats.put("soldOuts", soldOuts.sum());
+        stats.put("duplicates", duplicates.sum());
+        stats.put("soldOutVouchers", soldOutUntil.size());
+        stats.put("localRejects", localRejects.sum());
+        stats.put("retiredVouchers", retired.sum());
+        return stats;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,412 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.Shop;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+/**
+ * 店铺筛选的位图索引：每个类型、商圈、人均价格区间、评分档位各一个压缩位图
+ * 位图的下标为店铺按id升序的序号，筛选条件通过位图的与、或运算组合，并统计各筛选项的数量
+ * 店铺的筛选字段变化时递增redis中的版本号，各节点定期检查版本号，变化时全量重建
+ */
+@Slf4j
+public class ShopFacetIndex {
+
+    private static final int LOAD_BATCH_SIZE = 10000;
+    // 评分为10倍的整数，每档5分即0.5星
+    private static final int SCORE_STEP = 5;
+    private static final int MAX_SCORE = 50;
+
+    // 人均价格区间的分界，如 50,100,200 表示 [0,50) [50,100) [100,200) [200,+∞)
+    private final long[] priceBounds;
+    // 统计数量的评分下限
+    private final int[] scoreThresholds;
+    // 按id升序分批加载店铺的id、type_id、area、avg_price、score，参数为上一批最大的id
+    private final Function<Long, List<Shop>> shopLoader;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private volatile Snapshot snapshot;
+    private volatile long version = -1;
+
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder queryNanos = new LongAdder();
+
+    public ShopFacetIndex(long[] priceBounds, int[] scoreThresholds, Function<Long, List<Shop>> shopLoader,
+                          StringRedisTemplate stringRedisTemplate) {
+        this.priceBounds = priceBounds;
+        this.scoreThresholds = scoreThresholds;
+        this.shopLoader = shopLoader;
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    public boolean isReady() {
+        return snapshot != null;
+    }
+
+    /**
+     * 店铺新增或筛选字段变化后调用，各节点在下次检查时重建
+     */
+    public void markChanged() {
+        stringRedisTemplate.opsForValue().increment(RedisConstants.SHOP_FACET_VERSION_KEY);
+    }
+
+    /**
+     * 版本号变化或尚未构建时重建
+     */
+    public void checkVersion() {
+        String value = stringRedisTemplate.opsForValue().get(RedisConstants.SHOP_FACET_VERSION_KEY);
+        long latest = value == null ? 0 : Long.parseLong(value);
+        if (snapshot == null || latest != version) {
+            rebuild(latest);
+        }
+    }
+
+    /**
+     * 按条件筛选某类型的店铺
+     * @param scope 限定的店铺id，如附近的店铺，为空表示该类型的全部店铺
+     * @param areas 商圈，多个之间为或的关系，为空表示不限
+     * @param minPrice 人均价格下限（含），为空表示不限
+     * @param maxPrice 人均价格上限（含），为空表示不限
+     * @param minScore 评分下限（含），为空表示不限
+     */
+    public Selection select(long typeId, Collection<Long> scope, List<String> areas,
+                            Long minPrice, Long maxPrice, Integer minScore) {
+        long begin = System.nanoTime();
+        Snapshot s = snapshot;
+        CompactBitmap type = s.types.getOrDefault(typeId, CompactBitmap.EMPTY);
+        if (scope != null) {
+            type = type.and(s.docs(scope));
+        }
+        CompactBitmap area = areas == null || areas.isEmpty() ? null : s.area(areas);
+        CompactBitmap price = minPrice == null && maxPrice == null ? null : s.price(minPrice, maxPrice);
+        CompactBitmap score = minScore == null ? null : s.score(minScore);
+
+        // 某一组筛选项的数量按其他各组的条件统计，切换该组的选项时数量不变
+        CompactBitmap withoutArea = and(and(type, price), score);
+        CompactBitmap withoutPrice = and(and(type, area), score);
+        CompactBitmap withoutScore = and(and(type, area), price);
+        CompactBitmap matched = and(withoutArea, area);
+
+        Map<String, Map<String, Integer>> facets = new LinkedHashMap<>();
+        // 商圈取值较多，遍历结果按各文档的商圈序号计数，不逐个商圈求交集
+        int[] counts = new int[s.areaNames.length];
+        CompactBitmap.PrimitiveIterator it = withoutArea.iterator();
+        while (it.hasNext()) {
+            int ordinal = s.areaOrdinals[it.next()];
+            if (ordinal >= 0) {
+                counts[ordinal]++;
+            }
+        }
+        Map<String, Integer> areaCounts = new LinkedHashMap<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                areaCounts.put(s.areaNames[i], counts[i]);
+            }
+        }
+        facets.put("area", areaCounts);
+        Map<String, Integer> priceCounts = new LinkedHashMap<>();
+        for (int i = 0; i < s.prices.length; i++) {
+            priceCounts.put(priceLabel(i), s.prices[i].andCardinality(withoutPrice));
+        }
+        facets.put("avgPrice", priceCounts);
+        Map<String, Integer> scoreCounts = new LinkedHashMap<>();
+        for (int threshold : scoreThresholds) {
+            scoreCounts.put(String.valueOf(threshold), s.score(threshold).andCardinality(withoutScore));
+        }
+        facets.put("minScore", scoreCounts);
+
+        queries.increment();
+        queryNanos.add(System.nanoTime() - begin);
+        return new Selection(s, matched, facets);
+    }
+
+    private static CompactBitmap and(CompactBitmap a, CompactBitmap b) {
+        return b == null ? a : a.and(b);
+    }
+
+    private String priceLabel(int band) {
+        if (band == priceBounds.length) {
+            return priceBounds.length == 0 ? "0+" : priceBounds[band - 1] + "+";
+        }
+        return (band == 0 ? 0 : priceBounds[band - 1]) + "-" + priceBounds[band];
+    }
+
+    private synchronized void rebuild(long latest) {
+        // 等待锁期间可能已被重建
+        if (snapshot != null && latest == version) {
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        long[] ids = new long[1024];
+        long[] typeIds = new long[1024];
+        String[] areas = new String[1024];
+        long[] prices = new long[1024];
+        int[] scores = new int[1024];
+        int size = 0;
+        Long lastId = 0L;
+        while (true) {
+            List<Shop> shops = shopLoader.apply(lastId);
+            if (size + shops.size() > ids.length) {
+                int capacity = Math.max(ids.length * 2, size + shops.size());
+                ids = Arrays.copyOf(ids, capacity);
+                typeIds = Arrays.copyOf(typeIds, capacity);
+                areas = Arrays.copyOf(areas, capacity);
+                prices = Arrays.copyOf(prices, capacity);
+                scores = Arrays.copyOf(scores, capacity);
+            }
+            for (Shop shop : shops) {
+                ids[size] = shop.getId();
+                typeIds[size] = shop.getTypeId() == null ? 0 : shop.getTypeId();
+                areas[size] = shop.getArea();
+                prices[size] = shop.getAvgPrice() == null ? 0 : shop.getAvgPrice();
+                scores[size] = shop.getScore() == null ? 0 : shop.getScore();
+                size++;
+            }
+            if (shops.size() < LOAD_BATCH_SIZE) {
+                break;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+        }
+        load(ids, typeIds, areas, prices, scores, size);
+        version = latest;
+        log.info("店铺筛选索引重建完成，版本：{}，店铺数：{}，商圈数：{}，耗时：{}ms",
+                latest, size, snapshot.areas.size(), System.currentTimeMillis() - begin);
+    }
+
+    /**
+     * 由列数据构建并替换，下标即文档序号
+     * @param ids 按id升序
+     */
+    void load(long[] ids, long[] typeIds, String[] areas, long[] prices, int[] scores, int size) {
+        Snapshot next = build(ids, typeIds, areas, prices, scores, size);
+        next.buildTime = System.currentTimeMillis();
+        snapshot = next;
+    }
+
+    private Snapshot build(long[] ids, long[] typeIds, String[] areas, long[] prices, int[] scores, int size) {
+        Map<Long, Column> types = new HashMap<>();
+        Map<String, Column> areaColumns = new TreeMap<>();
+        Column[] priceColumns = new Column[priceBounds.length + 1];
+        Column[] scoreColumns = new Column[MAX_SCORE / SCORE_STEP + 1];
+        for (int i = 0; i < priceColumns.length; i++) {
+            priceColumns[i] = new Column();
+        }
+        for (int i = 0; i < scoreColumns.length; i++) {
+            scoreColumns[i] = new Column();
+        }
+        for (int doc = 0; doc < size; doc++) {
+            types.computeIfAbsent(typeIds[doc], t -> new Column()).add(doc);
+            if (StrUtil.isNotBlank(areas[doc])) {
+                areaColumns.computeIfAbsent(areas[doc], a -> new Column()).add(doc);
+            }
+            priceColumns[priceBand(prices[doc])].add(doc);
+            scoreColumns[scoreBucket(scores[doc])].add(doc);
+        }
+        Snapshot s = new Snapshot();
+        s.ids = Arrays.copyOf(ids, size);
+        s.prices = new CompactBitmap[priceColumns.length];
+        s.priceValues = Arrays.copyOf(prices, size);
+        s.scoreValues = Arrays.copyOf(scores, size);
+        types.forEach((typeId, c) -> s.types.put(typeId, c.toBitmap()));
+        areaColumns.forEach((area, c) -> s.areas.put(area, c.toBitmap()));
+        s.areaNames = areaColumns.keySet().toArray(new String[0]);
+        s.areaOrdinals = new int[size];
+        Arrays.fill(s.areaOrdinals, -1);
+        for (int i = 0; i < s.areaNames.length; i++) {
+            int ordinal = i;
+            areaColumns.get(s.areaNames[i]).forEach(doc -> s.areaOrdinals[doc] = ordinal);
+        }
+        for (int i = 0; i < priceColumns.length; i++) {
+            s.prices[i] = priceColumns[i].toBitmap();
+        }
+        // 评分保存为累计位图，第i个表示评分不低于i档
+        s.scoresAtLeast = new CompactBitmap[scoreColumns.length];
+        CompactBitmap atLeast = CompactBitmap.EMPTY;
+        for (int i = scoreColumns.length - 1; i >= 0; i--) {
+            atLeast = atLeast.or(scoreColumns[i].toBitmap());
+            s.scoresAtLeast[i] = atLeast;
+        }
+        return s;
+    }
+
+    private int priceBand(long price) {
+        int band = Arrays.binarySearch(priceBounds, price);
+        return band >= 0 ? band + 1 : -band - 1;
+    }
+
+    private static int scoreBucket(int score) {
+        return Math.max(0, Math.min(score, MAX_SCORE)) / SCORE_STEP;
+    }
+
+    public static int loadBatchSize() {
+        return LOAD_BATCH_SIZE;
+    }
+
+    public Map<String, Object> stats() {
+        Snapshot s = snapshot;
+        long q = queries.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", s != null);
+        stats.put("version", version);
+        if (s != null) {
+            long bytes = 0;
+            for (CompactBitmap bitmap : s.types.values()) {
+                bytes += bitmap.sizeInBytes();
+            }
+            for (CompactBitmap bitmap : s.areas.values()) {
+                bytes += bitmap.sizeInBytes();
+            }
+            for (CompactBitmap bitmap : s.prices) {
+                bytes += bitmap.sizeInBytes();
+            }
+            for (CompactBitmap bitmap : s.scoresAtLeast) {
+                bytes += bitmap.sizeInBytes();
+            }
+            stats.put("size", s.ids.length);
+            stats.put("areas", s.areas.size());
+            stats.put("bitmapBytes", bytes);
+            stats.put("lastRebuildTime", s.buildTime);
+        }
+        stats.put("queries", q);
+        stats.put("avgQueryMicros", q == 0 ? 0 : queryNanos.sum() / q / 1000);
+        return stats;
+    }
+
+    /**
+     * 筛选结果，文档序号按店铺id升序
+     */
+    public static class Selection {
+        private final Snapshot snapshot;
+        private final CompactBitmap matched;
+        @Getter
+        private final Map<String, Map<String, Integer>> facets;
+
+        Selection(Snapshot snapshot, CompactBitmap matched, Map<String, Map<String, Integer>> facets) {
+            this.snapshot = snapshot;
+            this.matched = matched;
+            this.facets = facets;
+        }
+
+        public int total() {
+            return matched.cardinality();
+        }
+
+        public boolean contains(long shopId) {
+            int doc = Arrays.binarySearch(snapshot.ids, shopId);
+            return doc >= 0 && matched.contains(doc);
+        }
+
+        /**
+         * 按id升序分页
+         */
+        public List<Long> ids(int from, int limit) {
+            int[] docs = matched.toArray(from, limit);
+            List<Long> ids = new ArrayList<>(docs.length);
+            for (int doc : docs) {
+                ids.add(snapshot.ids[doc]);
+            }
+            return ids;
+        }
+    }
+
+    class Snapshot {
+        private long[] ids;
+        private long[] priceValues;
+        private int[] scoreValues;
+        private final Map<Long, CompactBitmap> types = new HashMap<>();
+        // 商圈按名称排序
+        private final Map<String, CompactBitmap> areas = new TreeMap<>();
+        // 各文档的商圈在areaNames中的序号，没有商圈为-1
+        private String[] areaNames;
+        private int[] areaOrdinals;
+        private CompactBitmap[] prices;
+        private CompactBitmap[] scoresAtLeast;
+        private long buildTime;
+
+        // 店铺id转为文档序号的位图，不在索引中的id忽略
+        CompactBitmap docs(Collection<Long> shopIds) {
+            int[] docs = new int[shopIds.size()];
+            int n = 0;
+            for (Long shopId : shopIds) {
+                int doc = Arrays.binarySearch(ids, shopId);
+                if (doc >= 0) {
+                    docs[n++] = doc;
+                }
+            }
+            Arrays.sort(docs, 0, n);
+            return CompactBitmap.of(docs, n);
+        }
+
+        CompactBitmap area(List<String> names) {
+            List<CompactBitmap> bitmaps = new ArrayList<>(names.size());
+            for (String name : names) {
+                bitmaps.add(areas.getOrDefault(name, CompactBitmap.EMPTY));
+            }
+            return CompactBitmap.or(bitmaps);
+        }
+
+        CompactBitmap price(Long min, Long max) {
+            long low = min == null ? Long.MIN_VALUE : min;
+            long high = max == null ? Long.MAX_VALUE : max;
+            int first = priceBand(Math.max(low, 0));
+            int last = priceBand(Math.max(high, 0));
+            CompactBitmap result = CompactBitmap.EMPTY;
+            for (int band = first; band <= last && low <= high; band++) {
+                result = result.or(prices[band]);
+            }
+            // 首尾区间不完全包含在条件内时逐个判断
+            boolean lowExact = low <= 0 || first > 0 && low == priceBounds[first - 1];
+            boolean highExact = max == null || last < priceBounds.length && high == priceBounds[last] - 1;
+            boolean exact = lowExact && highExact;
+            return exact ? result : result.filter(doc -> priceValues[doc] >= low && priceValues[doc] <= high);
+        }
+
+        CompactBitmap score(int min) {
+            if (min <= 0) {
+                return scoresAtLeast[0];
+            }
+            if (min > MAX_SCORE) {
+                return CompactBitmap.EMPTY;
+            }
+            CompactBitmap result = scoresAtLeast[scoreBucket(min)];
+            return min % SCORE_STEP == 0 ? result : result.filter(doc -> scoreValues[doc] >= min);
+        }
+    }
+
+    // 构建时收集某个取值的文档序号，序号递增
+    private static class Column {
+        private int[] docs = new int[16];
+        private int size;
+
+        void add(int doc) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            docs[size++] = doc;
+        }
+
+        void forEach(IntConsumer action) {
+            for (int i = 0; i < size; i++) {
+                action.accept(docs[i]);
+            }
+        }
+
+        CompactBitmap toBitmap() {
+            return CompactBitmap.of(docs, size);
+        }
+    }
+}
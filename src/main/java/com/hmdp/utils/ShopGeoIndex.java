@@ -0,0 +1,212 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 按店铺类型划分的进程内地理位置索引，替代redis GEOSEARCH
+ * 启动时及定期从数据库全量重建，新增和修改店铺时增量更新并通过pub/sub广播给其他节点
+ */
+@Slf4j
+public class ShopGeoIndex {
+
+    private static final int LOAD_BATCH_SIZE = 10000;
+
+    private final double cellDegrees;
+    // 按id升序分批加载店铺的id、type_id、x、y，参数为上一批最大的id
+    private final Function<Long, List<Shop>> shopLoader;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private volatile Map<Long, GeoIndex> indexes = Collections.emptyMap();
+    // 重建期间的增量更新，重建完成后重放
+    private volatile Queue<Shop> pending;
+    private volatile boolean ready;
+    private volatile long lastRebuildTime;
+
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder queryNanos = new LongAdder();
+
+    /**
+     * @param cellDegrees 网格边长（度）
+     * @param shopLoader 分批加载店铺位置
+     */
+    public ShopGeoIndex(double cellDegrees, Function<Long, List<Shop>> shopLoader,
+                        StringRedisTemplate stringRedisTemplate) {
+        this.cellDegrees = cellDegrees;
+        this.shopLoader = shopLoader;
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 是否已完成首次构建，未完成时调用方应降级
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 查询某类型店铺中距离(x, y)不超过radius米的店铺
+     * @return 按距离升序，最多limit个
+     */
+    public List<GeoIndex.Hit> search(long typeId, double x, double y, double radius, int limit) {
+        GeoIndex index = indexes.get(typeId);
+        if (index == null) {
+            return Collections.emptyList();
+        }
+        long begin = System.nanoTime();
+        List<GeoIndex.Hit> hits = index.search(x, y, radius, limit);
+        queries.increment();
+        queryNanos.add(System.nanoTime() - begin);
+        return hits;
+    }
+
+    /**
+     * 查询某类型中距离(x, y)最近的k个店铺
+     */
+    public List<GeoIndex.Hit> nearest(long typeId, double x, double y, int k, double maxRadius) {
+        GeoIndex index = indexes.get(typeId);
+        if (index == null) {
+            return Collections.emptyList();
+        }
+        long begin = System.nanoTime();
+        List<GeoIndex.Hit> hits = index.nearest(x, y, k, maxRadius);
+        queries.increment();
+        queryNanos.add(System.nanoTime() - begin);
+        return hits;
+    }
+
+    /**
+     * 店铺新增或位置、类型变更后调用，更新本地并广播给其他节点
+     */
+    public void update(Shop shop) {
+        updateLocal(shop);
+        // 消息格式：id:typeId:x:y
+        stringRedisTemplate.convertAndSend(RedisConstants.GEO_UPDATE_CHANNEL,
+                shop.getId() + ":" + shop.getTypeId() + ":" + shop.getX() + ":" + shop.getY());
+    }
+
+    /**
+     * 处理其他节点的更新广播
+     */
+    public void onUpdateMessage(String message) {
+        String[] parts = message.split(":");
+        updateLocal(new Shop()
+                .setId(Long.valueOf(parts[0]))
+                .setTypeId(Long.valueOf(parts[1]))
+                .setX(Double.valueOf(parts[2]))
+                .setY(Double.valueOf(parts[3])));
+    }
+
+    private void updateLocal(Shop shop) {
+        Queue<Shop> queue = pending;
+        if (queue != null) {
+            queue.add(shop);
+        }
+        apply(indexes, shop);
+    }
+
+    private void apply(Map<Long, GeoIndex> target, Shop shop) {
+        // 类型变化时从原类型中移除
+        for (Map.Entry<Long, GeoIndex> entry : target.entrySet()) {
+            if (!entry.getKey().equals(shop.getTypeId())) {
+                entry.getValue().remove(shop.getId());
+            }
+        }
+        target.computeIfAbsent(shop.getTypeId(), t -> new GeoIndex(cellDegrees))
+                .put(shop.getId(), shop.getX(), shop.getY());
+    }
+
+    /**
+     * 从数据库全量重建并原子替换
+     */
+    public synchronized void rebuild() {
+        long begin = System.currentTimeMillis();
+        pending = new ConcurrentLinkedQueue<>();
+        try {
+            Map<Long, Columns> columns = new HashMap<>();
+            long count = 0;
+            Long lastId = 0L;
+            while (true) {
+                List<Shop> shops = shopLoader.apply(lastId);
+                for (Shop shop : shops) {
+                    columns.computeIfAbsent(shop.getTypeId(), t -> new Columns())
+                            .add(shop.getId(), shop.getX(), shop.getY());
+                }
+                count += shops.size();
+                if (shops.size() < LOAD_BATCH_SIZE) {
+                    break;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            Map<Long, GeoIndex> next = new ConcurrentHashMap<>();
+            columns.forEach((typeId, c) -> {
+                GeoIndex index = new GeoIndex(cellDegrees);
+                index.load(c.ids, c.xs, c.ys, c.size);
+                next.put(typeId, index);
+            });
+            // 重放加载期间的更新，切换后的更新直接作用于新索引
+            Queue<Shop> queue = pending;
+            indexes = next;
+            pending = null;
+            for (Shop shop : queue) {
+                apply(next, shop);
+            }
+            ready = true;
+            lastRebuildTime = System.currentTimeMillis();
+            log.info("店铺位置索引重建完成，类型数：{}，店铺数：{}，耗时：{}ms",
+                    next.size(), count, lastRebuildTime - begin);
+        } finally {
+            pending = null;
+        }
+    }
+
+    public static int loadBatchSize() {
+        return LOAD_BATCH_SIZE;
+    }
+
+    public Map<String, Object> stats() {
+        long q = queries.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", ready);
+        Map<Long, Integer> sizes = new LinkedHashMap<>();
+        indexes.forEach((typeId, index) -> sizes.put(typeId, index.size()));
+        stats.put("sizes", sizes);
+        stats.put("queries", q);
+        stats.put("avgQueryMicros", q == 0 ? 0 : queryNanos.sum() / q / 1000);
+        stats.put("lastRebuildTime", lastRebuildTime);
+        return stats;
+    }
+
+    // 加载时按类型收集的列数据
+    private static class Columns {
+        private long[] ids = new long[1024];
+        private double[] xs = new double[1024];
+        private double[] ys = new double[1024];
+        private int size;
+
+        void add(long id, double x, double y) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                xs = Arrays.copyOf(xs, size * 2);
+                ys = Arrays.copyOf(ys, size * 2);
+            }
+            ids[size] = id;
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+        }
+    }
+}
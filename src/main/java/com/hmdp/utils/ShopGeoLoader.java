@@ -0,0 +1,197 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * 将店铺坐标按类型写入redis GEO（shop:geo:{typeId}），供依赖redis GEO的节点和工具使用
+ * 全量加载时流式读取数据库，分批pipeline写入临时key后用RENAME替换正式key，同一时间只有一个节点执行
+ * 新增和修改店铺时增量更新
+ */
+@Slf4j
+public class ShopGeoLoader {
+
+    // 每批写入的店铺数
+    private static final int WRITE_BATCH_SIZE = 1000;
+    // redis GEO支持的纬度范围
+    private static final double MAX_LATITUDE = 85.05112878;
+
+    // 流式遍历全部店铺的id、type_id、x、y
+    private final Consumer<Consumer<Shop>> shopScanner;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedissonClient redissonClient;
+
+    public ShopGeoLoader(Consumer<Consumer<Shop>> shopScanner, StringRedisTemplate stringRedisTemplate,
+                         RedissonClient redissonClient) {
+        this.shopScanner = shopScanner;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redissonClient = redissonClient;
+    }
+
+    public static String key(Long typeId) {
+        return RedisConstants.SHOP_GEO_KEY + typeId;
+    }
+
+    private static String tmpKey(Long typeId) {
+        return RedisConstants.SHOP_GEO_TMP_KEY + typeId;
+    }
+
+    /**
+     * 是否已完成全量加载
+     */
+    public boolean isReady() {
+        return Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.SHOP_GEO_READY_KEY));
+    }
+
+    /**
+     * 店铺新增或坐标、类型变化后调用
+     * @param shop 最新的店铺数据，需包含type_id、x、y
+     * @param oldTypeId 修改前的类型，类型变化时从原类型中移除
+     */
+    public void update(Shop shop, Long oldTypeId) {
+        if (shop.getTypeId() == null) {
+            return;
+        }
+        // 全量加载期间同时写入临时key，避免加载完成后被旧数据覆盖
+        boolean loading = Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.SHOP_GEO_LOADING_KEY));
+        byte[] member = bytes(shop.getId().toString());
+        boolean valid = isValid(shop);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            if (oldTypeId != null && !oldTypeId.equals(shop.getTypeId())) {
+                connection.zSetCommands().zRem(bytes(key(oldTypeId)), member);
+                if (loading) {
+                    connection.zSetCommands().zRem(bytes(tmpKey(oldTypeId)), member);
+                }
+            }
+            if (valid) {
+                Point point = new Point(shop.getX(), shop.getY());
+                connection.geoCommands().geoAdd(bytes(key(shop.getTypeId())), point, member);
+                if (loading) {
+                    connection.geoCommands().geoAdd(bytes(tmpKey(shop.getTypeId())), point, member);
+                }
+                connection.setCommands().sAdd(bytes(RedisConstants.SHOP_GEO_TYPES_KEY), bytes(shop.getTypeId().toString()));
+            } else {
+                // 坐标被清空或不合法时移除
+                connection.zSetCommands().zRem(bytes(key(shop.getTypeId())), member);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * redis中没有数据时加载，用于启动时及redis数据丢失后
+     */
+    public void loadIfMissing() {
+        if (!isReady()) {
+            load();
+        }
+    }
+
+    /**
+     * 从数据库全量加载
+     * @return 其他节点正在加载时返回false
+     */
+    public boolean load() {
+        RLock lock = redissonClient.getLock(RedisConstants.LOCK_SHOP_GEO_KEY);
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            // 清理上次未完成的临时数据后再标记加载中
+            Set<String> old = stringRedisTemplate.opsForSet().members(RedisConstants.SHOP_GEO_TYPES_KEY);
+            if (old != null && !old.isEmpty()) {
+                List<String> stale = new ArrayList<>();
+                for (String typeId : old) {
+                    stale.add(tmpKey(Long.valueOf(typeId)));
+                }
+                stringRedisTemplate.delete(stale);
+            }
+            stringRedisTemplate.opsForValue().set(RedisConstants.SHOP_GEO_LOADING_KEY, "1");
+            Set<Long> typeIds = new HashSet<>();
+            Map<Long, Map<byte[], Point>> batch = new HashMap<>();
+            long[] counts = new long[2];
+            shopScanner.accept(shop -> {
+                if (shop.getTypeId() == null || !isValid(shop)) {
+                    counts[1]++;
+                    return;
+                }
+                typeIds.add(shop.getTypeId());
+                batch.computeIfAbsent(shop.getTypeId(), k -> new HashMap<>())
+                        .put(bytes(shop.getId().toString()), new Point(shop.getX(), shop.getY()));
+                if (++counts[0] % WRITE_BATCH_SIZE == 0) {
+                    flush(batch);
+                }
+            });
+            flush(batch);
+            // 替换正式数据，已不存在的类型删除
+            List<String> removed = new ArrayList<>();
+            if (old != null) {
+                for (String typeId : old) {
+                    if (!typeIds.contains(Long.valueOf(typeId))) {
+                        removed.add(key(Long.valueOf(typeId)));
+                    }
+                }
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Long typeId : typeIds) {
+                    connection.keyCommands().rename(bytes(tmpKey(typeId)), bytes(key(typeId)));
+                }
+                removed.forEach(key -> connection.keyCommands().del(bytes(key)));
+                connection.keyCommands().del(bytes(RedisConstants.SHOP_GEO_TYPES_KEY));
+                if (!typeIds.isEmpty()) {
+                    connection.setCommands().sAdd(bytes(RedisConstants.SHOP_GEO_TYPES_KEY),
+                            typeIds.stream().map(typeId -> bytes(typeId.toString())).toArray(byte[][]::new));
+                }
+                connection.stringCommands().set(bytes(RedisConstants.SHOP_GEO_READY_KEY),
+                        bytes(String.valueOf(System.currentTimeMillis())));
+                connection.keyCommands().del(bytes(RedisConstants.SHOP_GEO_LOADING_KEY));
+                return null;
+            });
+            log.info("店铺坐标加载完成，类型数：{}，店铺数：{}，跳过：{}，耗时：{}ms",
+                    typeIds.size(), counts[0], counts[1], System.currentTimeMillis() - begin);
+            return true;
+        } catch (RuntimeException e) {
+            stringRedisTemplate.delete(RedisConstants.SHOP_GEO_LOADING_KEY);
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 一批店铺按类型分组，一次pipeline写入临时key
+    private void flush(Map<Long, Map<byte[], Point>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            batch.forEach((typeId, points) -> connection.geoCommands().geoAdd(bytes(tmpKey(typeId)), points));
+            return null;
+        });
+        batch.clear();
+    }
+
+    // 坐标缺失或超出redis GEO范围时GEOADD会报错，导致整批失败
+    private static boolean isValid(Shop shop) {
+        return shop.getX() != null && shop.getY() != null
+                && Math.abs(shop.getX()) <= 180 && Math.abs(shop.getY()) <= MAX_LATITUDE;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
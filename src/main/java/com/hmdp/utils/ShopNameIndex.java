@@ -0,0 +1,149 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 店铺名称的进程内倒排索引，替代LIKE '%name%'的全表扫描
+ * 启动时及定期从数据库全量重建，新增和修改店铺时增量更新并通过pub/sub广播给其他节点
+ */
+@Slf4j
+public class ShopNameIndex {
+
+    private static final int LOAD_BATCH_SIZE = 10000;
+
+    // 按id升序分批加载店铺的id、name，参数为上一批最大的id
+    private final Function<Long, List<Shop>> shopLoader;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private volatile NameIndex index = new NameIndex();
+    // 重建期间的增量更新，重建完成后重放
+    private volatile Queue<Shop> pending;
+    private volatile boolean ready;
+    private volatile long lastRebuildTime;
+
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder queryNanos = new LongAdder();
+
+    public ShopNameIndex(Function<Long, List<Shop>> shopLoader, StringRedisTemplate stringRedisTemplate) {
+        this.shopLoader = shopLoader;
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 是否已完成首次构建，未完成时调用方应降级
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 查询名称包含name的店铺id
+     * @return 按相关度排序，最多limit个
+     */
+    public List<Long> search(String name, int limit) {
+        long begin = System.nanoTime();
+        List<Long> ids = index.search(name, limit);
+        queries.increment();
+        queryNanos.add(System.nanoTime() - begin);
+        return ids;
+    }
+
+    /**
+     * 店铺新增或名称变更后调用，更新本地并广播给其他节点
+     */
+    public void update(Shop shop) {
+        updateLocal(shop);
+        // 消息格式：id:name，名称中可能含有冒号，只按第一个冒号拆分
+        stringRedisTemplate.convertAndSend(RedisConstants.SHOP_NAME_UPDATE_CHANNEL,
+                shop.getId() + ":" + shop.getName());
+    }
+
+    /**
+     * 处理其他节点的更新广播
+     */
+    public void onUpdateMessage(String message) {
+        int index = message.indexOf(':');
+        updateLocal(new Shop()
+                .setId(Long.valueOf(message.substring(0, index)))
+                .setName(message.substring(index + 1)));
+    }
+
+    private void updateLocal(Shop shop) {
+        Queue<Shop> queue = pending;
+        if (queue != null) {
+            queue.add(shop);
+        }
+        index.put(shop.getId(), shop.getName());
+    }
+
+    /**
+     * 从数据库全量重建并原子替换
+     */
+    public synchronized void rebuild() {
+        long begin = System.currentTimeMillis();
+        pending = new ConcurrentLinkedQueue<>();
+        try {
+            long[] ids = new long[1024];
+            String[] names = new String[1024];
+            int size = 0;
+            Long lastId = 0L;
+            while (true) {
+                List<Shop> shops = shopLoader.apply(lastId);
+                if (size + shops.size() > ids.length) {
+                    int capacity = Math.max(ids.length * 2, size + shops.size());
+                    ids = Arrays.copyOf(ids, capacity);
+                    names = Arrays.copyOf(names, capacity);
+                }
+                for (Shop shop : shops) {
+                    ids[size] = shop.getId();
+                    names[size] = shop.getName();
+                    size++;
+                }
+                if (shops.size() < LOAD_BATCH_SIZE) {
+                    break;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            NameIndex next = new NameIndex();
+            next.load(ids, names, size);
+            // 重放加载期间的更新，切换后的更新直接作用于新索引
+            Queue<Shop> queue = pending;
+            index = next;
+            pending = null;
+            for (Shop shop : queue) {
+                next.put(shop.getId(), shop.getName());
+            }
+            ready = true;
+            lastRebuildTime = System.currentTimeMillis();
+            log.info("店铺名称索引重建完成，店铺数：{}，耗时：{}ms", size, lastRebuildTime - begin);
+        } finally {
+            pending = null;
+        }
+    }
+
+    public static int loadBatchSize() {
+        return LOAD_BATCH_SIZE;
+    }
+
+    public Map<String, Object> stats() {
+        long q = queries.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", ready);
+        stats.put("size", index.size());
+        stats.put("queries", q);
+        stats.put("avgQueryMicros", q == 0 ? 0 : queryNanos.sum() / q / 1000);
+        stats.put("lastRebuildTime", lastRebuildTime);
+        return stats;
+    }
+}
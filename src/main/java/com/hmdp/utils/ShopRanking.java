@@ -0,0 +1,246 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.connection.DefaultTuple;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 按类型预先排好序的店铺列表，每个类型的每个排序字段一个redis sorted set，成员为店铺id，分数为字段值
+ * 新增和修改店铺时增量更新，redis中的数据丢失时由任意一个节点全量重建
+ */
+@Slf4j
+public class ShopRanking {
+
+    private static final int LOAD_BATCH_SIZE = 10000;
+
+    /**
+     * 排序字段
+     */
+    public enum Field {
+        SCORE("score", Shop::getScore),
+        SOLD("sold", Shop::getSold),
+        COMMENTS("comments", Shop::getComments);
+
+        private final String column;
+        private final Function<Shop, Integer> getter;
+
+        Field(String column, Function<Shop, Integer> getter) {
+            this.column = column;
+            this.getter = getter;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        /**
+         * @return 不支持的字段返回null
+         */
+        public static Field of(String name) {
+            for (Field field : values()) {
+                if (field.column.equalsIgnoreCase(name)) {
+                    return field;
+                }
+            }
+            return null;
+        }
+    }
+
+    // 按id升序分批加载店铺的id、type_id、score、sold、comments，参数为上一批最大的id
+    private final Function<Long, List<Shop>> shopLoader;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedissonClient redissonClient;
+
+    public ShopRanking(Function<Long, List<Shop>> shopLoader, StringRedisTemplate stringRedisTemplate,
+                       RedissonClient redissonClient) {
+        this.shopLoader = shopLoader;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redissonClient = redissonClient;
+    }
+
+    public static String key(Field field, Long typeId) {
+        return RedisConstants.SHOP_RANK_KEY + field.column + ":" + typeId;
+    }
+
+    private static String tmpKey(Field field, Long typeId) {
+        return RedisConstants.SHOP_RANK_TMP_KEY + field.column + ":" + typeId;
+    }
+
+    /**
+     * 是否已完成全量构建
+     */
+    public boolean isReady() {
+        return Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.SHOP_RANK_READY_KEY));
+    }
+
+    /**
+     * 按字段降序查询某类型的店铺id
+     */
+    public List<Long> range(Long typeId, Field field, long from, long size) {
+        Set<String> members = stringRedisTemplate.opsForZSet().reverseRange(key(field, typeId), from, from + size - 1);
+        if (members == null || members.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return members.stream().map(Long::valueOf).collect(Collectors.toList());
+    }
+
+    /**
+     * 店铺新增或排序字段、类型变化后调用
+     * @param shop 最新的店铺数据，需包含type_id及全部排序字段
+     * @param oldTypeId 修改前的类型，类型变化时从原类型中移除
+     */
+    public void update(Shop shop, Long oldTypeId) {
+        if (shop.getTypeId() == null) {
+            return;
+        }
+        // 全量重建期间同时写入临时key，避免重建完成后被旧数据覆盖
+        boolean rebuilding = Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.SHOP_RANK_REBUILDING_KEY));
+        byte[] member = bytes(shop.getId().toString());
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Field field : Field.values()) {
+                double score = scoreOf(shop, field);
+                if (oldTypeId != null && !oldTypeId.equals(shop.getTypeId())) {
+                    connection.zSetCommands().zRem(bytes(key(field, oldTypeId)), member);
+                    if (rebuilding) {
+                        connection.zSetCommands().zRem(bytes(tmpKey(field, oldTypeId)), member);
+                    }
+                }
+                connection.zSetCommands().zAdd(bytes(key(field, shop.getTypeId())), score, member);
+                if (rebuilding) {
+                    connection.zSetCommands().zAdd(bytes(tmpKey(field, shop.getTypeId())), score, member);
+                }
+            }
+            connection.setCommands().sAdd(bytes(RedisConstants.SHOP_RANK_TYPES_KEY), bytes(shop.getTypeId().toString()));
+            return null;
+        });
+    }
+
+    /**
+     * redis中没有数据时重建，用于启动时及redis数据丢失后
+     */
+    public void rebuildIfMissing() {
+        if (!isReady()) {
+            rebuild();
+        }
+    }
+
+    /**
+     * 从数据库全量重建，写入临时key后用RENAME替换正式key，同一时间只有一个节点执行
+     * @return 其他节点正在重建时返回false
+     */
+    public boolean rebuild() {
+        RLock lock = redissonClient.getLock(RedisConstants.LOCK_SHOP_RANK_KEY);
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            // 清理上次未完成的临时数据后再标记重建中
+            Set<String> old = stringRedisTemplate.opsForSet().members(RedisConstants.SHOP_RANK_TYPES_KEY);
+            if (old != null && !old.isEmpty()) {
+                List<String> stale = new ArrayList<>();
+                for (String typeId : old) {
+                    for (Field field : Field.values()) {
+                        stale.add(tmpKey(field, Long.valueOf(typeId)));
+                    }
+                }
+                stringRedisTemplate.delete(stale);
+            }
+            stringRedisTemplate.opsForValue().set(RedisConstants.SHOP_RANK_REBUILDING_KEY, "1");
+            Set<Long> typeIds = new HashSet<>();
+            long count = 0;
+            Long lastId = 0L;
+            while (true) {
+                List<Shop> shops = shopLoader.apply(lastId);
+                // 每批按类型和字段分组，一次pipeline写入
+                Map<String, Set<RedisZSetCommands.Tuple>> batches = new LinkedHashMap<>();
+                for (Shop shop : shops) {
+                    if (shop.getTypeId() == null) {
+                        continue;
+                    }
+                    typeIds.add(shop.getTypeId());
+                    byte[] member = bytes(shop.getId().toString());
+                    for (Field field : Field.values()) {
+                        batches.computeIfAbsent(tmpKey(field, shop.getTypeId()), k -> new LinkedHashSet<>())
+                                .add(new DefaultTuple(member, scoreOf(shop, field)));
+                    }
+                }
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    batches.forEach((key, tuples) -> connection.zSetCommands().zAdd(bytes(key), tuples));
+                    return null;
+                });
+                count += shops.size();
+                if (shops.size() < LOAD_BATCH_SIZE) {
+                    break;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            // 替换正式数据，已不存在的类型删除
+            List<String> removed = new ArrayList<>();
+            if (old != null) {
+                for (String typeId : old) {
+                    if (!typeIds.contains(Long.valueOf(typeId))) {
+                        for (Field field : Field.values()) {
+                            removed.add(key(field, Long.valueOf(typeId)));
+                        }
+                    }
+                }
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Long typeId : typeIds) {
+                    for (Field field : Field.values()) {
+                        connection.keyCommands().rename(bytes(tmpKey(field, typeId)), bytes(key(field, typeId)));
+                    }
+                }
+                removed.forEach(key -> connection.keyCommands().del(bytes(key)));
+                connection.keyCommands().del(bytes(RedisConstants.SHOP_RANK_TYPES_KEY));
+                if (!typeIds.isEmpty()) {
+                    connection.setCommands().sAdd(bytes(RedisConstants.SHOP_RANK_TYPES_KEY),
+                            typeIds.stream().map(typeId -> bytes(typeId.toString())).toArray(byte[][]::new));
+                }
+                connection.stringCommands().set(bytes(RedisConstants.SHOP_RANK_READY_KEY),
+                        bytes(String.valueOf(System.currentTimeMillis())));
+                connection.keyCommands().del(bytes(RedisConstants.SHOP_RANK_REBUILDING_KEY));
+                return null;
+            });
+            log.info("店铺排行重建完成，类型数：{}，店铺数：{}，耗时：{}ms",
+                    typeIds.size(), count, System.currentTimeMillis() - begin);
+            return true;
+        } catch (RuntimeException e) {
+            stringRedisTemplate.delete(RedisConstants.SHOP_RANK_REBUILDING_KEY);
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public static int loadBatchSize() {
+        return LOAD_BATCH_SIZE;
+    }
+
+    private static double scoreOf(Shop shop, Field field) {
+        Integer value = field.getter.apply(shop);
+        return value == null ? 0 : value;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
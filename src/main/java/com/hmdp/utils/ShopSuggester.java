@@ -0,0 +1,155 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.ShopSuggestion;
+import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 搜索框的前缀联想，候选为店铺名称和商圈，按销量和评分加权排序
+ * 后台定期从数据库全量构建新的字典树后原子替换，查询不加锁
+ */
+@Slf4j
+public class ShopSuggester {
+
+    private static final int LOAD_BATCH_SIZE = 10000;
+
+    private final int k;
+    // 按id升序分批加载店铺的id、name、area、sold、score，参数为上一批最大的id
+    private final Function<Long, List<Shop>> shopLoader;
+
+    private volatile SuggestTrie trie;
+    private volatile long lastRebuildTime;
+
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder queryNanos = new LongAdder();
+
+    /**
+     * @param k 每个前缀保留的候选数
+     */
+    public ShopSuggester(int k, Function<Long, List<Shop>> shopLoader) {
+        this.k = k;
+        this.shopLoader = shopLoader;
+    }
+
+    /**
+     * 是否已完成首次构建
+     */
+    public boolean isReady() {
+        return trie != null;
+    }
+
+    /**
+     * @return 按权重降序，未构建完成时为空
+     */
+    public List<ShopSuggestion> suggest(String prefix, int limit) {
+        SuggestTrie t = trie;
+        if (t == null) {
+            return Collections.emptyList();
+        }
+        long begin = System.nanoTime();
+        List<ShopSuggestion> suggestions = t.suggest(prefix, limit);
+        queries.increment();
+        queryNanos.add(System.nanoTime() - begin);
+        return suggestions;
+    }
+
+    /**
+     * 从数据库全量构建并原子替换
+     */
+    public synchronized void rebuild() {
+        long begin = System.currentTimeMillis();
+        // 规范化后相同的名称或商圈合并，权重累加，名称对应权重最高的店铺
+        Map<String, Candidate> names = new HashMap<>();
+        Map<String, Candidate> areas = new HashMap<>();
+        long count = 0;
+        Long lastId = 0L;
+        while (true) {
+            List<Shop> shops = shopLoader.apply(lastId);
+            for (Shop shop : shops) {
+                long weight = weightOf(shop);
+                if (StrUtil.isNotBlank(shop.getName())) {
+                    names.computeIfAbsent(NameIndex.normalize(shop.getName()), key -> new Candidate())
+                            .add(shop.getName(), shop.getId(), weight);
+                }
+                if (StrUtil.isNotBlank(shop.getArea())) {
+                    areas.computeIfAbsent(NameIndex.normalize(shop.getArea()), key -> new Candidate())
+                            .add(shop.getArea(), null, weight);
+                }
+            }
+            count += shops.size();
+            if (shops.size() < LOAD_BATCH_SIZE) {
+                break;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+        }
+        int size = names.size() + areas.size();
+        List<String> texts = new ArrayList<>(size);
+        List<ShopSuggestion> values = new ArrayList<>(size);
+        long[] weights = new long[size];
+        names.values().forEach(c -> {
+            weights[texts.size()] = c.weight;
+            texts.add(c.text);
+            values.add(new ShopSuggestion(c.text, ShopSuggestion.TYPE_SHOP, c.shopId));
+        });
+        areas.values().forEach(c -> {
+            weights[texts.size()] = c.weight;
+            texts.add(c.text);
+            values.add(new ShopSuggestion(c.text, ShopSuggestion.TYPE_AREA, null));
+        });
+        SuggestTrie next = new SuggestTrie(texts, values, weights, k);
+        trie = next;
+        lastRebuildTime = System.currentTimeMillis();
+        log.info("店铺联想字典树重建完成，店铺数：{}，候选数：{}，预计算节点数：{}，耗时：{}ms",
+                count, next.size(), next.nodeCount(), lastRebuildTime - begin);
+    }
+
+    // 销量乘以评分，评分为10倍的整数
+    static long weightOf(Shop shop) {
+        long sold = shop.getSold() == null ? 0 : shop.getSold();
+        long score = shop.getScore() == null ? 0 : shop.getScore();
+        return sold * score;
+    }
+
+    public static int loadBatchSize() {
+        return LOAD_BATCH_SIZE;
+    }
+
+    public Map<String, Object> stats() {
+        SuggestTrie t = trie;
+        long q = queries.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", t != null);
+        stats.put("size", t == null ? 0 : t.size());
+        stats.put("nodes", t == null ? 0 : t.nodeCount());
+        stats.put("queries", q);
+        stats.put("avgQueryMicros", q == 0 ? 0 : queryNanos.sum() / q / 1000);
+        stats.put("lastRebuildTime", lastRebuildTime);
+        return stats;
+    }
+
+    private static class Candidate {
+        private String text;
+        private Long shopId;
+        private long maxWeight = -1;
+        private long weight;
+
+        void add(String text, Long shopId, long weight) {
+            if (weight > maxWeight) {
+                this.text = text;
+                this.shopId = shopId;
+                this.maxWeight = weight;
+            }
+            this.weight += weight;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.ShopSuggestion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 前缀联想的只读字典树，构建后不可修改，更新时整体重建并替换
+ * 文本按规范化后的字典序排列，每个前缀节点对应其中连续的一段，查询时二分定位
+ * 条目较多的节点预先计算权重最高的k个条目，较少的节点查询时直接扫描
+ */
+public class SuggestTrie {
+
+    // 节点的条目数不超过该值时查询时扫描，不预先计算
+    private static final int SCAN_LIMIT = 64;
+
+    private final int k;
+    // 规范化后的文本，升序
+    private final String[] keys;
+    private final ShopSuggestion[] values;
+    private final long[] weights;
+    // 预先计算的节点，编号为 前缀长度<<32|区间起点，升序
+    private final long[] nodes;
+    // 各节点的前k个条目在tops中的起始位置，比nodes多一个结束位置
+    private final int[] topStarts;
+    private final int[] tops;
+
+    /**
+     * @param texts 原始文本，按与NameIndex相同的规则规范化，相同的文本应事先合并
+     * @param k 每个节点保留的条目数
+     */
+    public SuggestTrie(List<String> texts, List<ShopSuggestion> values, long[] weights, int k) {
+        int size = texts.size();
+        this.k = k;
+        String[] normalized = new String[size];
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            normalized[i] = NameIndex.normalize(texts.get(i));
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> normalized[a].compareTo(normalized[b]));
+        this.keys = new String[size];
+        this.values = new ShopSuggestion[size];
+        this.weights = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = normalized[order[i]];
+            this.values[i] = values.get(order[i]);
+            this.weights[i] = weights[order[i]];
+        }
+
+        // 逐层找出条目较多的节点，同一层中前缀相同的文本相邻
+        long[] nodes = new long[16];
+        int[] topStarts = new int[17];
+        int[] tops = new int[16 * k];
+        int nodeCount = 0;
+        int topCount = 0;
+        for (int depth = 1; ; depth++) {
+            boolean found = false;
+            int i = 0;
+            while (i < size) {
+                if (keys[i].length() < depth) {
+                    i++;
+                    continue;
+                }
+                int end = i + 1;
+                while (end < size && keys[end].length() >= depth
+                        && keys[end].regionMatches(0, keys[i], 0, depth)) {
+                    end++;
+                }
+                if (end - i > SCAN_LIMIT) {
+                    found = true;
+                    int[] top = select(i, end, k);
+                    if (nodeCount == nodes.length) {
+                        nodes = Arrays.copyOf(nodes, nodeCount * 2);
+                        topStarts = Arrays.copyOf(topStarts, nodeCount * 2 + 1);
+                    }
+                    if (topCount + top.length > tops.length) {
+                        tops = Arrays.copyOf(tops, Math.max(tops.length * 2, topCount + top.length));
+                    }
+                    nodes[nodeCount] = (long) depth << 32 | i;
+                    topStarts[nodeCount] = topCount;
+                    System.arraycopy(top, 0, tops, topCount, top.length);
+                    topCount += top.length;
+                    nodeCount++;
+                }
+                i = end;
+            }
+            if (!found) {
+                break;
+            }
+        }
+        topStarts[nodeCount] = topCount;
+        this.nodes = Arrays.copyOf(nodes, nodeCount);
+        this.topStarts = Arrays.copyOf(topStarts, nodeCount + 1);
+        this.tops = Arrays.copyOf(tops, topCount);
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public int nodeCount() {
+        return nodes.length;
+    }
+
+    /**
+     * 查询以prefix开头的条目
+     * @param limit 最多返回的数量，不超过构建时的k
+     * @return 按权重降序
+     */
+    public List<ShopSuggestion> suggest(String prefix, int limit) {
+        String p = NameIndex.normalize(prefix);
+        if (p.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        int from = lowerBound(p);
+        int to = lowerBound(p + Character.MAX_VALUE);
+        int[] top;
+        int node = Arrays.binarySearch(nodes, (long) p.length() << 32 | from);
+        if (to - from > SCAN_LIMIT && node >= 0) {
+            top = Arrays.copyOfRange(tops, topStarts[node], topStarts[node + 1]);
+        } else {
+            top = select(from, to, k);
+        }
+        int n = Math.min(limit, top.length);
+        List<ShopSuggestion> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            result.add(values[top[i]]);
+        }
+        return result;
+    }
+
+    // 区间内权重最高的k个条目，权重相同时字典序在前的优先
+    private int[] select(int from, int to, int k) {
+        int[] top = new int[Math.min(k, to - from)];
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            if (n == top.length && weights[i] <= weights[top[n - 1]]) {
+                continue;
+            }
+            // 插入排序，k较小
+            int j = n < top.length ? n++ : n - 1;
+            while (j > 0 && weights[top[j - 1]] < weights[i]) {
+                top[j] = top[j - 1];
+                j--;
+            }
+            top[j] = i;
+        }
+        return top;
+    }
+
+    private int lowerBound(String key) {
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,68 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+
+/**
+ * 虚拟线程工具，项目按JDK 8编译，通过反射调用JDK 21的虚拟线程API
+ * 运行时不支持虚拟线程时退回平台线程
+ */
+@Slf4j
+public class VirtualThreads {
+
+    private static final ThreadFactory FACTORY_PROBE = tryCreateFactory("probe-");
+
+    public static boolean isSupported() {
+        return FACTORY_PROBE != null;
+    }
+
+    /**
+     * 每个任务一个虚拟线程的执行器，不支持时返回fallback
+     * @param namePrefix 线程名前缀
+     * @param fallback 不支持时创建平台线程池
+     */
+    public static ExecutorService newExecutor(String namePrefix, Supplier<ExecutorService> fallback) {
+        ExecutorService executor = tryNewExecutor(namePrefix);
+        if (executor == null) {
+            log.warn("{}使用平台线程", namePrefix);
+            return fallback.get();
+        }
+        return executor;
+    }
+
+    /**
+     * 每个任务一个虚拟线程的执行器
+     * @return 不支持虚拟线程或创建失败时返回null
+     */
+    public static ExecutorService tryNewExecutor(String namePrefix) {
+        ThreadFactory factory = tryCreateFactory(namePrefix);
+        if (factory == null) {
+            log.warn("当前JDK不支持虚拟线程：{}", namePrefix);
+            return null;
+        }
+        try {
+            Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) method.invoke(null, factory);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("创建虚拟线程执行器失败：{}", namePrefix, e);
+            return null;
+        }
+    }
+
+    // Thread.ofVirtual().name(prefix, 0).factory()
+    private static ThreadFactory tryCreateFactory(String namePrefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
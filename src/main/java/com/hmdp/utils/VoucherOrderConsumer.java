@@ -0,0 +1,412 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * 从订单消息队列批量读取订单，整批交给处理方保存后一次确认
+ * 整批处理失败时逐条重试，仍失败的消息留在pending-list中，由任意消费者在空闲超时后认领重试，
+ * 投递次数超过上限的消息转入死信队列，处理方需保证重复投递时不重复下单
+ * 消息队列分区时一个消费者可以负责多个分区，一次XREADGROUP读取
+ * 负责的分区可以动态变化（如新建秒杀券的分片stream），每次检查认领时重新获取，新分区创建消费者组；
+ * 不再负责的分区中自己未确认的消息，由新负责的消费者在空闲超时后认领
+ */
+@Slf4j
+public class VoucherOrderConsumer implements Runnable {
+
+    private static final Duration BLOCK = Duration.ofSeconds(2);
+    // redis不可用时的重试间隔
+    private static final long ERROR_BACKOFF_MILLIS = 1000;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    // 获取负责的消息队列分区
+    private final Supplier<List<String>> assignment;
+    private volatile List<String> streamKeys = Collections.emptyList();
+    private final String group;
+    private final String name;
+    private final int batchSize;
+    // 保存一批订单，抛出异常时整批不确认
+    private final java.util.function.Consumer<List<VoucherOrder>> handler;
+    // 认领其他消费者消息的最小空闲时间，也是失败消息的重试间隔
+    private final Duration claimMinIdle;
+    private final long claimIntervalMillis;
+    // 投递次数达到该值后转入死信队列
+    private final int maxDeliveries;
+    private final String deadLetterKey;
+
+    private volatile boolean running = true;
+    private long nextClaimTime;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder records = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder claimed = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private volatile long pendingDepth;
+    private volatile long lastClaimTime;
+
+    /**
+     * 负责固定的分区
+     */
+    public VoucherOrderConsumer(StringRedisTemplate stringRedisTemplate, List<String> streamKeys, String group,
+                                String name, int batchSize, java.util.function.Consumer<List<VoucherOrder>> handler,
+                                Duration claimMinIdle, long claimIntervalMillis, int maxDeliveries,
+                                String deadLetterKey) {
+        this(stringRedisTemplate, () -> streamKeys, group, name, batchSize, handler,
+                claimMinIdle, claimIntervalMillis, maxDeliveries, deadLetterKey);
+        this.streamKeys = streamKeys;
+    }
+
+    /**
+     * @param assignment 获取负责的消息队列分区，每次检查认领时调用
+     * @param name 消费者名称，同一个消费者组内唯一
+     * @param claimMinIdle 消息空闲超过该时间后可被认领
+     * @param claimIntervalMillis 检查可认领消息的间隔
+     * @param maxDeliveries 最大投递次数
+     * @param deadLetterKey 死信队列
+     */
+    public VoucherOrderConsumer(StringRedisTemplate stringRedisTemplate, Supplier<List<String>> assignment,
+                                String group, String name, int batchSize,
+                                java.util.function.Consumer<List<VoucherOrder>> handler, Duration claimMinIdle,
+                                long claimIntervalMillis, int maxDeliveries, String deadLetterKey) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.assignment = assignment;
+        this.group = group;
+        this.name = name;
+        this.batchSize = Math.max(1, batchSize);
+        this.handler = handler;
+        this.claimMinIdle = claimMinIdle;
+        this.claimIntervalMillis = claimIntervalMillis;
+        this.maxDeliveries = Math.max(1, maxDeliveries);
+        this.deadLetterKey = deadLetterKey;
+    }
+
+    /**
+     * 将分区分配给本节点的第index个消费者
+     * 消费者少于分区时按分区名哈希分配，每个消费者负责多个分区，分区增减时其他分区的消费者不变；
+     * 否则多个消费者通过消费者组共同消费一个分区
+     */
+    public static List<String> assign(List<String> streamKeys, int consumers, int index) {
+        int partitions = streamKeys.size();
+        if (partitions == 0) {
+            return Collections.emptyList();
+        }
+        if (consumers >= partitions) {
+            return Collections.singletonList(streamKeys.get(index % partitions));
+        }
+        List<String> assigned = new ArrayList<>();
+        for (String streamKey : streamKeys) {
+            if (Math.floorMod(streamKey.hashCode(), consumers) == index) {
+                assigned.add(streamKey);
+            }
+        }
+        return assigned;
+    }
+
+    @Override
+    public void run() {
+        // 创建消费者组并处理重启前自己未确认的消息，redis不可用时等待
+        while (running) {
+            try {
+                createGroups();
+                handlePendingList();
+                break;
+            } catch (Exception e) {
+                log.error("初始化订单消费者失败：{}", name, e);
+                if (!sleep(ERROR_BACKOFF_MILLIS)) {
+                    return;
+                }
+            }
+        }
+        while (running) {
+            try {
+                // 定期更新负责的分区，并认领空闲超时的消息，包括其他节点宕机前未确认的消息
+                if (System.currentTimeMillis() >= nextClaimTime) {
+                    refreshAssignment();
+                    claimIdle();
+                    nextClaimTime = System.currentTimeMillis() + claimIntervalMillis;
+                }
+                // 获取消息队列中的订单信息，没有消息时下一次循环
+                poll(ReadOffset.lastConsumed(), BLOCK);
+            } catch (Exception e) {
+                if (!running) {
+                    break;
+                }
+                log.error("处理订单异常情况", e);
+                if (!sleep(ERROR_BACKOFF_MILLIS)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * 不阻塞地处理完当前所有新消息
+     * @return 处理的消息数
+     */
+    public long drain() {
+        long total = 0;
+        int n;
+        while ((n = poll(ReadOffset.lastConsumed(), null)) > 0) {
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * 获取负责的分区并创建消费者组，stream不存在时一并创建，已存在时忽略
+     */
+    public void createGroups() {
+        List<String> keys = assignment.get();
+        createGroups(keys);
+        streamKeys = keys;
+    }
+
+    // 负责的分区变化时为新分区创建消费者组
+    private void refreshAssignment() {
+        List<String> keys = assignment.get();
+        if (keys.equals(streamKeys)) {
+            return;
+        }
+        List<String> added = new ArrayList<>(keys);
+        added.removeAll(streamKeys);
+        createGroups(added);
+        log.info("订单消费者负责的分区变化：{} {}", name, keys);
+        streamKeys = keys;
+    }
+
+    private void createGroups(List<String> keys) {
+        for (String streamKey : keys) {
+            try {
+                stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                        .xGroupCreate(bytes(streamKey), group, ReadOffset.from("0"), true));
+                log.info("创建消费者组：{} {}", streamKey, group);
+            } catch (RuntimeException e) {
+                if (!isBusyGroup(e)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    // 逐批读取自己的pending-list，每条消息读取一次，处理失败的留给认领重试
+    private void handlePendingList() {
+        Map<String, String> from = new HashMap<>();
+        for (String streamKey : streamKeys) {
+            from.put(streamKey, "0");
+        }
+        while (running && !from.isEmpty()) {
+            for (String streamKey : new ArrayList<>(from.keySet())) {
+                List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(group, name),
+                        StreamReadOptions.empty().count(batchSize),
+                        StreamOffset.create(streamKey, ReadOffset.from(from.get(streamKey))));
+                if (list == null || list.isEmpty()) {
+                    from.remove(streamKey);
+                    continue;
+                }
+                process(list);
+                from.put(streamKey, list.get(list.size() - 1).getId().getValue());
+            }
+        }
+    }
+
+    // 读取一批新消息，保存订单后一次确认
+    private int poll(ReadOffset offset, Duration block) {
+        List<String> streamKeys = this.streamKeys;
+        if (streamKeys.isEmpty()) {
+            // 没有负责的分区时等待下次更新
+            if (block != null) {
+                sleep(block.toMillis());
+            }
+            return 0;
+        }
+        StreamReadOptions options = StreamReadOptions.empty().count(batchSize);
+        if (block != null) {
+            options = options.block(block);
+        }
+        @SuppressWarnings("unchecked")
+        StreamOffset<String>[] offsets = new StreamOffset[streamKeys.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = StreamOffset.create(streamKeys.get(i), offset);
+        }
+        List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                Consumer.from(group, name), options, offsets);
+        if (list == null || list.isEmpty()) {
+            return 0;
+        }
+        process(list);
+        return list.size();
+    }
+
+    /**
+     * 认领各分区中空闲超时的消息并处理，投递次数达到上限的转入死信队列
+     * 多个消费者同时认领同一条消息时只有一个成功
+     */
+    public void claimIdle() {
+        long depth = 0;
+        for (String streamKey : streamKeys) {
+            depth += stringRedisTemplate.opsForStream().pending(streamKey, group).getTotalPendingMessages();
+            PendingMessages pending = stringRedisTemplate.opsForStream()
+                    .pending(streamKey, group, Range.unbounded(), batchSize);
+            List<RecordId> retry = new ArrayList<>();
+            List<RecordId> dead = new ArrayList<>();
+            for (PendingMessage message : pending) {
+                if (message.getElapsedTimeSinceLastDelivery().compareTo(claimMinIdle) < 0) {
+                    continue;
+                }
+                if (message.getTotalDeliveryCount() >= maxDeliveries) {
+                    dead.add(message.getId());
+                } else {
+                    retry.add(message.getId());
+                }
+            }
+            if (!dead.isEmpty()) {
+                deadLetter(streamKey, claim(streamKey, dead));
+            }
+            if (!retry.isEmpty()) {
+                List<MapRecord<String, String, String>> list = claim(streamKey, retry);
+                claimed.add(list.size());
+                if (!list.isEmpty()) {
+                    log.info("认领空闲订单消息：{}，数量：{}", streamKey, list.size());
+                    process(list);
+                }
+            }
+        }
+        pendingDepth = depth;
+        lastClaimTime = System.currentTimeMillis();
+    }
+
+    // XCLAIM，空闲时间不足（已被其他消费者认领）的消息不返回
+    private List<MapRecord<String, String, String>> claim(String streamKey, List<RecordId> ids) {
+        List<ByteRecord> list = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.streamCommands().xClaim(bytes(streamKey), group, name,
+                        RedisStreamCommands.XClaimOptions.minIdle(claimMinIdle).ids(ids)));
+        if (list == null) {
+            return Collections.emptyList();
+        }
+        return list.stream()
+                .map(record -> record.deserialize(RedisSerializer.string()))
+                .collect(Collectors.toList());
+    }
+
+    // 原消息内容及来源写入死信队列后确认
+    private void deadLetter(String streamKey, List<MapRecord<String, String, String>> list) {
+        for (MapRecord<String, String, String> record : list) {
+            Map<String, String> values = new LinkedHashMap<>(record.getValue());
+            values.put("stream", streamKey);
+            values.put("recordId", record.getId().getValue());
+            values.put("consumer", name);
+            stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(deadLetterKey).ofMap(values));
+            stringRedisTemplate.opsForStream().acknowledge(streamKey, group, record.getId());
+            deadLettered.increment();
+            log.error("订单消息多次处理失败，转入死信队列：{} {} {}", streamKey, record.getId(), values);
+        }
+    }
+
+    // 整批处理，失败时逐条处理找出失败的消息，失败的不确认
+    private void process(List<? extends MapRecord<String, ?, ?>> list) {
+        try {
+            handle(list);
+        } catch (RuntimeException e) {
+            if (list.size() == 1) {
+                failures.increment();
+                log.error("处理订单异常情况：{}", list.get(0).getId(), e);
+                return;
+            }
+            log.error("批量处理订单异常，逐条重试，数量：{}", list.size(), e);
+            for (MapRecord<String, ?, ?> record : list) {
+                process(Collections.singletonList(record));
+            }
+        }
+    }
+
+    private void handle(List<? extends MapRecord<String, ?, ?>> list) {
+        // 解析订单信息，按分区记录待确认的消息
+        List<VoucherOrder> orders = new ArrayList<>(list.size());
+        Map<String, List<RecordId>> ids = new LinkedHashMap<>();
+        for (MapRecord<String, ?, ?> record : list) {
+            orders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+            ids.computeIfAbsent(record.getStream(), k -> new ArrayList<>()).add(record.getId());
+        }
+
+        // 保存订单并确认，每个分区一次XACK
+        handler.accept(orders);
+        ids.forEach((streamKey, recordIds) -> stringRedisTemplate.opsForStream()
+                .acknowledge(streamKey, group, recordIds.toArray(new RecordId[0])));
+        batches.increment();
+        records.add(list.size());
+    }
+
+    public Map<String, Object> stats() {
+        long b = batches.sum();
+        long r = records.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("name", name);
+        stats.put("streams", streamKeys);
+        stats.put("batches", b);
+        stats.put("records", r);
+        stats.put("avgBatchSize", b == 0 ? 0 : r / b);
+        stats.put("failures", failures.sum());
+        stats.put("pendingDepth", pendingDepth);
+        stats.put("claimed", claimed.sum());
+        stats.put("deadLettered", deadLettered.sum());
+        stats.put("lastClaimTime", lastClaimTime);
+        return stats;
+    }
+
+    private static boolean isBusyGroup(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().contains("BUSYGROUP")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
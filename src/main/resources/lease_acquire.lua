@@ -0,0 +1,13 @@
+-- 获取缓存填充租约
+-- KEYS[1] 租约key
+-- ARGV[1] 租约token，ARGV[2] 租约有效期（毫秒）
+-- 获取成功返回0，否则返回租约剩余毫秒数，作为热点未命中的退避提示
+if redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then
+    return 0
+end
+local ttl = redis.call('pttl', KEYS[1])
+if ttl <= 0 then
+    -- 租约刚好失效，提示立即重试
+    return 1
+end
+return ttl
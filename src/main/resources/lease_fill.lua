@@ -0,0 +1,17 @@
+-- 持有租约时写入缓存并释放租约
+-- KEYS[1] 租约key，KEYS[2] 缓存key
+-- ARGV[1] 租约token，ARGV[2] 缓存值，ARGV[3] 过期毫秒数（大于0设置过期时间，0为不过期，小于0为删除缓存）
+-- 租约已被作废或被其他节点持有时返回0，不写入
+if redis.call('get', KEYS[1]) ~= ARGV[1] then
+    return 0
+end
+local ttl = tonumber(ARGV[3])
+if ttl > 0 then
+    redis.call('set', KEYS[2], ARGV[2], 'PX', ttl)
+elseif ttl == 0 then
+    redis.call('set', KEYS[2], ARGV[2])
+else
+    redis.call('del', KEYS[2])
+end
+redis.call('del', KEYS[1])
+return 1
@@ -1,15 +1,19 @@
-local voucherId = ARGV[1]
-local userId = ARGV[2]
-local orderId = ARGV[3]
-local stockKey = 'seckill:stock:' .. voucherId
-local orderKey = 'seckill:order:' .. voucherId
-if(tonumber(redis.call('get', stockKey)) <= 0) then
+-- 秒杀下单，在用户所在的库存分片上执行
+-- KEYS[1] 分片库存，KEYS[2] 分片的下单用户集合，KEYS[3] 分片的订单消息队列，分片秒杀券的三个key位于同一slot
+-- ARGV[1] 用户id，ARGV[2] 优惠券id，ARGV[3] 订单id，ARGV[4] 是否有其他分片可以借库存
+-- 返回0下单成功，1库存不足，2重复下单，3本分片库存不足但已占用下单资格，需到其他分片扣减
+local userId = ARGV[1]
+local stock = tonumber(redis.call('get', KEYS[1]) or '0')
+if(stock <= 0 and ARGV[4] ~= '1') then
     return 1
 end
-if(redis.call('sismember', orderKey, userId) == 1) then
+if(redis.call('sismember', KEYS[2], userId) == 1) then
     return 2
 end
-redis.call('incrby', stockKey, -1)
-redis.call('sadd', orderKey, userId)
-redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId,'id', orderId)
-return 0
\ No newline at end of file
+redis.call('sadd', KEYS[2], userId)
+if(stock <= 0) then
+    return 3
+end
+redis.call('incrby', KEYS[1], -1)
+redis.call('xadd', KEYS[3], '*', 'userId', userId, 'voucherId', ARGV[2], 'id', ARGV[3])
+return 0
@@ -0,0 +1,10 @@
+-- 用户所在分片库存不足时，到其他分片扣减库存，下单资格已在用户所在分片占用
+-- KEYS[1] 分片库存，KEYS[2] 该分片的订单消息队列，两个key位于同一slot
+-- ARGV[1] 用户id，ARGV[2] 优惠券id，ARGV[3] 订单id
+-- 返回0下单成功，1库存不足
+if(tonumber(redis.call('get', KEYS[1]) or '0') <= 0) then
+    return 1
+end
+redis.call('incrby', KEYS[1], -1)
+redis.call('xadd', KEYS[2], '*', 'userId', ARGV[1], 'voucherId', ARGV[2], 'id', ARGV[3])
+return 0
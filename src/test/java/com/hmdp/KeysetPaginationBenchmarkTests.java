@@ -0,0 +1,116 @@
+package com.hmdp;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.entity.Blog;
+import com.hmdp.service.IBlogService;
+import com.hmdp.utils.CursorUtils;
+import com.hmdp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 深分页时OFFSET分页与游标分页的耗时对比，需要本地MySQL和Redis
+ * mvn test -Pbenchmark -Dtest=KeysetPaginationBenchmarkTests
+ */
+@SpringBootTest
+@Slf4j
+@Tag("benchmark")
+class KeysetPaginationBenchmarkTests {
+
+    // 不存在的用户，测试数据只属于该用户
+    private static final long USER_ID = -1000L;
+    private static final int BLOGS = 10000;
+    private static final int PAGE = 1000;
+    private static final int ROUNDS = 200;
+
+    @Resource
+    private IBlogService blogService;
+
+    @BeforeEach
+    void setUp() {
+        List<Blog> blogs = new ArrayList<>(BLOGS);
+        for (int i = 0; i < BLOGS; i++) {
+            Blog blog = new Blog();
+            blog.setShopId(1L);
+            blog.setUserId(USER_ID);
+            blog.setTitle("keyset-" + i);
+            blog.setImages("");
+            blog.setContent("keyset benchmark");
+            blog.setLiked(0);
+            blog.setComments(0);
+            blogs.add(blog);
+        }
+        blogService.saveBatch(blogs, 1000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        blogService.remove(new QueryWrapper<Blog>().eq("user_id", USER_ID));
+    }
+
+    @Test
+    void benchmarkPage1000() {
+        int pageSize = SystemConstants.MAX_PAGE_SIZE;
+        int offset = (PAGE - 1) * pageSize;
+        // 第1000页之前最后一条的id作为游标
+        Long lastId = blogService.query()
+                .eq("user_id", USER_ID)
+                .orderByAsc("id")
+                .last("LIMIT " + (offset - 1) + ", 1")
+                .one()
+                .getId();
+        String cursor = CursorUtils.encode(lastId);
+
+        List<Blog> expected = blogService.query()
+                .eq("user_id", USER_ID)
+                .orderByAsc("id")
+                .page(new Page<>(PAGE, pageSize))
+                .getRecords();
+        List<Blog> actual = blogService.query()
+                .eq("user_id", USER_ID)
+                .gt("id", CursorUtils.decodeId(cursor))
+                .orderByAsc("id")
+                .last("LIMIT " + pageSize)
+                .list();
+        assertEquals(expected, actual);
+
+        run("offset + count", () -> blogService.query()
+                .eq("user_id", USER_ID)
+                .orderByAsc("id")
+                .page(new Page<>(PAGE, pageSize)));
+        run("offset", () -> blogService.query()
+                .eq("user_id", USER_ID)
+                .orderByAsc("id")
+                .page(new Page<>(PAGE, pageSize, false)));
+        run("keyset", () -> blogService.queryBlogOfUser(USER_ID, cursor));
+    }
+
+    private static void run(String name, Supplier<Object> task) {
+        // 预热
+        for (int i = 0; i < ROUNDS / 4; i++) {
+            task.get();
+        }
+        long[] latencies = new long[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            task.get();
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        log.info(String.format("%-16s p50 = %7.2f ms, p99 = %7.2f ms",
+                name, latencies[ROUNDS / 2] / 1e6, latencies[ROUNDS * 99 / 100] / 1e6));
+    }
+}
@@ -0,0 +1,101 @@
+package com.hmdp;
+
+import com.hmdp.utils.VirtualThreads;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 平台线程与虚拟线程的压测对比，需要本地MySQL和Redis
+ * 分别执行以下命令对比两次输出：
+ * mvn test -Pbenchmark -Dtest=ThreadModeLoadTests -Dhmdp.virtual-threads.enabled=false
+ * mvn test -Pbenchmark -Dtest=ThreadModeLoadTests -Dhmdp.virtual-threads.enabled=true （需要JDK 21）
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@Slf4j
+@Tag("benchmark")
+class ThreadModeLoadTests {
+
+    private static final int CONCURRENCY = 500;
+    private static final int REQUESTS = 20000;
+
+    @LocalServerPort
+    private int port;
+
+    @Value("${hmdp.virtual-threads.enabled:false}")
+    private boolean virtualThreads;
+
+    @Test
+    void loadShopById() throws Exception {
+        run("/shop/1");
+    }
+
+    @Test
+    void loadHotBlog() throws Exception {
+        run("/blog/hot?current=1");
+    }
+
+    private void run(String path) throws Exception {
+        String mode = virtualThreads && VirtualThreads.isSupported() ? "virtual" : "platform";
+        URL url = new URL("http://localhost:" + port + path);
+        // 预热
+        for (int i = 0; i < 200; i++) {
+            request(url);
+        }
+
+        long[] latencies = new long[REQUESTS];
+        AtomicInteger index = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(REQUESTS);
+        ExecutorService es = Executors.newFixedThreadPool(CONCURRENCY);
+        long begin = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            es.submit(() -> {
+                long start = System.nanoTime();
+                try {
+                    if (request(url) != 200) {
+                        errors.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    errors.incrementAndGet();
+                } finally {
+                    latencies[index.getAndIncrement()] = System.nanoTime() - start;
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        long elapsed = System.nanoTime() - begin;
+        es.shutdown();
+
+        Arrays.sort(latencies);
+        log.info(String.format("%s %s: %.0f req/s, p50 = %.2f ms, p99 = %.2f ms, errors = %d",
+                mode, path, REQUESTS * 1e9 / elapsed,
+                latencies[REQUESTS / 2] / 1e6, latencies[REQUESTS * 99 / 100] / 1e6, errors.get()));
+    }
+
+    private static int request(URL url) throws Exception {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        try (InputStream in = conn.getInputStream()) {
+            byte[] buf = new byte[4096];
+            while (in.read(buf) != -1) {
+                // 读完响应体以复用连接
+            }
+            return conn.getResponseCode();
+        } finally {
+            conn.disconnect();
+        }
+    }
+}
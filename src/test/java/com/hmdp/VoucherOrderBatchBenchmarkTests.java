@@ -0,0 +1,110 @@
+package com.hmdp;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.VoucherOrderConsumer;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 订单消息队列不同批量大小的消费吞吐对比，需要本地MySQL和Redis
+ * mvn test -Pbenchmark -Dtest=VoucherOrderBatchBenchmarkTests
+ */
+@SpringBootTest
+@Slf4j
+@Tag("benchmark")
+class VoucherOrderBatchBenchmarkTests {
+
+    // 测试用的秒杀券和消息队列，避免与真实数据冲突
+    private static final long VOUCHER_ID = 9_000_000L;
+    private static final String STREAM_KEY = "stream.orders-bench";
+    private static final String GROUP = "bench";
+    private static final int ORDERS = 5000;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @BeforeEach
+    void setUp() {
+        SeckillVoucher voucher = new SeckillVoucher()
+                .setVoucherId(VOUCHER_ID)
+                .setStock(Integer.MAX_VALUE)
+                .setBeginTime(LocalDateTime.now())
+                .setEndTime(LocalDateTime.now().plusDays(1));
+        seckillVoucherService.save(voucher);
+    }
+
+    @AfterEach
+    void tearDown() {
+        voucherOrderService.remove(new QueryWrapper<VoucherOrder>().eq("voucher_id", VOUCHER_ID));
+        seckillVoucherService.removeById(VOUCHER_ID);
+        stringRedisTemplate.delete(STREAM_KEY);
+    }
+
+    @Test
+    void benchmarkBatchSizes() {
+        long userId = 1;
+        int saved = 0;
+        for (int batchSize : new int[]{1, 10, 100, 500}) {
+            // 写入订单消息
+            stringRedisTemplate.delete(STREAM_KEY);
+            long firstUser = userId;
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (int i = 0; i < ORDERS; i++) {
+                    long u = firstUser + i;
+                    Map<byte[], byte[]> values = new HashMap<>();
+                    values.put(bytes("userId"), bytes(String.valueOf(u)));
+                    values.put(bytes("voucherId"), bytes(String.valueOf(VOUCHER_ID)));
+                    values.put(bytes("id"), bytes(String.valueOf(VOUCHER_ID * 1_000_000 + u)));
+                    connection.streamCommands().xAdd(bytes(STREAM_KEY), values);
+                }
+                return null;
+            });
+            userId += ORDERS;
+            stringRedisTemplate.opsForStream().createGroup(STREAM_KEY, ReadOffset.from("0"), GROUP);
+
+            VoucherOrderConsumer consumer = new VoucherOrderConsumer(stringRedisTemplate, Collections.singletonList(STREAM_KEY), GROUP, "c1",
+                    batchSize, voucherOrderService::createVoucherOrders, Duration.ofMinutes(1), 10000, 5, STREAM_KEY + ".dead");
+            long begin = System.nanoTime();
+            long n = consumer.drain();
+            long nanos = System.nanoTime() - begin;
+            saved += ORDERS;
+
+            log.info(String.format("batch = %3d, orders = %d, %8.0f orders/s", batchSize, n, n / (nanos / 1e9)));
+            assertEquals(ORDERS, n);
+            assertEquals(saved, voucherOrderService.query().eq("voucher_id", VOUCHER_ID).count());
+            assertEquals(0L, stringRedisTemplate.opsForStream().pending(STREAM_KEY, GROUP).getTotalPendingMessages());
+        }
+        assertEquals(Integer.MAX_VALUE - saved, seckillVoucherService.getById(VOUCHER_ID).getStock());
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,151 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+@Slf4j
+class CacheCodecBenchmarkTests {
+
+    private static final String KEY = RedisConstants.CACHE_SHOP_KEY + 1;
+    private static final int ROUNDS = 200_000;
+
+    private final CacheCodecs codecs = new CacheCodecs(new JsonCacheCodec())
+            .use(RedisConstants.CACHE_SHOP_KEY, new BinaryCacheCodec());
+
+    private Shop shop() {
+        return new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg,https://qcloud.dpfile.com/pc/IOf6VX3qaBgFXFVgp75w-KKJmWZjFc8GXDU8g9bQC6YGCpAmG00QbfT4vCCBj7njuzFvxlbkWx5uwqY2qcjixFEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vmIU_8ZGOT1OjpJmLxG6urQ.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+    }
+
+    @Test
+    void testRoundTrip() {
+        Shop shop = shop();
+        byte[] bytes = codecs.encode(KEY, shop, null);
+        assertEquals(shop, codecs.decode(KEY, bytes, Shop.class).getData());
+
+        // 逻辑过期时间写在头部
+        LocalDateTime expireTime = LocalDateTime.now().withNano(0);
+        RedisData redisData = codecs.decode(KEY, codecs.encode(KEY, shop, expireTime), Shop.class);
+        assertEquals(shop, redisData.getData());
+        assertEquals(expireTime, redisData.getExpireTime());
+    }
+
+    @Test
+    void testCompressedRoundTrip() {
+        CacheCodecs compressing = new CacheCodecs(new JsonCacheCodec())
+                .use(RedisConstants.CACHE_SHOP_KEY, new BinaryCacheCodec())
+                .compressor(new CacheCompressor(256));
+        Shop shop = shop();
+        LocalDateTime expireTime = LocalDateTime.now().withNano(0);
+        byte[] bytes = compressing.encode(KEY, shop, expireTime);
+        log.info("binary = {} bytes, compressed = {} bytes", codecs.encode(KEY, shop, null).length, bytes.length);
+        RedisData redisData = compressing.decode(KEY, bytes, Shop.class);
+        assertEquals(shop, redisData.getData());
+        assertEquals(expireTime, redisData.getExpireTime());
+        // 未开启压缩的节点也能读取
+        assertEquals(shop, codecs.decode(KEY, bytes, Shop.class).getData());
+
+        // JSON编码的压缩值带头部
+        String jsonKey = RedisConstants.CACHE_SHOP_TYPE_KEY + 1;
+        byte[] json = compressing.encode(jsonKey, shop, null);
+        assertEquals(CacheCodecs.MAGIC, json[0]);
+        assertEquals(shop, compressing.decode(jsonKey, json, Shop.class).getData());
+        log.info("{}", compressing.compressor().stats());
+    }
+
+    @Test
+    void testPeekVersion() {
+        CacheCodecs versioned = new CacheCodecs(new JsonCacheCodec())
+                .versioned(RedisConstants.CACHE_SHOP_KEY, value -> ((Shop) value).getId() * 100);
+        Shop shop = shop();
+        LocalDateTime expireTime = LocalDateTime.now().withNano(0);
+        byte[] bytes = versioned.encode(KEY, shop, expireTime);
+        byte[] header = new byte[Math.min(bytes.length, CacheCodecs.MAX_VERSION_HEADER_LENGTH)];
+        System.arraycopy(bytes, 0, header, 0, header.length);
+        assertEquals(100L, CacheCodecs.peekVersion(header));
+        RedisData redisData = versioned.decode(KEY, bytes, Shop.class);
+        assertEquals(shop, redisData.getData());
+        assertEquals(expireTime, redisData.getExpireTime());
+        // 旧格式没有版本号
+        assertNull(CacheCodecs.peekVersion(codecs.encode(KEY, shop, null)));
+        assertNull(CacheCodecs.peekVersion(JSONUtil.toJsonStr(shop).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testReadLegacyJson() {
+        Shop shop = shop();
+        // 旧格式：直接JSON
+        byte[] json = JSONUtil.toJsonStr(shop).getBytes(StandardCharsets.UTF_8);
+        Shop decoded = (Shop) codecs.decode(KEY, json, Shop.class).getData();
+        assertEquals(shop.getName(), decoded.getName());
+
+        // 旧格式：RedisData包装的逻辑过期数据
+        RedisData old = new RedisData();
+        old.setData(shop);
+        old.setExpireTime(LocalDateTime.now());
+        RedisData redisData = codecs.decode(KEY, JSONUtil.toJsonStr(old).getBytes(StandardCharsets.UTF_8), Shop.class);
+        assertNotNull(redisData.getExpireTime());
+        assertEquals(shop.getName(), ((Shop) redisData.getData()).getName());
+    }
+
+    @Test
+    @Tag("benchmark")
+    void benchmarkShopCodec() {
+        Shop shop = shop();
+        String json = JSONUtil.toJsonStr(shop);
+        byte[] binary = codecs.encode(KEY, shop, null);
+        log.info("payload json = {} bytes, binary = {} bytes", json.getBytes(StandardCharsets.UTF_8).length, binary.length);
+
+        run("json encode", () -> JSONUtil.toJsonStr(shop));
+        run("json decode", () -> JSONUtil.toBean(json, Shop.class));
+        run("binary encode", () -> codecs.encode(KEY, shop, null));
+        run("binary decode", () -> codecs.decode(KEY, binary, Shop.class));
+    }
+
+    private static void run(String name, Supplier<Object> task) {
+        // 预热
+        for (int i = 0; i < ROUNDS / 10; i++) {
+            task.get();
+        }
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocBegin = threadBean.getThreadAllocatedBytes(threadId);
+        long begin = System.nanoTime();
+        Object sink = null;
+        for (int i = 0; i < ROUNDS; i++) {
+            sink = task.get();
+        }
+        long elapsed = System.nanoTime() - begin;
+        long alloc = threadBean.getThreadAllocatedBytes(threadId) - allocBegin;
+        assertNotNull(sink);
+        log.info(String.format("%-14s %10.0f ops/s %8d B/op",
+                name, ROUNDS * 1e9 / elapsed, alloc / ROUNDS));
+    }
+}
@@ -0,0 +1,183 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 多节点争抢缓存填充租约，每个CacheClient使用独立的连接模拟一个节点
+ * 需要本地Redis，连接方式见RedisTestSupport，不可用时跳过
+ */
+@Slf4j
+class CacheLeaseContentionTests {
+
+    private static final int NODES = 4;
+    private static final int THREADS_PER_NODE = 50;
+    private static final String PREFIX = "cache:lease-test:";
+    private static final Duration LEASE_TTL = Duration.ofSeconds(10);
+
+    private final List<LettuceConnectionFactory> factories = new ArrayList<>();
+    private final List<CacheClient> nodes = new ArrayList<>();
+    private StringRedisTemplate admin;
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < NODES; i++) {
+            LettuceConnectionFactory factory = RedisTestSupport.connect();
+            factories.add(factory);
+            StringRedisTemplate stringRedisTemplate = new StringRedisTemplate(factory);
+            if (i == 0) {
+                admin = stringRedisTemplate;
+            }
+            nodes.add(new CacheClient(stringRedisTemplate, RedisTestSupport.byteTemplate(factory), 10000, 30,
+                    Collections.emptyList(), 0, 1.0, 10, 1000, 100, 3, false));
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (admin != null) {
+            admin.delete(admin.keys(PREFIX + "*"));
+            admin.delete(admin.keys("lock:lease-test:*"));
+        }
+        factories.forEach(LettuceConnectionFactory::destroy);
+    }
+
+    @Test
+    void testOnlyOneNodeFillsUnderContention() throws Exception {
+        AtomicInteger dbCalls = new AtomicInteger();
+        Function<Long, Shop> slowDb = id -> {
+            dbCalls.incrementAndGet();
+            sleep(200);
+            return new Shop().setId(id).setName("shop-" + id);
+        };
+
+        ExecutorService es = Executors.newFixedThreadPool(NODES * THREADS_PER_NODE);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Shop>> results = new ArrayList<>();
+        for (CacheClient node : nodes) {
+            for (int i = 0; i < THREADS_PER_NODE; i++) {
+                results.add(es.submit(() -> {
+                    start.await();
+                    return node.queryWithMutex(PREFIX, 1L, Shop.class, slowDb, 10L, TimeUnit.MINUTES, LEASE_TTL);
+                }));
+            }
+        }
+        start.countDown();
+        for (Future<Shop> result : results) {
+            assertEquals("shop-1", result.get(10, TimeUnit.SECONDS).getName());
+        }
+        es.shutdown();
+
+        long granted = 0;
+        long hotMisses = 0;
+        for (CacheClient node : nodes) {
+            Map<String, Object> stats = node.leaseStats();
+            granted += (Long) stats.get("granted");
+            hotMisses += (Long) stats.get("hotMisses");
+        }
+        log.info("db calls = {}, leases = {}, hot misses = {}", dbCalls.get(), granted, hotMisses);
+        assertEquals(1, dbCalls.get());
+        assertEquals(1, granted);
+        assertTrue(hotMisses > 0);
+    }
+
+    @Test
+    void testFillRejectedAfterInvalidate() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        // 节点0持有租约时读到旧数据，然后卡住
+        Function<Long, Shop> staleDb = id -> {
+            loading.countDown();
+            try {
+                resume.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new Shop().setId(id).setName("old");
+        };
+        ExecutorService es = Executors.newSingleThreadExecutor();
+        Future<Shop> slow = es.submit(() ->
+                nodes.get(0).queryWithMutex(PREFIX, 2L, Shop.class, staleDb, 10L, TimeUnit.MINUTES, LEASE_TTL));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+        // 数据更新，作废缓存及租约；其他节点重新获取租约并写入新数据
+        nodes.get(1).invalidate(PREFIX + 2);
+        Shop fresh = nodes.get(2).queryWithMutex(PREFIX, 2L, Shop.class,
+                id -> new Shop().setId(id).setName("new"), 10L, TimeUnit.MINUTES, LEASE_TTL);
+        assertEquals("new", fresh.getName());
+
+        // 旧的持有者完成加载，写入被拒绝
+        resume.countDown();
+        assertEquals("old", slow.get(5, TimeUnit.SECONDS).getName());
+        es.shutdown();
+        assertEquals(1L, nodes.get(0).leaseStats().get("rejectedFills"));
+
+        Shop cached = nodes.get(3).queryWithMutex(PREFIX, 2L, Shop.class, id -> {
+            throw new AssertionError("不应查询数据库");
+        }, 10L, TimeUnit.MINUTES, LEASE_TTL);
+        assertEquals("new", cached.getName());
+    }
+
+    @Test
+    void testBatchFillRejectedAfterInvalidate() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        // 节点0批量查询时读到旧数据，然后卡住
+        Function<List<Long>, Map<Long, Shop>> staleDb = ids -> {
+            loading.countDown();
+            try {
+                resume.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Collections.singletonMap(3L, new Shop().setId(3L).setName("old"));
+        };
+        ExecutorService es = Executors.newSingleThreadExecutor();
+        Future<List<Shop>> slow = es.submit(() -> nodes.get(0).queryBatch(
+                PREFIX, Collections.singletonList(3L), Shop.class, staleDb, 10L, TimeUnit.MINUTES, LEASE_TTL));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+        // 数据更新，作废缓存及租约；其他节点写入新数据
+        nodes.get(1).invalidate(PREFIX + 3);
+        assertEquals("new", nodes.get(2).queryWithMutex(PREFIX, 3L, Shop.class,
+                id -> new Shop().setId(id).setName("new"), 10L, TimeUnit.MINUTES, LEASE_TTL).getName());
+
+        // 批量查询完成，旧数据不回写
+        resume.countDown();
+        assertEquals("old", slow.get(5, TimeUnit.SECONDS).get(0).getName());
+        es.shutdown();
+        assertEquals(1L, nodes.get(0).leaseStats().get("rejectedFills"));
+        assertEquals("new", nodes.get(3).queryBatch(PREFIX, Collections.singletonList(3L), Shop.class, ids -> {
+            throw new AssertionError("不应查询数据库");
+        }, 10L, TimeUnit.MINUTES, LEASE_TTL).get(0).getName());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
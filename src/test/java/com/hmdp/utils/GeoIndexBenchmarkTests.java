@@ -0,0 +1,128 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Slf4j
+class GeoIndexBenchmarkTests {
+
+    private static final double CELL_DEGREES = 0.01;
+    // 杭州附近2度×2度的范围
+    private static final double MIN_X = 119.2;
+    private static final double MIN_Y = 29.3;
+    private static final double SPAN = 2.0;
+
+    private final Random random = new Random(42);
+
+    private GeoIndex randomIndex(int size, double[] xs, double[] ys) {
+        long[] ids = new long[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = i + 1;
+            xs[i] = MIN_X + random.nextDouble() * SPAN;
+            ys[i] = MIN_Y + random.nextDouble() * SPAN;
+        }
+        GeoIndex index = new GeoIndex(CELL_DEGREES);
+        index.load(ids, xs, ys, size);
+        return index;
+    }
+
+    @Test
+    void testSearchMatchesBruteForce() {
+        int size = 100_000;
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        GeoIndex index = randomIndex(size, xs, ys);
+        for (int q = 0; q < 50; q++) {
+            double x = MIN_X + random.nextDouble() * SPAN;
+            double y = MIN_Y + random.nextDouble() * SPAN;
+            List<GeoIndex.Hit> hits = index.search(x, y, 5000, Integer.MAX_VALUE);
+            List<Long> expected = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                if (GeoIndex.distance(x, y, xs[i], ys[i]) <= 5000) {
+                    expected.add(i + 1L);
+                }
+            }
+            assertEquals(expected.size(), hits.size());
+            for (int i = 1; i < hits.size(); i++) {
+                assertTrue(hits.get(i - 1).getDistance() <= hits.get(i).getDistance() + 1e-3);
+            }
+
+            // k近邻的结果与半径查询的前k个一致
+            List<GeoIndex.Hit> nearest = index.nearest(x, y, 10, 50000);
+            assertEquals(10, nearest.size());
+            List<GeoIndex.Hit> all = index.search(x, y, nearest.get(9).getDistance() + 1, Integer.MAX_VALUE);
+            assertEquals(all.get(9).getDistance(), nearest.get(9).getDistance(), 1e-3);
+        }
+    }
+
+    @Test
+    void testIncrementalUpdate() {
+        int size = 10_000;
+        GeoIndex index = randomIndex(size, new double[size], new double[size]);
+        double x = 120.15;
+        double y = 30.3;
+        // 新增
+        index.put(-1L, x, y);
+        assertEquals(-1L, index.search(x, y, 100, 1).get(0).getId());
+        // 移动
+        index.put(-1L, x + 1, y);
+        assertFalse(index.search(x, y, 100, 10).stream().anyMatch(h -> h.getId() == -1L));
+        assertEquals(-1L, index.search(x + 1, y, 100, 1).get(0).getId());
+        // 删除
+        index.remove(-1L);
+        assertFalse(index.contains(-1L));
+        // 大量更新触发合并后结果不变
+        for (long id = 1; id <= 5000; id++) {
+            index.put(id, x, y);
+        }
+        assertEquals(5000, index.search(x, y, 1, Integer.MAX_VALUE).size());
+        assertEquals(size, index.size());
+    }
+
+    @Test
+    @Tag("benchmark")
+    void benchmarkOneMillionShops() {
+        int size = 1_000_000;
+        long begin = System.nanoTime();
+        GeoIndex index = randomIndex(size, new double[size], new double[size]);
+        log.info(String.format("build %d shops: %.0f ms", size, (System.nanoTime() - begin) / 1e6));
+
+        run("search 5km limit 10", index, (x, y) -> index.search(x, y, 5000, 10).size());
+        run("search 5km all", index, (x, y) -> index.search(x, y, 5000, Integer.MAX_VALUE).size());
+        run("nearest k=10", index, (x, y) -> index.nearest(x, y, 10, 50000).size());
+    }
+
+    private interface Query {
+        int run(double x, double y);
+    }
+
+    private void run(String name, GeoIndex index, Query query) {
+        int rounds = 20_000;
+        // 预热
+        for (int i = 0; i < rounds / 4; i++) {
+            query.run(MIN_X + random.nextDouble() * SPAN, MIN_Y + random.nextDouble() * SPAN);
+        }
+        long[] latencies = new long[rounds];
+        long results = 0;
+        for (int i = 0; i < rounds; i++) {
+            double x = MIN_X + random.nextDouble() * SPAN;
+            double y = MIN_Y + random.nextDouble() * SPAN;
+            long start = System.nanoTime();
+            results += query.run(x, y);
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        log.info(String.format("%-20s avg results = %5d, p50 = %6.1f us, p99 = %6.1f us",
+                name, results / rounds, latencies[rounds / 2] / 1e3, latencies[rounds * 99 / 100] / 1e3));
+    }
+}
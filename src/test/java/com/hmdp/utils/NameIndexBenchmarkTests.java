@@ -0,0 +1,149 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Slf4j
+class NameIndexBenchmarkTests {
+
+    // 店铺名称常用字，组合生成随机名称
+    private static final String CHARS = "茶餐厅火锅烤肉小吃面馆咖啡酒吧甜品西湖大关拱墅滨江老字号家常菜海鲜自助烧烤奶茶蛋糕牛排寿司披萨"
+            + "川湘粤味道小馆时光花园城市广场东南西北中一二三号店KTV";
+
+    private final Random random = new Random(42);
+
+    private String randomName() {
+        int length = 4 + random.nextInt(9);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(CHARS.charAt(random.nextInt(CHARS.length())));
+        }
+        return sb.toString();
+    }
+
+    private NameIndex randomIndex(int size, String[] names) {
+        long[] ids = new long[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = i + 1;
+            names[i] = randomName();
+        }
+        NameIndex index = new NameIndex();
+        index.load(ids, names, size);
+        return index;
+    }
+
+    @Test
+    void testSearchMatchesBruteForce() {
+        int size = 100_000;
+        String[] names = new String[size];
+        NameIndex index = randomIndex(size, names);
+        for (int q = 0; q < 200; q++) {
+            String name = names[random.nextInt(size)];
+            int from = random.nextInt(name.length());
+            String keyword = name.substring(from, Math.min(name.length(), from + 1 + random.nextInt(3)));
+            List<Long> hits = index.search(keyword, Integer.MAX_VALUE);
+            List<Long> expected = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                if (NameIndex.normalize(names[i]).contains(NameIndex.normalize(keyword))) {
+                    expected.add(i + 1L);
+                }
+            }
+            assertEquals(expected.size(), hits.size(), keyword);
+            hits.sort(Long::compare);
+            assertEquals(expected, hits);
+        }
+    }
+
+    @Test
+    void testRanking() {
+        NameIndex index = new NameIndex();
+        index.load(new long[]{1, 2, 3, 4}, new String[]{"西湖小吃街", "小吃", "老字号小吃", "小吃 大全"}, 4);
+        // 完全相同 > 前缀匹配 > 匹配位置靠后
+        assertEquals(Arrays.asList(2L, 4L, 1L, 3L), index.search("小吃", 10));
+        assertEquals(Arrays.asList(2L, 4L), index.search("小吃", 2));
+        // 忽略大小写和空白
+        index.put(5L, "Coffee Bar");
+        assertEquals(Arrays.asList(5L), index.search("coffeebar", 10));
+    }
+
+    @Test
+    void testIncrementalUpdate() {
+        int size = 10_000;
+        NameIndex index = randomIndex(size, new String[size]);
+        // 新增
+        index.put(-1L, "独一无二的店");
+        assertEquals(Arrays.asList(-1L), index.search("独一无二", 10));
+        // 改名
+        index.put(-1L, "另一个名字");
+        assertTrue(index.search("独一无二", 10).isEmpty());
+        assertEquals(Arrays.asList(-1L), index.search("另一个", 10));
+        // 删除
+        index.remove(-1L);
+        assertFalse(index.contains(-1L));
+        // 大量更新触发合并后结果不变
+        for (long id = 1; id <= 5000; id++) {
+            index.put(id, "合并测试" + id);
+        }
+        assertEquals(5000, index.search("合并测试", Integer.MAX_VALUE).size());
+        assertEquals(Arrays.asList(4999L), index.search("合并测试4999", 10));
+        assertEquals(size, index.size());
+    }
+
+    @Test
+    @Tag("benchmark")
+    void benchmarkOneMillionShops() {
+        int size = 1_000_000;
+        String[] names = new String[size];
+        long begin = System.nanoTime();
+        NameIndex index = randomIndex(size, names);
+        log.info(String.format("build %d shops: %.0f ms", size, (System.nanoTime() - begin) / 1e6));
+
+        run("1 char", names, 1, index);
+        run("2 chars", names, 2, index);
+        run("3 chars", names, 3, index);
+        run("4 chars", names, 4, index);
+
+        // 对比逐个名称contains，相当于LIKE全表扫描
+        long scanBegin = System.nanoTime();
+        int matched = 0;
+        for (String name : names) {
+            if (name.contains("火锅")) {
+                matched++;
+            }
+        }
+        log.info(String.format("full scan: %d matched, %.2f ms", matched, (System.nanoTime() - scanBegin) / 1e6));
+    }
+
+    private void run(String name, String[] names, int length, NameIndex index) {
+        int rounds = 20_000;
+        String[] keywords = new String[rounds];
+        for (int i = 0; i < rounds; i++) {
+            String n = names[random.nextInt(names.length)];
+            int from = random.nextInt(n.length() - length + 1);
+            keywords[i] = n.substring(from, from + length);
+        }
+        // 预热
+        for (int i = 0; i < rounds / 4; i++) {
+            index.search(keywords[i], 10);
+        }
+        long[] latencies = new long[rounds];
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            index.search(keywords[i], 10);
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        log.info(String.format("%-8s limit 10 p50 = %8.1f us, p99 = %8.1f us",
+                name, latencies[rounds / 2] / 1e3, latencies[rounds * 99 / 100] / 1e3));
+    }
+}
@@ -0,0 +1,66 @@
+package com.hmdp.utils;
+
+import org.redisson.Redisson;
+import org.redisson.api.RedissonClient;
+import org.redisson.config.Config;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 依赖Redis的测试共用的连接，默认连接本地Redis的15号库，与应用使用的0号库隔离，测试可以覆盖其中的全局key
+ * 可通过系统属性 hmdp.test.redis.host、port、password、database 修改，Redis不可用时跳过测试
+ */
+final class RedisTestSupport {
+
+    static final String HOST = System.getProperty("hmdp.test.redis.host", "127.0.0.1");
+    static final int PORT = Integer.getInteger("hmdp.test.redis.port", 6379);
+    static final String PASSWORD = System.getProperty("hmdp.test.redis.password", "123456");
+    static final int DATABASE = Integer.getInteger("hmdp.test.redis.database", 15);
+
+    private RedisTestSupport() {
+    }
+
+    /**
+     * 创建连接，Redis不可用时跳过当前测试
+     */
+    static LettuceConnectionFactory connect() {
+        if (DATABASE == 0) {
+            throw new IllegalStateException("测试不能使用应用的0号库");
+        }
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(HOST, PORT);
+        config.setPassword(PASSWORD);
+        config.setDatabase(DATABASE);
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(config);
+        factory.afterPropertiesSet();
+        try (RedisConnection connection = factory.getConnection()) {
+            connection.ping();
+        } catch (Exception e) {
+            factory.destroy();
+            assumeTrue(false, "本地Redis不可用：" + e.getMessage());
+        }
+        return factory;
+    }
+
+    static RedisTemplate<String, byte[]> byteTemplate(LettuceConnectionFactory factory) {
+        RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+        template.setConnectionFactory(factory);
+        template.setKeySerializer(RedisSerializer.string());
+        template.setValueSerializer(RedisSerializer.byteArray());
+        template.afterPropertiesSet();
+        return template;
+    }
+
+    static RedissonClient redisson() {
+        Config config = new Config();
+        config.useSingleServer()
+                .setAddress("redis://" + HOST + ":" + PORT)
+                .setPassword(PASSWORD)
+                .setDatabase(DATABASE);
+        return Redisson.create(config);
+    }
+}
@@ -0,0 +1,62 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RefreshAheadTests {
+
+    private static final long COST = 50;
+    private static final int SAMPLES = 100_000;
+
+    // 距过期remaining毫秒时的刷新比例
+    private static double refreshRate(long remaining, long cost, double beta) {
+        Random random = new Random(42);
+        long now = 1_000_000;
+        int refreshed = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            // nextDouble返回[0, 1)，转换为(0, 1]
+            if (CacheClient.shouldRefreshEarly(now, now + remaining, cost, beta, 1 - random.nextDouble())) {
+                refreshed++;
+            }
+        }
+        return (double) refreshed / SAMPLES;
+    }
+
+    @Test
+    void testDisabled() {
+        assertEquals(0, refreshRate(0, COST, 0));
+        assertFalse(CacheClient.shouldRefreshEarly(0, 1, COST, 0, Double.MIN_VALUE));
+    }
+
+    @Test
+    void testExpired() {
+        // 已过期时必然刷新
+        assertEquals(1, refreshRate(0, COST, 1.0));
+        assertTrue(CacheClient.shouldRefreshEarly(100, 99, COST, 1.0, 1.0));
+    }
+
+    @Test
+    void testProbability() {
+        // 刷新概率为 exp(-remaining / (cost * beta))
+        for (long remaining : new long[]{10, 50, 100, 200}) {
+            double expected = Math.exp(-(double) remaining / COST);
+            assertEquals(expected, refreshRate(remaining, COST, 1.0), 0.01, "remaining = " + remaining);
+        }
+        // 远离过期时几乎不刷新
+        assertEquals(0, refreshRate(COST * 20, COST, 1.0));
+    }
+
+    @Test
+    void testCostAndBeta() {
+        // 重建越慢、beta越大，越早刷新
+        double base = refreshRate(100, COST, 1.0);
+        assertTrue(refreshRate(100, COST * 2, 1.0) > base);
+        assertTrue(refreshRate(100, COST, 2.0) > base);
+        assertEquals(refreshRate(100, COST * 2, 1.0), refreshRate(100, COST, 2.0), 1e-9);
+    }
+}
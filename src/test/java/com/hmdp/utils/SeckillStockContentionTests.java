@@ -0,0 +1,200 @@
+package com.hmdp.utils;
+
+import io.lettuce.core.cluster.SlotHash;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 分片秒杀库存在并发下单时不超卖、一人一单，并对比不同分片数的吞吐；售罄标记在补充库存后清除
+ * 需要本地Redis，不可用时跳过；使用RedisTestSupport的测试库
+ */
+@Slf4j
+class SeckillStockContentionTests {
+
+    // 测试用的秒杀券和消息队列，避免与真实数据冲突
+    private static final long VOUCHER_BASE = 9_000_000L;
+    private static final String STREAM_KEY = "stream.orders-test";
+    private static final int STOCK = 1000;
+    private static final int USERS = 5000;
+    private static final int THREADS = 64;
+
+    private LettuceConnectionFactory factory;
+    private StringRedisTemplate stringRedisTemplate;
+    private final List<Long> vouchers = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        factory = RedisTestSupport.connect();
+        stringRedisTemplate = new StringRedisTemplate(factory);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (stringRedisTemplate != null) {
+            for (Long voucherId : vouchers) {
+                stringRedisTemplate.delete(stringRedisTemplate.keys(RedisConstants.SECKILL_STOCK_KEY + "{" + voucherId + ":*"));
+                stringRedisTemplate.delete(stringRedisTemplate.keys(RedisConstants.SECKILL_ORDER_KEY + "{" + voucherId + ":*"));
+                stringRedisTemplate.delete(RedisConstants.SECKILL_SHARDS_KEY + voucherId);
+            }
+            stringRedisTemplate.delete(stringRedisTemplate.keys(STREAM_KEY + "*"));
+        }
+        if (factory != null) {
+            factory.destroy();
+        }
+    }
+
+    @Test
+    void testNoOversellAcrossShardCounts() throws Exception {
+        for (int shards : new int[]{1, 4, 16}) {
+            stringRedisTemplate.delete(stringRedisTemplate.keys(STREAM_KEY + "*"));
+            long voucherId = VOUCHER_BASE + shards;
+            vouchers.add(voucherId);
+            SeckillStock stock = new SeckillStock(stringRedisTemplate, shards, STREAM_KEY, 1, 60);
+            stock.init(voucherId, STOCK);
+
+            // 每个用户并发下单两次
+            Set<Long> buyers = ConcurrentHashMap.newKeySet();
+            AtomicInteger ok = new AtomicInteger();
+            AtomicInteger duplicate = new AtomicInteger();
+            ExecutorService es = Executors.newFixedThreadPool(THREADS);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            AtomicInteger next = new AtomicInteger();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(es.submit(() -> {
+                    start.await();
+                    int i;
+                    while ((i = next.getAndIncrement()) < USERS * 2) {
+                        long userId = 1 + i % USERS;
+                        int r = stock.deduct(voucherId, userId, (long) i);
+                        if (r == SeckillStock.OK) {
+                            ok.incrementAndGet();
+                            assertTrue(buyers.add(userId), "重复下单：" + userId);
+                        } else if (r == SeckillStock.DUPLICATE) {
+                            duplicate.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            long nanos = System.nanoTime() - begin;
+            es.shutdown();
+
+            long claimed = 0;
+            long messages = 0;
+            for (int i = 0; i < shards; i++) {
+                claimed += stringRedisTemplate.opsForSet().size(SeckillStock.orderKey(voucherId, shards, i));
+                assertTrue(Long.parseLong(stringRedisTemplate.opsForValue()
+                        .get(SeckillStock.stockKey(voucherId, shards, i))) >= 0);
+                // 分片的库存、用户集合和stream位于同一slot
+                String streamKey = stock.streamKey(voucherId, i);
+                int slot = SlotHash.getSlot(SeckillStock.stockKey(voucherId, shards, i));
+                assertEquals(slot, SlotHash.getSlot(SeckillStock.orderKey(voucherId, shards, i)));
+                assertEquals(slot, SlotHash.getSlot(streamKey));
+                assertTrue(stock.streamKeys().contains(streamKey));
+                messages += stringRedisTemplate.opsForStream().size(streamKey);
+            }
+            log.info(String.format("shards = %d, requests = %d, ok = %d, duplicate = %d, borrows = %s, throughput = %.0f req/s",
+                    shards, USERS * 2, ok.get(), duplicate.get(), stock.stats().get("borrows"),
+                    USERS * 2 / (nanos / 1e9)));
+            assertEquals(STOCK, ok.get());
+            assertEquals(0, stock.remaining(voucherId));
+            // 库存不足时释放了占用的下单资格
+            assertEquals(STOCK, claimed);
+            assertEquals(STOCK, messages);
+        }
+    }
+
+    @Test
+    void testSoldOutFlagResetOnRestock() {
+        long voucherId = VOUCHER_BASE;
+        vouchers.add(voucherId);
+        SeckillStock stock = new SeckillStock(stringRedisTemplate, 4, STREAM_KEY, 1, 60);
+        stock.init(voucherId, 2);
+        assertEquals(SeckillStock.OK, stock.deduct(voucherId, 1L, 1L));
+        assertEquals(SeckillStock.OK, stock.deduct(voucherId, 2L, 2L));
+        assertFalse(stock.isSoldOut(voucherId));
+        assertEquals(SeckillStock.SOLD_OUT, stock.deduct(voucherId, 3L, 3L));
+        assertTrue(stock.isSoldOut(voucherId));
+
+        // 其他节点收到售罄广播
+        SeckillStock other = new SeckillStock(stringRedisTemplate, 4, STREAM_KEY, 1, 60);
+        other.onSoldOutMessage(voucherId + ":1");
+        assertTrue(other.isSoldOut(voucherId));
+
+        // 补充库存后清除标记，售罄时未占用下单资格
+        stock.restock(voucherId, 1);
+        other.onSoldOutMessage(voucherId + ":0");
+        assertFalse(stock.isSoldOut(voucherId));
+        assertFalse(other.isSoldOut(voucherId));
+        assertEquals(SeckillStock.OK, other.deduct(voucherId, 3L, 4L));
+        assertEquals(0, stock.remaining(voucherId));
+    }
+
+    @Test
+    void testRetireDrainedStreams() {
+        long voucherId = VOUCHER_BASE + 100;
+        vouchers.add(voucherId);
+        SeckillStock stock = new SeckillStock(stringRedisTemplate, 2, STREAM_KEY, 1, 60);
+        stock.init(voucherId, 10);
+        assertEquals(SeckillStock.OK, stock.deduct(voucherId, 1L, 1L));
+        assertTrue(stock.shardedVouchers().contains(voucherId));
+
+        VoucherOrderConsumer consumer = new VoucherOrderConsumer(stringRedisTemplate, stock.streamKeys(), "g1",
+                "node-a-0", 10, orders -> {
+        }, Duration.ofMinutes(1), 10000, 5, STREAM_KEY + ".dead");
+        consumer.createGroups();
+
+        // 秒杀结束后不再接受下单；订单消息未处理时不退役
+        assertFalse(stock.retireStreams(voucherId, Duration.ofMinutes(1)));
+        assertEquals(SeckillStock.SOLD_OUT, stock.deduct(voucherId, 2L, 2L));
+        assertTrue(stock.shardedVouchers().contains(voucherId));
+
+        // 消息都已确认后移出登记集合，消费者不再分配这些stream
+        assertEquals(1, consumer.drain());
+        assertTrue(stock.retireStreams(voucherId, Duration.ofMinutes(1)));
+        assertFalse(stock.shardedVouchers().contains(voucherId));
+        for (int i = 0; i < 2; i++) {
+            assertFalse(stock.streamKeys().contains(stock.streamKey(voucherId, i)));
+        }
+    }
+
+    @Test
+    void testAssignStableWhenStreamsRetire() {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            keys.add(STREAM_KEY + ":{" + (VOUCHER_BASE + i) + ":0}");
+        }
+        List<String> before = VoucherOrderConsumer.assign(keys, 3, 1);
+        List<String> retired = new ArrayList<>(keys.subList(0, 5));
+        List<String> remaining = new ArrayList<>(keys.subList(5, keys.size()));
+        List<String> after = VoucherOrderConsumer.assign(remaining, 3, 1);
+        before.removeAll(retired);
+        assertEquals(before, after);
+    }
+}
@@ -0,0 +1,179 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Slf4j
+class ShopFacetIndexBenchmarkTests {
+
+    private static final long[] PRICE_BOUNDS = {50, 100, 200, 500};
+    private static final int[] SCORE_THRESHOLDS = {30, 35, 40, 45};
+    private static final int TYPES = 10;
+    private static final int AREAS = 200;
+
+    private final Random random = new Random(42);
+
+    private long[] typeIds;
+    private String[] areas;
+    private long[] prices;
+    private int[] scores;
+
+    private ShopFacetIndex randomIndex(int size) {
+        long[] ids = new long[size];
+        typeIds = new long[size];
+        areas = new String[size];
+        prices = new long[size];
+        scores = new int[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = i + 1;
+            typeIds[i] = 1 + random.nextInt(TYPES);
+            // 商圈分布不均匀
+            areas[i] = "area" + (int) (AREAS * Math.pow(random.nextDouble(), 2));
+            prices[i] = random.nextInt(800);
+            scores[i] = 20 + random.nextInt(31);
+        }
+        ShopFacetIndex index = new ShopFacetIndex(PRICE_BOUNDS, SCORE_THRESHOLDS, null, null);
+        index.load(ids, typeIds, areas, prices, scores, size);
+        return index;
+    }
+
+    private CompactBitmap bitmap(BitSet bits) {
+        int[] values = bits.stream().toArray();
+        return CompactBitmap.of(values, values.length);
+    }
+
+    private BitSet randomBits(int range, double density) {
+        BitSet bits = new BitSet(range);
+        for (int i = 0; i < range; i++) {
+            if (random.nextDouble() < density) {
+                bits.set(i);
+            }
+        }
+        return bits;
+    }
+
+    @Test
+    void testBitmapMatchesBitSet() {
+        double[] densities = {0.001, 0.05, 0.5};
+        for (double da : densities) {
+            for (double db : densities) {
+                BitSet a = randomBits(500_000, da);
+                BitSet b = randomBits(500_000, db);
+                CompactBitmap x = bitmap(a);
+                CompactBitmap y = bitmap(b);
+                BitSet and = (BitSet) a.clone();
+                and.and(b);
+                BitSet or = (BitSet) a.clone();
+                or.or(b);
+                assertArrayEquals(and.stream().toArray(), x.and(y).toArray(0, Integer.MAX_VALUE));
+                assertArrayEquals(or.stream().toArray(), x.or(y).toArray(0, Integer.MAX_VALUE));
+                assertEquals(and.cardinality(), x.andCardinality(y));
+                assertEquals(a.cardinality(), x.cardinality());
+                assertArrayEquals(a.stream().skip(100).limit(20).toArray(), x.toArray(100, 20));
+                assertArrayEquals(a.stream().filter(i -> i % 3 == 0).toArray(),
+                        x.filter(i -> i % 3 == 0).toArray(0, Integer.MAX_VALUE));
+                int[] iterated = new int[a.cardinality()];
+                CompactBitmap.PrimitiveIterator it = x.iterator();
+                for (int i = 0; it.hasNext(); i++) {
+                    iterated[i] = it.next();
+                }
+                assertArrayEquals(a.stream().toArray(), iterated);
+                assertTrue(a.stream().limit(100).allMatch(x::contains));
+            }
+        }
+    }
+
+    @Test
+    void testSelectMatchesBruteForce() {
+        int size = 200_000;
+        ShopFacetIndex index = randomIndex(size);
+        for (int q = 0; q < 100; q++) {
+            long typeId = 1 + random.nextInt(TYPES);
+            List<String> area = random.nextBoolean() ? null
+                    : Arrays.asList("area" + random.nextInt(AREAS), "area" + random.nextInt(AREAS));
+            Long minPrice = random.nextBoolean() ? null : (long) random.nextInt(300);
+            Long maxPrice = random.nextBoolean() ? null : (long) (100 + random.nextInt(600));
+            Integer minScore = random.nextBoolean() ? null : 25 + random.nextInt(25);
+            ShopFacetIndex.Selection selection = index.select(typeId, null, area, minPrice, maxPrice, minScore);
+
+            List<Long> expected = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                if (typeIds[i] == typeId
+                        && (area == null || area.contains(areas[i]))
+                        && (minPrice == null || prices[i] >= minPrice)
+                        && (maxPrice == null || prices[i] <= maxPrice)
+                        && (minScore == null || scores[i] >= minScore)) {
+                    expected.add(i + 1L);
+                }
+            }
+            assertEquals(expected.size(), selection.total());
+            assertEquals(expected.subList(0, Math.min(5, expected.size())), selection.ids(0, 5));
+
+            // 商圈的数量不受商圈条件影响
+            Map<String, Integer> areaCounts = selection.getFacets().get("area");
+            String someArea = "area" + random.nextInt(AREAS);
+            long count = IntStream.range(0, size).filter(i -> typeIds[i] == typeId
+                    && areas[i].equals(someArea)
+                    && (minPrice == null || prices[i] >= minPrice)
+                    && (maxPrice == null || prices[i] <= maxPrice)
+                    && (minScore == null || scores[i] >= minScore)).count();
+            assertEquals(count, (long) areaCounts.getOrDefault(someArea, 0));
+        }
+
+        // 限定范围
+        List<Long> scope = Arrays.asList(1L, 2L, 3L, 4L, 5L);
+        ShopFacetIndex.Selection selection = index.select(typeIds[0], scope, null, null, null, null);
+        assertTrue(selection.contains(1L));
+        assertEquals(IntStream.range(0, 5).filter(i -> typeIds[i] == typeIds[0]).count(), selection.total());
+        assertEquals(0, index.select(typeIds[0], Collections.emptyList(), null, null, null, null).total());
+    }
+
+    @Test
+    @Tag("benchmark")
+    void benchmarkOneMillionShops() {
+        int size = 1_000_000;
+        long begin = System.nanoTime();
+        ShopFacetIndex index = randomIndex(size);
+        log.info(String.format("build %d shops: %.0f ms, %s", size, (System.nanoTime() - begin) / 1e6, index.stats()));
+
+        int rounds = 2_000;
+        long[] latencies = new long[rounds];
+        for (int i = -rounds / 4; i < rounds; i++) {
+            long typeId = 1 + random.nextInt(TYPES);
+            List<String> area = Collections.singletonList("area" + random.nextInt(AREAS));
+            long start = System.nanoTime();
+            ShopFacetIndex.Selection selection = index.select(typeId, null, area, 50L, 199L, 40);
+            selection.ids(0, 5);
+            if (i >= 0) {
+                latencies[i] = System.nanoTime() - start;
+            }
+        }
+        Arrays.sort(latencies);
+        log.info(String.format("select with facets p50 = %.1f us, p99 = %.1f us",
+                latencies[rounds / 2] / 1e3, latencies[rounds * 99 / 100] / 1e3));
+
+        // 对比逐行判断，相当于没有索引的全表扫描
+        long scanBegin = System.nanoTime();
+        int matched = 0;
+        for (int i = 0; i < size; i++) {
+            if (typeIds[i] == 1 && areas[i].equals("area1") && prices[i] >= 50 && prices[i] <= 199 && scores[i] >= 40) {
+                matched++;
+            }
+        }
+        log.info(String.format("full scan without facets: %d matched, %.2f ms", matched, (System.nanoTime() - scanBegin) / 1e6));
+    }
+}
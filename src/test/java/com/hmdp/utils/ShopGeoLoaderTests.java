@@ -0,0 +1,88 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 店铺坐标的全量加载和增量更新
+ * 需要本地Redis，不可用时跳过；使用RedisTestSupport的测试库，不影响应用的店铺坐标数据
+ */
+class ShopGeoLoaderTests {
+
+    // 测试用的类型，避免与真实类型冲突
+    private static final long TYPE_A = 9001L;
+    private static final long TYPE_B = 9002L;
+
+    private LettuceConnectionFactory factory;
+    private StringRedisTemplate stringRedisTemplate;
+    private RedissonClient redissonClient;
+    private final List<Shop> shops = new ArrayList<>();
+    private ShopGeoLoader loader;
+
+    @BeforeEach
+    void setUp() {
+        factory = RedisTestSupport.connect();
+        stringRedisTemplate = new StringRedisTemplate(factory);
+        redissonClient = RedisTestSupport.redisson();
+
+        for (long id = 1; id <= 25_000; id++) {
+            shops.add(new Shop()
+                    .setId(id)
+                    .setTypeId(id % 2 == 0 ? TYPE_A : TYPE_B)
+                    .setX(120 + id % 1000 * 0.001)
+                    .setY(30 + id / 1000 * 0.001));
+        }
+        // 坐标缺失和超出范围的店铺跳过
+        shops.add(new Shop().setId(25_001L).setTypeId(TYPE_A));
+        shops.add(new Shop().setId(25_002L).setTypeId(TYPE_A).setX(120.0).setY(89.0));
+        loader = new ShopGeoLoader(action -> shops.forEach(action), stringRedisTemplate, redissonClient);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (stringRedisTemplate != null) {
+            stringRedisTemplate.delete(Arrays.asList(ShopGeoLoader.key(TYPE_A), ShopGeoLoader.key(TYPE_B)));
+            stringRedisTemplate.opsForSet().remove(RedisConstants.SHOP_GEO_TYPES_KEY,
+                    String.valueOf(TYPE_A), String.valueOf(TYPE_B));
+            stringRedisTemplate.delete(RedisConstants.SHOP_GEO_READY_KEY);
+            redissonClient.shutdown();
+        }
+        if (factory != null) {
+            factory.destroy();
+        }
+    }
+
+    @Test
+    void testLoadAndUpdate() {
+        assertTrue(loader.load());
+        assertTrue(loader.isReady());
+        assertEquals(12_500L, stringRedisTemplate.opsForZSet().zCard(ShopGeoLoader.key(TYPE_A)));
+        assertEquals(12_500L, stringRedisTemplate.opsForZSet().zCard(ShopGeoLoader.key(TYPE_B)));
+        List<Point> points = stringRedisTemplate.opsForGeo().position(ShopGeoLoader.key(TYPE_A), "2");
+        assertEquals(120.002, points.get(0).getX(), 1e-5);
+
+        // 类型和坐标变化
+        Shop shop = new Shop().setId(2L).setTypeId(TYPE_B).setX(121.0).setY(31.0);
+        loader.update(shop, TYPE_A);
+        assertNull(stringRedisTemplate.opsForZSet().score(ShopGeoLoader.key(TYPE_A), "2"));
+        points = stringRedisTemplate.opsForGeo().position(ShopGeoLoader.key(TYPE_B), "2");
+        assertNotNull(points.get(0));
+        assertEquals(121.0, points.get(0).getX(), 1e-5);
+        assertEquals(12_499L, stringRedisTemplate.opsForZSet().zCard(ShopGeoLoader.key(TYPE_A)));
+    }
+}
@@ -0,0 +1,94 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 店铺排行的全量重建和增量更新
+ * 需要本地Redis，不可用时跳过；使用RedisTestSupport的测试库，不影响应用的店铺排行数据
+ */
+class ShopRankingTests {
+
+    // 测试用的类型，避免与真实类型冲突
+    private static final long TYPE_A = 9001L;
+    private static final long TYPE_B = 9002L;
+
+    private LettuceConnectionFactory factory;
+    private StringRedisTemplate stringRedisTemplate;
+    private RedissonClient redissonClient;
+    private final List<Shop> shops = new ArrayList<>();
+    private ShopRanking ranking;
+
+    @BeforeEach
+    void setUp() {
+        factory = RedisTestSupport.connect();
+        stringRedisTemplate = new StringRedisTemplate(factory);
+        redissonClient = RedisTestSupport.redisson();
+
+        for (long id = 1; id <= 25_000; id++) {
+            shops.add(new Shop()
+                    .setId(id)
+                    .setTypeId(id % 2 == 0 ? TYPE_A : TYPE_B)
+                    .setScore((int) (id % 50))
+                    .setSold((int) id)
+                    .setComments((int) (25_000 - id)));
+        }
+        int batch = ShopRanking.loadBatchSize();
+        ranking = new ShopRanking(lastId -> {
+            int from = (int) (long) lastId;
+            return from >= shops.size() ? Collections.emptyList()
+                    : shops.subList(from, Math.min(shops.size(), from + batch));
+        }, stringRedisTemplate, redissonClient);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (stringRedisTemplate != null) {
+            for (ShopRanking.Field field : ShopRanking.Field.values()) {
+                stringRedisTemplate.delete(Arrays.asList(ShopRanking.key(field, TYPE_A), ShopRanking.key(field, TYPE_B)));
+            }
+            stringRedisTemplate.opsForSet().remove(RedisConstants.SHOP_RANK_TYPES_KEY,
+                    String.valueOf(TYPE_A), String.valueOf(TYPE_B));
+            stringRedisTemplate.delete(RedisConstants.SHOP_RANK_READY_KEY);
+            redissonClient.shutdown();
+        }
+        if (factory != null) {
+            factory.destroy();
+        }
+    }
+
+    @Test
+    void testRebuildAndUpdate() {
+        assertTrue(ranking.rebuild());
+        assertTrue(ranking.isReady());
+        // 销量最高的A类店铺
+        assertEquals(Arrays.asList(25_000L, 24_998L, 24_996L), ranking.range(TYPE_A, ShopRanking.Field.SOLD, 0, 3));
+        assertEquals(Arrays.asList(1L, 3L), ranking.range(TYPE_B, ShopRanking.Field.COMMENTS, 0, 2));
+        assertEquals(12_500L, stringRedisTemplate.opsForZSet().zCard(ShopRanking.key(ShopRanking.Field.SCORE, TYPE_A)));
+
+        // 销量变化
+        Shop shop = new Shop().setId(2L).setTypeId(TYPE_A).setScore(2).setSold(1_000_000).setComments(0);
+        ranking.update(shop, TYPE_A);
+        assertEquals(2L, ranking.range(TYPE_A, ShopRanking.Field.SOLD, 0, 1).get(0));
+
+        // 类型变化
+        shop.setTypeId(TYPE_B);
+        ranking.update(shop, TYPE_A);
+        assertEquals(2L, ranking.range(TYPE_B, ShopRanking.Field.SOLD, 0, 1).get(0));
+        assertEquals(25_000L, ranking.range(TYPE_A, ShopRanking.Field.SOLD, 0, 1).get(0));
+        assertEquals(12_499L, stringRedisTemplate.opsForZSet().zCard(ShopRanking.key(ShopRanking.Field.SOLD, TYPE_A)));
+    }
+}
@@ -0,0 +1,123 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.ShopSuggestion;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Slf4j
+class SuggestTrieBenchmarkTests {
+
+    private static final String CHARS = "茶餐厅火锅烤肉小吃面馆咖啡酒吧甜品西湖大关拱墅滨江老字号家常菜海鲜自助烧烤奶茶蛋糕牛排寿司披萨";
+    private static final int K = 10;
+
+    private final Random random = new Random(42);
+
+    private List<String> randomTexts(int size) {
+        // 模拟常见的前缀集中分布，前两个字从少量字中选
+        Set<String> texts = new LinkedHashSet<>();
+        while (texts.size() < size) {
+            int length = 3 + random.nextInt(8);
+            StringBuilder sb = new StringBuilder(length);
+            for (int i = 0; i < length; i++) {
+                sb.append(CHARS.charAt(random.nextInt(i < 2 ? 8 : CHARS.length())));
+            }
+            texts.add(sb.toString());
+        }
+        return new ArrayList<>(texts);
+    }
+
+    private SuggestTrie trie(List<String> texts, long[] weights) {
+        List<ShopSuggestion> values = new ArrayList<>(texts.size());
+        for (int i = 0; i < texts.size(); i++) {
+            weights[i] = random.nextInt(100_000);
+            values.add(new ShopSuggestion(texts.get(i), ShopSuggestion.TYPE_SHOP, (long) i));
+        }
+        return new SuggestTrie(texts, values, weights, K);
+    }
+
+    @Test
+    void testSuggestMatchesBruteForce() {
+        int size = 100_000;
+        List<String> texts = randomTexts(size);
+        long[] weights = new long[size];
+        SuggestTrie trie = trie(texts, weights);
+        assertTrue(trie.nodeCount() > 0);
+        for (int q = 0; q < 500; q++) {
+            String text = texts.get(random.nextInt(size));
+            String prefix = text.substring(0, 1 + random.nextInt(text.length()));
+            List<Long> expected = IntStream.range(0, size)
+                    .filter(i -> texts.get(i).startsWith(prefix))
+                    .boxed()
+                    .sorted(Comparator.<Integer>comparingLong(i -> -weights[i]).thenComparing(texts::get))
+                    .limit(K)
+                    .map(Integer::longValue)
+                    .collect(Collectors.toList());
+            List<Long> actual = trie.suggest(prefix, K).stream()
+                    .map(ShopSuggestion::getShopId)
+                    .collect(Collectors.toList());
+            assertEquals(expected, actual, prefix);
+        }
+    }
+
+    @Test
+    void testNormalizeAndLimit() {
+        List<String> texts = Arrays.asList("Starbucks 星巴克", "星巴克", "Star咖啡");
+        List<ShopSuggestion> values = new ArrayList<>();
+        for (String text : texts) {
+            values.add(new ShopSuggestion(text, ShopSuggestion.TYPE_SHOP, null));
+        }
+        SuggestTrie trie = new SuggestTrie(texts, values, new long[]{1, 3, 2}, K);
+        List<ShopSuggestion> result = trie.suggest(" star", 1);
+        assertEquals(1, result.size());
+        assertEquals("Star咖啡", result.get(0).getText());
+        assertEquals(2, trie.suggest("STAR", K).size());
+        assertTrue(trie.suggest("", K).isEmpty());
+        assertTrue(trie.suggest("不存在", K).isEmpty());
+    }
+
+    @Test
+    @Tag("benchmark")
+    void benchmarkOneMillionNames() {
+        int size = 1_000_000;
+        List<String> texts = randomTexts(size);
+        long begin = System.nanoTime();
+        SuggestTrie trie = trie(texts, new long[size]);
+        log.info(String.format("build %d names: %.0f ms, precomputed nodes = %d",
+                size, (System.nanoTime() - begin) / 1e6, trie.nodeCount()));
+
+        for (int length = 1; length <= 4; length++) {
+            int rounds = 50_000;
+            String[] prefixes = new String[rounds];
+            for (int i = 0; i < rounds; i++) {
+                String text = texts.get(random.nextInt(size));
+                prefixes[i] = text.substring(0, Math.min(length, text.length()));
+            }
+            for (int i = 0; i < rounds / 4; i++) {
+                trie.suggest(prefixes[i], K);
+            }
+            long[] latencies = new long[rounds];
+            for (int i = 0; i < rounds; i++) {
+                long start = System.nanoTime();
+                trie.suggest(prefixes[i], K);
+                latencies[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(latencies);
+            log.info(String.format("prefix %d chars p50 = %6.1f us, p99 = %6.1f us",
+                    length, latencies[rounds / 2] / 1e3, latencies[rounds * 99 / 100] / 1e3));
+        }
+    }
+}
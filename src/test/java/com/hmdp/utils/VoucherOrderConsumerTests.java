@@ -0,0 +1,106 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 订单消费者自动创建消费者组、认领宕机消费者的消息，以及毒消息转入死信队列
+ * 需要本地Redis，不可用时跳过；使用RedisTestSupport的测试库
+ */
+class VoucherOrderConsumerTests {
+
+    // 测试用的消息队列，避免与真实数据冲突
+    private static final String STREAM_KEY = "stream.orders-test";
+    private static final String DEAD_KEY = "stream.orders-test.dead";
+    private static final String GROUP = "g1";
+    private static final long POISON_USER = 3L;
+
+    private LettuceConnectionFactory factory;
+    private StringRedisTemplate stringRedisTemplate;
+
+    @BeforeEach
+    void setUp() {
+        factory = RedisTestSupport.connect();
+        stringRedisTemplate = new StringRedisTemplate(factory);
+        stringRedisTemplate.delete(Arrays.asList(STREAM_KEY, DEAD_KEY));
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (stringRedisTemplate != null) {
+            stringRedisTemplate.delete(Arrays.asList(STREAM_KEY, DEAD_KEY));
+        }
+        if (factory != null) {
+            factory.destroy();
+        }
+    }
+
+    @Test
+    void testClaimAndDeadLetter() {
+        List<VoucherOrder> saved = new ArrayList<>();
+        // 宕机的节点读取消息后没有确认
+        VoucherOrderConsumer crashed = consumer("node-a-0", orders -> {
+            throw new IllegalStateException("宕机");
+        });
+        // 不存在的stream和消费者组自动创建，重复创建忽略
+        crashed.createGroups();
+        crashed.createGroups();
+        for (long userId = 1; userId <= 5; userId++) {
+            Map<String, String> values = new HashMap<>();
+            values.put("userId", String.valueOf(userId));
+            values.put("voucherId", "1");
+            values.put("id", String.valueOf(100 + userId));
+            stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(STREAM_KEY).ofMap(values));
+        }
+        assertEquals(5, crashed.drain());
+        assertEquals(5L, stringRedisTemplate.opsForStream().pending(STREAM_KEY, GROUP).getTotalPendingMessages());
+
+        // 其他节点认领后处理，毒消息每次都失败
+        VoucherOrderConsumer healthy = consumer("node-b-0", orders -> {
+            for (VoucherOrder order : orders) {
+                if (order.getUserId() == POISON_USER) {
+                    throw new IllegalStateException("毒消息");
+                }
+            }
+            saved.addAll(orders);
+        });
+        healthy.claimIdle();
+        assertEquals(4, saved.size());
+        assertEquals(1L, stringRedisTemplate.opsForStream().pending(STREAM_KEY, GROUP).getTotalPendingMessages());
+
+        // 投递次数达到上限后转入死信队列
+        for (int i = 0; i < 3; i++) {
+            healthy.claimIdle();
+        }
+        assertEquals(4, saved.size());
+        assertEquals(0L, stringRedisTemplate.opsForStream().pending(STREAM_KEY, GROUP).getTotalPendingMessages());
+        assertEquals(1L, stringRedisTemplate.opsForStream().size(DEAD_KEY));
+        assertEquals(String.valueOf(POISON_USER), stringRedisTemplate.opsForStream()
+                .range(DEAD_KEY, Range.unbounded()).get(0).getValue().get("userId"));
+        Map<String, Object> stats = healthy.stats();
+        assertEquals(1L, stats.get("deadLettered"));
+        assertTrue((Long) stats.get("claimed") >= 5);
+    }
+
+    private VoucherOrderConsumer consumer(String name, java.util.function.Consumer<List<VoucherOrder>> handler) {
+        return new VoucherOrderConsumer(stringRedisTemplate, Collections.singletonList(STREAM_KEY), GROUP, name,
+                10, handler, Duration.ZERO, 0, 3, DEAD_KEY);
+    }
+}